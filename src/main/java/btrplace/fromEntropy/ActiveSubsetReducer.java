@@ -0,0 +1,270 @@
+/*
+ * Copyright (c) 2012 University of Nice Sophia-Antipolis
+ *
+ * This file is part of btrplace.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package btrplace.fromEntropy;
+
+import btrplace.model.*;
+import btrplace.model.constraint.*;
+import btrplace.model.view.ModelView;
+import btrplace.model.view.ShareableResource;
+
+import java.util.*;
+
+/**
+ * Reduce an instance to the elements that are affected by a reconfiguration.
+ * <p/>
+ * The active subset is computed from:
+ * <ul>
+ * <li>the VMs and the nodes which state must change according to the
+ * {@link Running}, {@link Ready}, {@link Sleeping}, {@link Killed}, {@link Online}
+ * and {@link Offline} constraints. The VMs hosted by a node that must go offline are active too;</li>
+ * <li>the VMs having a {@link Preserve} demand;</li>
+ * <li>the scopes of the constraints that involve an active VM, until a fixpoint is reached.</li>
+ * </ul>
+ * The reduced instance contains the active VMs, their hosts, the nodes involved in the
+ * retained constraints, and the candidate destinations of the active VMs. The other VMs are fixed:
+ * they are removed from the instance and the resources they consume are removed from the capacity of their host.
+ * A candidate destination is an online node that does not go offline and that has enough free resources, once
+ * the fixed VMs are removed, to host the smallest active VM. The other nodes can not host any active VM.
+ * A constraint is retained if it involves an active VM, or if it only involves retained nodes.
+ * <p/>
+ * The reduction assumes the constraints that involve no active VM are already satisfied.
+ *
+ * @author Fabien Hermenier
+ */
+public class ActiveSubsetReducer {
+
+    /**
+     * Reduce an instance.
+     *
+     * @param i the instance to reduce
+     * @return the reduced instance
+     */
+    public Instance reduce(Instance i) {
+        Model mo = i.getModel();
+        Mapping map = mo.getMapping();
+
+        //The constraints involving each VM
+        Map<VM, List<SatConstraint>> byVM = new HashMap<VM, List<SatConstraint>>();
+        for (SatConstraint c : i.getSatConstraints()) {
+            for (VM v : c.getInvolvedVMs()) {
+                List<SatConstraint> l = byVM.get(v);
+                if (l == null) {
+                    l = new ArrayList<SatConstraint>();
+                    byVM.put(v, l);
+                }
+                l.add(c);
+            }
+        }
+
+        //The seeds
+        Set<VM> vms = new HashSet<VM>();
+        Set<Node> nodes = new HashSet<Node>();
+        Deque<VM> todo = new ArrayDeque<VM>();
+        for (SatConstraint c : i.getSatConstraints()) {
+            if (c instanceof Preserve || c instanceof Killed) {
+                activate(c.getInvolvedVMs(), vms, todo);
+            } else if (c instanceof Running) {
+                activate(changes(c.getInvolvedVMs(), map.getRunningVMs()), vms, todo);
+            } else if (c instanceof Ready) {
+                activate(changes(c.getInvolvedVMs(), map.getReadyVMs()), vms, todo);
+            } else if (c instanceof Sleeping) {
+                activate(changes(c.getInvolvedVMs(), map.getSleepingVMs()), vms, todo);
+            } else if (c instanceof Online) {
+                nodes.addAll(changes(c.getInvolvedNodes(), map.getOnlineNodes()));
+            } else if (c instanceof Offline) {
+                for (Node n : changes(c.getInvolvedNodes(), map.getOfflineNodes())) {
+                    nodes.add(n);
+                    activate(map.getRunningVMs(n), vms, todo);
+                    activate(map.getSleepingVMs(n), vms, todo);
+                }
+            }
+        }
+
+        //The closure over the constraint scopes
+        Set<SatConstraint> retained = Collections.newSetFromMap(new IdentityHashMap<SatConstraint, Boolean>());
+        while (!todo.isEmpty()) {
+            List<SatConstraint> l = byVM.get(todo.poll());
+            if (l == null) {
+                continue;
+            }
+            for (SatConstraint c : l) {
+                if (retained.add(c)) {
+                    activate(c.getInvolvedVMs(), vms, todo);
+                    nodes.addAll(c.getInvolvedNodes());
+                }
+            }
+        }
+
+        //The hosts of the active VMs
+        for (VM v : vms) {
+            Node n = map.getVMLocation(v);
+            if (n != null) {
+                nodes.add(n);
+            }
+        }
+
+        //The nodes that may host an active VM
+        if (!vms.isEmpty()) {
+            nodes.addAll(destinations(i, vms));
+        }
+
+        List<SatConstraint> cstrs = new ArrayList<SatConstraint>();
+        for (SatConstraint c : i.getSatConstraints()) {
+            if (retained.contains(c) || (c.getInvolvedVMs().isEmpty() && nodes.containsAll(c.getInvolvedNodes()))) {
+                cstrs.add(c);
+            }
+        }
+        return new Instance(makeModel(mo, nodes, vms), cstrs, i.getOptConstraint());
+    }
+
+    /**
+     * Get the online nodes that stay online and that have enough free resources to host the smallest active VM.
+     * The resources of a node are free if they are not consumed by a fixed VM.
+     */
+    private static List<Node> destinations(Instance i, Set<VM> vms) {
+        Model mo = i.getModel();
+        Mapping map = mo.getMapping();
+        Set<Node> leaving = new HashSet<Node>();
+        for (SatConstraint c : i.getSatConstraints()) {
+            if (c instanceof Offline) {
+                leaving.addAll(c.getInvolvedNodes());
+            }
+        }
+        List<ShareableResource> rcs = new ArrayList<ShareableResource>();
+        for (ModelView v : mo.getViews()) {
+            if (v instanceof ShareableResource) {
+                rcs.add((ShareableResource) v);
+            }
+        }
+
+        //The lowest amount of each resource an active VM may use on its destination
+        int[] smallest = new int[rcs.size()];
+        for (int x = 0; x < rcs.size(); x++) {
+            smallest[x] = Integer.MAX_VALUE;
+            for (VM v : vms) {
+                smallest[x] = Math.min(smallest[x], rcs.get(x).getConsumption(v));
+            }
+        }
+        for (SatConstraint c : i.getSatConstraints()) {
+            if (c instanceof Preserve) {
+                Preserve p = (Preserve) c;
+                for (int x = 0; x < rcs.size(); x++) {
+                    if (rcs.get(x).getResourceIdentifier().equals(p.getResource()) && vms.containsAll(p.getInvolvedVMs())) {
+                        smallest[x] = Math.min(smallest[x], p.getAmount());
+                    }
+                }
+            }
+        }
+
+        List<Node> res = new ArrayList<Node>();
+        for (Node n : map.getOnlineNodes()) {
+            if (leaving.contains(n)) {
+                continue;
+            }
+            boolean fit = true;
+            for (int x = 0; x < rcs.size() && fit; x++) {
+                ShareableResource rc = rcs.get(x);
+                int free = rc.getCapacity(n);
+                for (VM v : map.getRunningVMs(n)) {
+                    if (!vms.contains(v)) {
+                        free -= rc.getConsumption(v);
+                    }
+                }
+                fit = free >= smallest[x];
+            }
+            if (fit) {
+                res.add(n);
+            }
+        }
+        return res;
+    }
+
+    private static void activate(Collection<VM> c, Set<VM> vms, Deque<VM> todo) {
+        for (VM v : c) {
+            if (vms.add(v)) {
+                todo.add(v);
+            }
+        }
+    }
+
+    /**
+     * Get the elements that are not already in a given state.
+     */
+    private static <E extends Element> List<E> changes(Collection<E> elems, Set<E> current) {
+        List<E> res = new ArrayList<E>();
+        for (E e : elems) {
+            if (!current.contains(e)) {
+                res.add(e);
+            }
+        }
+        return res;
+    }
+
+    /**
+     * Make the reduced model. The fixed running VMs are removed from the capacity of their host.
+     */
+    private static Model makeModel(Model mo, Set<Node> nodes, Set<VM> vms) {
+        Mapping map = mo.getMapping();
+        Model sub = InstancePartitioner.emptyCopy(mo);
+        Mapping subMap = sub.getMapping();
+        for (Node n : map.getAllNodes()) {
+            if (!nodes.contains(n)) {
+                continue;
+            }
+            if (map.getOnlineNodes().contains(n)) {
+                subMap.addOnlineNode(n);
+            } else {
+                subMap.addOfflineNode(n);
+            }
+            InstancePartitioner.copy(mo, sub, n);
+            for (VM v : map.getRunningVMs(n)) {
+                if (!vms.contains(v)) {
+                    fix(mo, sub, n, v);
+                }
+            }
+        }
+        for (VM v : map.getAllVMs()) {
+            if (!vms.contains(v)) {
+                continue;
+            }
+            if (map.getRunningVMs().contains(v)) {
+                subMap.addRunningVM(v, map.getVMLocation(v));
+            } else if (map.getSleepingVMs().contains(v)) {
+                subMap.addSleepingVM(v, map.getVMLocation(v));
+            } else {
+                subMap.addReadyVM(v);
+            }
+            InstancePartitioner.copy(mo, sub, v);
+        }
+        return sub;
+    }
+
+    /**
+     * Remove the resources consumed by a fixed VM from the capacity of its host.
+     */
+    private static void fix(Model mo, Model sub, Node n, VM v) {
+        for (ModelView view : mo.getViews()) {
+            if (view instanceof ShareableResource) {
+                ShareableResource rc = (ShareableResource) view;
+                ShareableResource subRc = (ShareableResource) sub.getView(rc.getIdentifier());
+                subRc.setCapacity(n, subRc.getCapacity(n) - rc.getConsumption(v));
+            }
+        }
+    }
+}
@@ -0,0 +1,226 @@
+/*
+ * Copyright (c) 2012 University of Nice Sophia-Antipolis
+ *
+ * This file is part of btrplace.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package btrplace.fromEntropy;
+
+import btrplace.model.Mapping;
+import btrplace.model.Model;
+import btrplace.model.Node;
+import btrplace.model.VM;
+import btrplace.model.view.ShareableResource;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Check a converted model against the capacity of its nodes before solving.
+ * <p/>
+ * For every online node, the consumption of the running VMs is summed for the
+ * {@link ConfigurationConverter#MEMORY_USAGE} and {@link ConfigurationConverter#UCPU_USAGE}
+ * resources and compared to the node capacity. Offline nodes must not host any VM.
+ * The nodes are checked in parallel using a fork-join pool.
+ *
+ * @author Fabien Hermenier
+ */
+public class CapacityChecker {
+
+    /**
+     * The number of nodes below which a task is no longer split.
+     */
+    private static final int THRESHOLD = 1024;
+
+    private ForkJoinPool pool;
+
+    /**
+     * A violation of the node capacity or state.
+     */
+    public static class Violation {
+
+        private Node node;
+
+        private String rc;
+
+        private long amount;
+
+        private int capacity;
+
+        /**
+         * Make a new violation.
+         *
+         * @param n        the node
+         * @param rc       the overloaded resource, {@code null} for an offline node that hosts VMs
+         * @param amount   the resource consumption, or the number of hosted VMs for an offline node
+         * @param capacity the node capacity, {@code 0} for an offline node
+         */
+        public Violation(Node n, String rc, long amount, int capacity) {
+            this.node = n;
+            this.rc = rc;
+            this.amount = amount;
+            this.capacity = capacity;
+        }
+
+        /**
+         * Get the node involved in the violation.
+         *
+         * @return the node
+         */
+        public Node getNode() {
+            return node;
+        }
+
+        /**
+         * Get the overloaded resource.
+         *
+         * @return the resource identifier. {@code null} if the node is offline but hosts VMs
+         */
+        public String getResource() {
+            return rc;
+        }
+
+        /**
+         * Get the consumption of the hosted VMs.
+         *
+         * @return the consumption, or the number of VMs hosted by an offline node
+         */
+        public long getAmount() {
+            return amount;
+        }
+
+        /**
+         * Get the node capacity.
+         *
+         * @return the capacity
+         */
+        public int getCapacity() {
+            return capacity;
+        }
+
+        @Override
+        public String toString() {
+            if (rc == null) {
+                return "offline node " + node + " hosts " + amount + " VM(s)";
+            }
+            return "node " + node + ": " + rc + " consumption " + amount + " exceeds capacity " + capacity;
+        }
+    }
+
+    /**
+     * Make a new checker that use the common fork-join pool.
+     */
+    public CapacityChecker() {
+        this(ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Make a new checker.
+     *
+     * @param pool the pool that runs the checks
+     */
+    public CapacityChecker(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * Check a model.
+     *
+     * @param mo the model to check
+     * @return the violations, ordered by node. The list is empty if the model is viable
+     */
+    public List<Violation> check(Model mo) {
+        Mapping map = mo.getMapping();
+        List<ShareableResource> rcs = new ArrayList<ShareableResource>();
+        for (String id : new String[]{ConfigurationConverter.MEMORY_USAGE, ConfigurationConverter.UCPU_USAGE}) {
+            ShareableResource rc = (ShareableResource) mo.getView(ShareableResource.VIEW_ID_BASE + id);
+            if (rc != null) {
+                rcs.add(rc);
+            }
+        }
+        Node[] nodes = map.getAllNodes().toArray(new Node[map.getAllNodes().size()]);
+        return pool.invoke(new CheckTask(map, rcs, nodes, 0, nodes.length));
+    }
+
+    /**
+     * Check a range of nodes.
+     */
+    private static class CheckTask extends RecursiveTask<List<Violation>> {
+
+        private Mapping map;
+
+        private List<ShareableResource> rcs;
+
+        private Node[] nodes;
+
+        private int from, to;
+
+        CheckTask(Mapping map, List<ShareableResource> rcs, Node[] nodes, int from, int to) {
+            this.map = map;
+            this.rcs = rcs;
+            this.nodes = nodes;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected List<Violation> compute() {
+            if (to - from > THRESHOLD) {
+                int mid = (from + to) >>> 1;
+                CheckTask left = new CheckTask(map, rcs, nodes, from, mid);
+                left.fork();
+                List<Violation> right = new CheckTask(map, rcs, nodes, mid, to).compute();
+                List<Violation> res = left.join();
+                if (res.isEmpty()) {
+                    return right;
+                }
+                res.addAll(right);
+                return res;
+            }
+            List<Violation> res = Collections.emptyList();
+            for (int i = from; i < to; i++) {
+                Node n = nodes[i];
+                if (map.getOfflineNodes().contains(n)) {
+                    int nb = map.getRunningVMs(n).size() + map.getSleepingVMs(n).size();
+                    if (nb > 0) {
+                        res = add(res, new Violation(n, null, nb, 0));
+                    }
+                    continue;
+                }
+                for (ShareableResource rc : rcs) {
+                    //The consumption of many VMs may exceed an int
+                    long sum = 0;
+                    for (VM vm : map.getRunningVMs(n)) {
+                        sum += rc.getConsumption(vm);
+                    }
+                    int capa = rc.getCapacity(n);
+                    if (sum > capa) {
+                        res = add(res, new Violation(n, rc.getResourceIdentifier(), sum, capa));
+                    }
+                }
+            }
+            return res;
+        }
+
+        private static List<Violation> add(List<Violation> l, Violation v) {
+            List<Violation> res = l.isEmpty() ? new ArrayList<Violation>() : l;
+            res.add(v);
+            return res;
+        }
+    }
+}
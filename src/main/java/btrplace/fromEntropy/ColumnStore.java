@@ -0,0 +1,179 @@
+/*
+ * Copyright (c) 2012 University of Nice Sophia-Antipolis
+ *
+ * This file is part of btrplace.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package btrplace.fromEntropy;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Allocate the storage of the {@link ColumnarConfiguration} columns.
+ * <p/>
+ * Columns can be stored on the heap, in direct buffers, or in a memory-mapped
+ * file. Only the columns are stored outside the heap, so this only benefits to
+ * the conversions that do not make a btrplace model, such as {@link SnapshotStream}.
+ * Every buffer uses the native byte order.
+ *
+ * @author Fabien Hermenier
+ */
+public abstract class ColumnStore implements Closeable {
+
+    /**
+     * Store the columns on the heap.
+     */
+    public static final ColumnStore HEAP = new ColumnStore() {
+        @Override
+        public ByteBuffer allocate(int bytes) {
+            return ByteBuffer.allocate(bytes).order(ByteOrder.nativeOrder());
+        }
+    };
+
+    /**
+     * Store the columns in direct buffers, outside the heap.
+     * The amount of memory is bounded by the {@code -XX:MaxDirectMemorySize} JVM option.
+     */
+    public static final ColumnStore DIRECT = new ColumnStore() {
+        @Override
+        public ByteBuffer allocate(int bytes) {
+            return ByteBuffer.allocateDirect(bytes).order(ByteOrder.nativeOrder());
+        }
+    };
+
+    /**
+     * Store the columns in a single memory-mapped temporary file.
+     * Each buffer is a region of the file. The released regions are re-used
+     * for the buffers of the same size, otherwise a new region is appended.
+     * The file is removed when the store is closed.
+     *
+     * @param dir the directory where to create the file. {@code null} for the default temporary directory
+     * @return the store
+     */
+    public static ColumnStore mapped(File dir) {
+        return new MappedStore(dir);
+    }
+
+    /**
+     * Allocate a buffer.
+     *
+     * @param bytes the buffer size in bytes
+     * @return a buffer filled with zeros
+     */
+    public abstract ByteBuffer allocate(int bytes);
+
+    /**
+     * Indicate a buffer is no longer used, so its storage can be re-used.
+     * Does nothing by default.
+     *
+     * @param bb the buffer, allocated by this store
+     */
+    public void release(ByteBuffer bb) {
+    }
+
+    /**
+     * Release the resources of the store.
+     * The buffers allocated by the store must no longer be used.
+     * Does nothing by default.
+     *
+     * @throws IOException if an error occurred while releasing the resources
+     */
+    @Override
+    public void close() throws IOException {
+    }
+
+    /**
+     * A store that maps regions of a single temporary file.
+     */
+    private static class MappedStore extends ColumnStore {
+
+        private File dir;
+
+        private File file;
+
+        private RandomAccessFile raf;
+
+        private long length;
+
+        /**
+         * The released buffers, by size.
+         */
+        private Map<Integer, Deque<ByteBuffer>> free = new HashMap<Integer, Deque<ByteBuffer>>();
+
+        MappedStore(File dir) {
+            this.dir = dir;
+        }
+
+        @Override
+        public synchronized ByteBuffer allocate(int bytes) {
+            Deque<ByteBuffer> q = free.get(bytes);
+            if (q != null && !q.isEmpty()) {
+                ByteBuffer bb = q.pop();
+                bb.clear();
+                for (int i = 0; i < bytes; i++) {
+                    bb.put(i, (byte) 0);
+                }
+                return bb;
+            }
+            try {
+                if (raf == null) {
+                    file = File.createTempFile("columns", ".bin", dir);
+                    file.deleteOnExit();
+                    raf = new RandomAccessFile(file, "rw");
+                }
+                long from = length;
+                length += bytes;
+                raf.setLength(length);
+                return raf.getChannel().map(FileChannel.MapMode.READ_WRITE, from, bytes).order(ByteOrder.nativeOrder());
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+        }
+
+        @Override
+        public synchronized void release(ByteBuffer bb) {
+            Deque<ByteBuffer> q = free.get(bb.capacity());
+            if (q == null) {
+                q = new ArrayDeque<ByteBuffer>();
+                free.put(bb.capacity(), q);
+            }
+            q.push(bb);
+        }
+
+        @Override
+        public synchronized void close() throws IOException {
+            free.clear();
+            if (raf != null) {
+                raf.close();
+                raf = null;
+                length = 0;
+                if (!file.delete() && file.exists()) {
+                    throw new IOException("Unable to delete '" + file + "'");
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,462 @@
+/*
+ * Copyright (c) 2012 University of Nice Sophia-Antipolis
+ *
+ * This file is part of btrplace.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package btrplace.fromEntropy;
+
+import entropy.configuration.parser.PBConfiguration;
+import entropy.configuration.parser.PBNode;
+import entropy.configuration.parser.PBVirtualMachine;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * A struct-of-arrays representation of an entropy configuration.
+ * <p/>
+ * Each column is indexed by the element identifier given by a {@link NameTable}.
+ * The columns are filled once by {@link #decode(PBConfiguration.Configuration, NameTable, NameTable, boolean, Listener)}
+ * and then read using sequential scans to build the model, compute the state changes
+ * or check the configuration.
+ * An undefined resource value is denoted by {@link #UNDEFINED}.
+ * The columns are allocated by a {@link ColumnStore} so they can be kept outside the heap.
+ *
+ * @author Fabien Hermenier
+ */
+public class ColumnarConfiguration {
+
+    /**
+     * Denotes an undefined resource value.
+     */
+    public static final int UNDEFINED = Integer.MIN_VALUE;
+
+    /**
+     * State of an element that is not in the configuration.
+     */
+    public static final byte NONE = 0;
+
+    /**
+     * State of an online node.
+     */
+    public static final byte ONLINE = 1;
+
+    /**
+     * State of an offline node.
+     */
+    public static final byte OFFLINE = 2;
+
+    /**
+     * State of a waiting VM.
+     */
+    public static final byte READY = 1;
+
+    /**
+     * State of a running VM.
+     */
+    public static final byte RUNNING = 2;
+
+    /**
+     * State of a sleeping VM.
+     */
+    public static final byte SLEEPING = 3;
+
+    /**
+     * Get notified of each decoded element.
+     */
+    public interface Listener {
+
+        /**
+         * A node has been decoded.
+         *
+         * @param id     the node identifier
+         * @param pbNode the protobuf node
+         */
+        void onNode(int id, PBNode.Node pbNode);
+
+        /**
+         * A VM has been decoded.
+         *
+         * @param id   the VM identifier
+         * @param pbVM the protobuf VM
+         */
+        void onVM(int id, PBVirtualMachine.VirtualMachine pbVM);
+    }
+
+    private int nbNodes;
+
+    private int nbVMs;
+
+    private ColumnStore store;
+
+    /**
+     * The buffer allocated by the store for each column.
+     */
+    private Map<Buffer, ByteBuffer> allocated = new IdentityHashMap<Buffer, ByteBuffer>();
+
+    private ByteBuffer nodeState;
+
+    private IntBuffer nodeCpuCapacity, nodeMemCapacity;
+
+    private ByteBuffer vmState;
+
+    private IntBuffer vmHost;
+
+    private IntBuffer vmCpuConsumption, vmMemConsumption;
+
+    private IntBuffer vmCpuDemand, vmMemDemand;
+
+    private IntBuffer vmCpuMax;
+
+    /**
+     * Make empty columns stored on the heap.
+     *
+     * @param nodes the expected number of nodes
+     * @param vms   the expected number of VMs
+     */
+    public ColumnarConfiguration(int nodes, int vms) {
+        this(nodes, vms, ColumnStore.HEAP);
+    }
+
+    /**
+     * Make empty columns.
+     *
+     * @param nodes the expected number of nodes
+     * @param vms   the expected number of VMs
+     * @param store the store that allocates the columns
+     */
+    public ColumnarConfiguration(int nodes, int vms, ColumnStore store) {
+        this.store = store;
+        nodeState = store.allocate(nodes);
+        allocated.put(nodeState, nodeState);
+        nodeCpuCapacity = ints(null, nodes, UNDEFINED);
+        nodeMemCapacity = ints(null, nodes, UNDEFINED);
+
+        vmState = store.allocate(vms);
+        allocated.put(vmState, vmState);
+        vmHost = ints(null, vms, -1);
+        vmCpuConsumption = ints(null, vms, UNDEFINED);
+        vmMemConsumption = ints(null, vms, UNDEFINED);
+        vmCpuDemand = ints(null, vms, UNDEFINED);
+        vmMemDemand = ints(null, vms, UNDEFINED);
+        vmCpuMax = ints(null, vms, UNDEFINED);
+    }
+
+    /**
+     * Decode a configuration.
+     *
+     * @param cfg      the configuration to decode
+     * @param nodes    the registry for the node names
+     * @param vms      the registry for the VM names
+     * @param register {@code true} to register unknown names. Otherwise, the elements
+     *                 having an unknown name are ignored
+     * @param l        the listener to notify for each decoded element. May be {@code null}
+     * @param store    the store that allocates the columns
+     * @return the resulting columns
+     */
+    static ColumnarConfiguration decode(PBConfiguration.Configuration cfg, NameTable nodes, NameTable vms,
+                                        boolean register, Listener l, ColumnStore store) {
+        int nbHosted = 0;
+        for (PBConfiguration.Configuration.Hoster h : cfg.getOnlinesList()) {
+            nbHosted += h.getHostedCount();
+        }
+        ColumnarConfiguration c = new ColumnarConfiguration(
+                Math.max(nodes.size(), cfg.getOnlinesList().size() + cfg.getOfflinesList().size()),
+                Math.max(vms.size(), cfg.getWaitingsList().size() + nbHosted), store);
+
+        for (PBNode.Node n : cfg.getOfflinesList()) {
+            c.node(n, OFFLINE, nodes, register, l);
+        }
+        for (PBVirtualMachine.VirtualMachine vm : cfg.getWaitingsList()) {
+            c.vm(vm, READY, -1, vms, register, l);
+        }
+        for (PBConfiguration.Configuration.Hoster h : cfg.getOnlinesList()) {
+            int n = c.node(h.getNode(), ONLINE, nodes, register, l);
+            for (PBConfiguration.Configuration.Hosted hosted : h.getHostedList()) {
+                byte st = hosted.getState() == PBConfiguration.Configuration.HostedVMState.RUNNING ? RUNNING : SLEEPING;
+                c.vm(hosted.getVm(), st, n, vms, register, l);
+            }
+        }
+        return c;
+    }
+
+    private int node(PBNode.Node pbNode, byte st, NameTable names, boolean register, Listener l) {
+        int id = register ? names.add(pbNode.getName()) : names.indexOf(pbNode.getName());
+        if (id < 0) {
+            return id;
+        }
+        setNode(id, st,
+                pbNode.hasCpuCapacity() ? pbNode.getCpuCapacity() : UNDEFINED,
+                pbNode.hasMemoryCapacity() ? pbNode.getMemoryCapacity() : UNDEFINED);
+        if (l != null) {
+            l.onNode(id, pbNode);
+        }
+        return id;
+    }
+
+    private void vm(PBVirtualMachine.VirtualMachine pbVM, byte st, int host, NameTable names, boolean register, Listener l) {
+        int id = register ? names.add(pbVM.getName()) : names.indexOf(pbVM.getName());
+        if (id < 0) {
+            return;
+        }
+        setVM(id, st, host,
+                pbVM.hasCpuConsumption() ? pbVM.getCpuConsumption() : UNDEFINED,
+                pbVM.hasMemoryConsumption() ? pbVM.getMemoryConsumption() : UNDEFINED,
+                pbVM.hasCpuDemand() ? pbVM.getCpuDemand() : UNDEFINED,
+                pbVM.hasMemoryDemand() ? pbVM.getMemoryDemand() : UNDEFINED,
+                pbVM.hasCpuMax() ? pbVM.getCpuMax() : UNDEFINED);
+        if (l != null) {
+            l.onVM(id, pbVM);
+        }
+    }
+
+    /**
+     * Set the columns of a node.
+     *
+     * @param id  the node identifier
+     * @param st  the node state
+     * @param cpu the uCPU capacity
+     * @param mem the memory capacity
+     */
+    void setNode(int id, byte st, int cpu, int mem) {
+        if (id >= nodeState.capacity()) {
+            growNodes(id + 1);
+        }
+        nbNodes = Math.max(nbNodes, id + 1);
+        nodeState.put(id, st);
+        nodeCpuCapacity.put(id, cpu);
+        nodeMemCapacity.put(id, mem);
+    }
+
+    /**
+     * Set the columns of a VM.
+     *
+     * @param id     the VM identifier
+     * @param st     the VM state
+     * @param host   the host identifier
+     * @param cpu    the uCPU consumption
+     * @param mem    the memory consumption
+     * @param cpuDem the uCPU demand
+     * @param memDem the memory demand
+     * @param cpuMax the uCPU maximum usage
+     */
+    void setVM(int id, byte st, int host, int cpu, int mem, int cpuDem, int memDem, int cpuMax) {
+        if (id >= vmState.capacity()) {
+            growVMs(id + 1);
+        }
+        nbVMs = Math.max(nbVMs, id + 1);
+        vmState.put(id, st);
+        vmHost.put(id, host);
+        vmCpuConsumption.put(id, cpu);
+        vmMemConsumption.put(id, mem);
+        vmCpuDemand.put(id, cpuDem);
+        vmMemDemand.put(id, memDem);
+        vmCpuMax.put(id, cpuMax);
+    }
+
+    private void growNodes(int min) {
+        int n = Math.max(min, nodeState.capacity() * 2);
+        nodeState = bytes(nodeState, n);
+        nodeCpuCapacity = ints(nodeCpuCapacity, n, UNDEFINED);
+        nodeMemCapacity = ints(nodeMemCapacity, n, UNDEFINED);
+    }
+
+    private void growVMs(int min) {
+        int n = Math.max(min, vmState.capacity() * 2);
+        vmState = bytes(vmState, n);
+        vmHost = ints(vmHost, n, -1);
+        vmCpuConsumption = ints(vmCpuConsumption, n, UNDEFINED);
+        vmMemConsumption = ints(vmMemConsumption, n, UNDEFINED);
+        vmCpuDemand = ints(vmCpuDemand, n, UNDEFINED);
+        vmMemDemand = ints(vmMemDemand, n, UNDEFINED);
+        vmCpuMax = ints(vmCpuMax, n, UNDEFINED);
+    }
+
+    /**
+     * Allocate a byte column.
+     *
+     * @param old the previous column to copy
+     * @param n   the column size
+     * @return the new column
+     */
+    private ByteBuffer bytes(ByteBuffer old, int n) {
+        ByteBuffer b = store.allocate(n);
+        old.rewind();
+        b.put(old);
+        b.rewind();
+        allocated.put(b, b);
+        store.release(allocated.remove(old));
+        return b;
+    }
+
+    /**
+     * Allocate an int column.
+     *
+     * @param old the previous column to copy. May be {@code null}
+     * @param n   the column size
+     * @param def the value of the new cells
+     * @return the new column
+     */
+    private IntBuffer ints(IntBuffer old, int n, int def) {
+        ByteBuffer bb = store.allocate(n * 4);
+        IntBuffer b = bb.asIntBuffer();
+        int from = 0;
+        if (old != null) {
+            old.rewind();
+            b.put(old);
+            from = old.capacity();
+            store.release(allocated.remove(old));
+        }
+        for (int i = from; i < n; i++) {
+            b.put(i, def);
+        }
+        b.rewind();
+        allocated.put(b, bb);
+        return b;
+    }
+
+    /**
+     * Give back the columns to their store, so their storage can be re-used.
+     * The columns must no longer be used.
+     */
+    public void release() {
+        for (ByteBuffer bb : allocated.values()) {
+            store.release(bb);
+        }
+        allocated.clear();
+    }
+
+    /**
+     * Get the number of node slots. Every node identifier is lower.
+     *
+     * @return a positive integer
+     */
+    public int getNbNodes() {
+        return nbNodes;
+    }
+
+    /**
+     * Get the number of VM slots. Every VM identifier is lower.
+     *
+     * @return a positive integer
+     */
+    public int getNbVMs() {
+        return nbVMs;
+    }
+
+    /**
+     * Get the state of a node.
+     *
+     * @param id the node identifier
+     * @return {@link #ONLINE}, {@link #OFFLINE} or {@link #NONE}
+     */
+    public byte getNodeState(int id) {
+        return id < nbNodes ? nodeState.get(id) : NONE;
+    }
+
+    /**
+     * Get the uCPU capacity of a node.
+     *
+     * @param id the node identifier
+     * @return the capacity, or {@link #UNDEFINED}
+     */
+    public int getNodeCpuCapacity(int id) {
+        return nodeCpuCapacity.get(id);
+    }
+
+    /**
+     * Get the memory capacity of a node.
+     *
+     * @param id the node identifier
+     * @return the capacity, or {@link #UNDEFINED}
+     */
+    public int getNodeMemoryCapacity(int id) {
+        return nodeMemCapacity.get(id);
+    }
+
+    /**
+     * Get the state of a VM.
+     *
+     * @param id the VM identifier
+     * @return {@link #READY}, {@link #RUNNING}, {@link #SLEEPING} or {@link #NONE}
+     */
+    public byte getVMState(int id) {
+        return id < nbVMs ? vmState.get(id) : NONE;
+    }
+
+    /**
+     * Get the host of a VM.
+     *
+     * @param id the VM identifier
+     * @return the node identifier, {@code -1} if the VM is not hosted
+     */
+    public int getVMHost(int id) {
+        return vmHost.get(id);
+    }
+
+    /**
+     * Get the uCPU consumption of a VM.
+     *
+     * @param id the VM identifier
+     * @return the consumption, or {@link #UNDEFINED}
+     */
+    public int getVMCpuConsumption(int id) {
+        return vmCpuConsumption.get(id);
+    }
+
+    /**
+     * Get the memory consumption of a VM.
+     *
+     * @param id the VM identifier
+     * @return the consumption, or {@link #UNDEFINED}
+     */
+    public int getVMMemoryConsumption(int id) {
+        return vmMemConsumption.get(id);
+    }
+
+    /**
+     * Get the next uCPU demand of a VM.
+     *
+     * @param id the VM identifier
+     * @return the demand, or {@link #UNDEFINED}
+     */
+    public int getVMCpuDemand(int id) {
+        return vmCpuDemand.get(id);
+    }
+
+    /**
+     * Get the next memory demand of a VM.
+     *
+     * @param id the VM identifier
+     * @return the demand, or {@link #UNDEFINED}
+     */
+    public int getVMMemoryDemand(int id) {
+        return vmMemDemand.get(id);
+    }
+
+    /**
+     * Get the maximum uCPU usage of a VM.
+     *
+     * @param id the VM identifier
+     * @return the maximum, or {@link #UNDEFINED}
+     */
+    public int getVMCpuMax(int id) {
+        return vmCpuMax.get(id);
+    }
+}
@@ -22,12 +22,15 @@ import btrplace.model.*;
 import btrplace.model.constraint.*;
 import btrplace.model.view.NamingService;
 import btrplace.model.view.ShareableResource;
+import com.google.protobuf.CodedInputStream;
 import entropy.configuration.parser.PBConfiguration;
 import entropy.configuration.parser.PBNode;
 import entropy.configuration.parser.PBVirtualMachine;
 
 import java.io.FileInputStream;
+import java.io.InputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.*;
 
 /**
@@ -43,9 +46,11 @@ import java.util.*;
  * capacity is performed with an {@link Overbook} constraint having an overloading factor of 1.</li>
  * <li>The number of CPUs for the nodes and the VMs is converted to a {@link ShareableResource} view with
  * a resource identifier equals to {@link #NB_CPUS}. No mapping is performed by default as Entropy ignore this resource.</li>
- * <li>VM and node templates are converted into an attribute {@link #TEMPLATE}.</li>
+ * <li>VM and node templates are converted into an attribute {@link #TEMPLATE}. Alternatively, VM templates
+ * and options can be shared through a {@link TemplateCatalog}.</li>
  * <li>Node IP and Max are converted into attributes {@link #IP} and {@link #MAC} respectively.</li>
- * <li>For each VM and node, the attribute {@link #ENTROPY_ID} indicates the element name</li>
+ * <li>For each VM and node, the attribute {@link #ENTROPY_ID} indicates the element name. The attribute is
+ * resolved on demand from a compact name registry.</li>
  * </ul>
  * <p/>
  * In addition, when the next state for the elements is provided through another configuration, {@link Running},
@@ -63,9 +68,31 @@ public class ConfigurationConverter {
     private ShareableResource rcMem, rcCpu;// rcNbCPUs;
 
     private NamingService<Node> registryNodes;
-    private int nodeId = 0;
     private NamingService<VM> registryVMs;
-    private int vmId = 0;
+
+    /**
+     * The conversion-local name registries.
+     * The naming services are filled once the mapping is made.
+     */
+    private NameTable nodeNames, vmNames;
+
+    /**
+     * The attributes of the model, that resolve the {@link #ENTROPY_ID} attributes.
+     */
+    private NamedAttributes attrs;
+
+    private TemplateCatalog catalog;
+
+    private DemandTable demands;
+
+    /**
+     * The columns of the converted configuration.
+     */
+    private ColumnarConfiguration src;
+
+    private ColumnStore store;
+
+    private OptionCaster caster = new OptionCaster();
 
 
     private List<SatConstraint> cstrs;
@@ -110,6 +137,11 @@ public class ConfigurationConverter {
      */
     public static final String ENTROPY_ID = "entropy_id";
 
+    /**
+     * Attribute identifier to get the bundle of a VM inside a {@link TemplateCatalog}.
+     */
+    public static final String TEMPLATE_ID = "template_id";
+
     /**
      * Convert an Entropy Configuration.
      *
@@ -117,8 +149,195 @@ public class ConfigurationConverter {
      * @throws IOException if an error occurred while parsing the configuration
      */
     public ConfigurationConverter(String src) throws IOException {
+        this(src, (TemplateCatalog) null);
+    }
+
+    /**
+     * Convert an Entropy Configuration while sharing the VM templates.
+     * The template and the options of each VM are stored inside the catalog
+     * and the VM only refers to them using the {@link #TEMPLATE_ID} attribute.
+     *
+     * @param src     the configuration to convert
+     * @param catalog the catalog to fill. {@code null} to declare the templates and the options
+     *                as attributes of each VM
+     * @throws IOException if an error occurred while parsing the configuration
+     */
+    public ConfigurationConverter(String src, TemplateCatalog catalog) throws IOException {
+        this(src, catalog, ColumnStore.HEAP);
+    }
+
+    /**
+     * Convert an Entropy Configuration.
+     *
+     * @param src     the configuration to convert
+     * @param catalog the catalog to fill. {@code null} to declare the templates and the options
+     *                as attributes of each VM
+     * @param store   the store that allocates the columns of the converted configurations
+     * @throws IOException if an error occurred while parsing the configuration
+     */
+    public ConfigurationConverter(String src, TemplateCatalog catalog, ColumnStore store) throws IOException {
+        this(src, catalog, store, null);
+    }
+
+    /**
+     * Convert an Entropy Configuration using a cache of converted configurations.
+     * When the cache contains a snapshot of the configuration, the snapshot is loaded
+     * instead of decoding the configuration. Otherwise, a snapshot is saved once
+     * the configuration is converted.
+     * The cache is ignored when a template catalog is used.
+     *
+     * @param src     the configuration to convert
+     * @param catalog the catalog to fill. {@code null} to declare the templates and the options
+     *                as attributes of each VM
+     * @param store   the store that allocates the columns of the converted configurations
+     * @param cache   the cache of converted configurations. May be {@code null}
+     * @throws IOException if an error occurred while parsing the configuration
+     */
+    public ConfigurationConverter(String src, TemplateCatalog catalog, ColumnStore store, SnapshotCache cache) throws IOException {
+        this(src, catalog, store, cache, null);
+    }
+
+    /**
+     * Convert an Entropy Configuration using a cache of converted configurations
+     * and a table of the resource demands.
+     * The demands are stored inside the table instead of being stated
+     * using {@link Preserve} constraints.
+     *
+     * @param src     the configuration to convert
+     * @param catalog the catalog to fill. {@code null} to declare the templates and the options
+     *                as attributes of each VM
+     * @param store   the store that allocates the columns of the converted configurations
+     * @param cache   the cache of converted configurations. May be {@code null}
+     * @param demands the table to fill. {@code null} to state the demands using {@link Preserve} constraints
+     * @throws IOException if an error occurred while parsing the configuration
+     */
+    public ConfigurationConverter(String src, TemplateCatalog catalog, ColumnStore store, SnapshotCache cache, DemandTable demands) throws IOException {
+        init(catalog, store, demands);
+
+        String key = null;
+        if (cache != null && catalog == null) {
+            key = cache.key(src);
+            SnapshotCache.Snapshot snap = cache.load(key, model.getAttributes(), store);
+            if (snap != null) {
+                nodeNames = snap.nodes;
+                vmNames = snap.vms;
+                this.src = snap.columns;
+                makeMapping();
+                registerNames();
+                return;
+            }
+        }
+
+        InputStream in = new FileInputStream(src);
+        try {
+            convert(PBConfiguration.Configuration.parseFrom(in));
+        } finally {
+            in.close();
+        }
+        if (key != null) {
+            cache.save(key, nodeNames, vmNames, this.src, model.getAttributes());
+        }
+        registerNames();
+    }
+
+    /**
+     * Convert an Entropy Configuration read from a stream, such as the standard input.
+     *
+     * @param in the stream that contains the configuration to convert. It is read until its end but not closed
+     * @throws IOException if an error occurred while parsing the configuration
+     */
+    public ConfigurationConverter(InputStream in) throws IOException {
+        this(in, null, ColumnStore.HEAP, null);
+    }
+
+    /**
+     * Convert an Entropy Configuration read from a stream, such as the standard input.
+     *
+     * @param in      the stream that contains the configuration to convert. It is read until its end but not closed
+     * @param catalog the catalog to fill. {@code null} to declare the templates and the options
+     *                as attributes of each VM
+     * @param store   the store that allocates the columns of the converted configurations
+     * @param demands the table to fill. {@code null} to state the demands using {@link Preserve} constraints
+     * @throws IOException if an error occurred while parsing the configuration
+     */
+    public ConfigurationConverter(InputStream in, TemplateCatalog catalog, ColumnStore store, DemandTable demands) throws IOException {
+        init(catalog, store, demands);
+        convert(PBConfiguration.Configuration.parseFrom(in));
+        registerNames();
+    }
+
+    /**
+     * Convert an Entropy Configuration stored in a buffer.
+     *
+     * @param bb the buffer that contains the configuration to convert, between its position and its limit.
+     *           The buffer position is not modified
+     * @throws IOException if an error occurred while parsing the configuration
+     */
+    public ConfigurationConverter(ByteBuffer bb) throws IOException {
+        this(bb, null, ColumnStore.HEAP, null);
+    }
+
+    /**
+     * Convert an Entropy Configuration stored in a buffer.
+     *
+     * @param bb      the buffer that contains the configuration to convert, between its position and its limit.
+     *                The buffer position is not modified
+     * @param catalog the catalog to fill. {@code null} to declare the templates and the options
+     *                as attributes of each VM
+     * @param store   the store that allocates the columns of the converted configurations
+     * @param demands the table to fill. {@code null} to state the demands using {@link Preserve} constraints
+     * @throws IOException if an error occurred while parsing the configuration
+     */
+    public ConfigurationConverter(ByteBuffer bb, TemplateCatalog catalog, ColumnStore store, DemandTable demands) throws IOException {
+        init(catalog, store, demands);
+        convert(PBConfiguration.Configuration.parseFrom(input(bb)));
+        registerNames();
+    }
+
+    /**
+     * Get a stream over the content of a buffer, without copying the content.
+     */
+    private static CodedInputStream input(ByteBuffer bb) {
+        if (bb.hasArray()) {
+            return CodedInputStream.newInstance(bb.array(), bb.arrayOffset() + bb.position(), bb.remaining());
+        }
+        // A direct or a read-only buffer is read by chunks
+        final ByteBuffer b = bb.duplicate();
+        CodedInputStream in = CodedInputStream.newInstance(new InputStream() {
+            @Override
+            public int read() {
+                return b.hasRemaining() ? b.get() & 0xff : -1;
+            }
+
+            @Override
+            public int read(byte[] dst, int off, int len) {
+                if (len == 0) {
+                    return 0;
+                }
+                if (!b.hasRemaining()) {
+                    return -1;
+                }
+                int n = Math.min(len, b.remaining());
+                b.get(dst, off, n);
+                return n;
+            }
+        });
+        // The buffer already bounds the input
+        in.setSizeLimit(Integer.MAX_VALUE);
+        return in;
+    }
+
+    /**
+     * Make the empty model and its views.
+     */
+    private void init(TemplateCatalog catalog, ColumnStore store, DemandTable demands) {
+        this.catalog = catalog;
+        this.demands = demands;
+        this.store = store;
 
         model = new DefaultModel();
+        attrs = new NamedAttributes();
+        model.setAttributes(attrs);
         map = model.getMapping();
 
         rcMem = new ShareableResource(MEMORY_USAGE);
@@ -136,8 +355,16 @@ public class ConfigurationConverter {
         model.attach(registryVMs);
 
         cstrs = new ArrayList<SatConstraint>();
+    }
 
-        makeMapping(PBConfiguration.Configuration.parseFrom(new FileInputStream(src)));
+    /**
+     * Decode a configuration and make the mapping.
+     */
+    private void convert(PBConfiguration.Configuration cfg) {
+        nodeNames = new NameTable(cfg.getOnlinesList().size() + cfg.getOfflinesList().size());
+        vmNames = new NameTable(cfg.getOnlinesList().size() + cfg.getWaitingsList().size());
+        decode(cfg);
+        makeMapping();
     }
 
     /**
@@ -160,9 +387,38 @@ public class ConfigurationConverter {
      * @throws IOException if an error occurred while reading the configuration
      */
     public Collection<SatConstraint> getNextStates(String dst) throws IOException {
-        List<SatConstraint> states = new ArrayList<SatConstraint>();
+        InputStream in = new FileInputStream(dst);
+        try {
+            return getNextStates(in);
+        } finally {
+            in.close();
+        }
+    }
 
-        PBConfiguration.Configuration cfg = PBConfiguration.Configuration.parseFrom(new FileInputStream(dst));
+    /**
+     * Convert the elements state change.
+     *
+     * @param in the stream that contains the entropy destination configuration. It is read until its end but not closed
+     * @return the corresponding set of constraints
+     * @throws IOException if an error occurred while reading the configuration
+     */
+    public Collection<SatConstraint> getNextStates(InputStream in) throws IOException {
+        PBConfiguration.Configuration cfg = PBConfiguration.Configuration.parseFrom(in);
+        ColumnarConfiguration next = ColumnarConfiguration.decode(cfg, nodeNames, vmNames, false, null, store);
+        return stateChanges(src, next, false);
+    }
+
+    /**
+     * Compute the state constraints between two decoded configurations.
+     *
+     * @param src         the current configuration
+     * @param next        the next configuration, decoded with the same name registries
+     * @param nodeChanges {@code true} to only state the nodes whose state changes,
+     *                    {@code false} to state every node of the next configuration
+     * @return the corresponding set of constraints
+     */
+    static List<SatConstraint> stateChanges(ColumnarConfiguration src, ColumnarConfiguration next, boolean nodeChanges) {
+        List<SatConstraint> states = new ArrayList<SatConstraint>();
 
         // Nodes states
         List<Node> on = new ArrayList<Node>();
@@ -175,7 +431,7 @@ public class ConfigurationConverter {
         List<VM> killed = new ArrayList<VM>();
 
         // Get and ass the nodes state constraints
-        nextNodeStates(cfg, on, off);
+        nextNodeStates(src, next, nodeChanges, on, off);
         if (!on.isEmpty()) {
             states.addAll(Online.newOnline(on));
         }
@@ -184,7 +440,7 @@ public class ConfigurationConverter {
         }
 
         // Get and add the VMs state constraints
-        nextVMStates(cfg, ready, running, sleeping, killed);
+        nextVMStates(src, next, ready, running, sleeping, killed);
         if (!ready.isEmpty()) {
             states.addAll(Ready.newReady(ready));
         }
@@ -201,60 +457,62 @@ public class ConfigurationConverter {
         return states;
     }
 
-    private void nextVMStates(PBConfiguration.Configuration cfg, List<VM> ready, List<VM> running, List<VM> sleeping, List<VM> killed) {
+    private static void nextVMStates(ColumnarConfiguration src, ColumnarConfiguration next, List<VM> ready, List<VM> running, List<VM> sleeping, List<VM> killed) {
 
         /*
           (none || running) -> ready : ready()
-          (ready || sleeping) -> running  : running()
+          (none || ready || sleeping) -> running  : running()
           * -> none : killed()
-          running -> sleeping : sleeping()
+          (none || running) -> sleeping : sleeping()
+          The VMs that are not in the current configuration, or beyond its identifiers, are in the none state.
+          They only have an identifier if the next configuration was decoded with registration, as in a stream of snapshots.
          */
-
-        Set<VM> seen = new HashSet<VM>();
-        for (PBVirtualMachine.VirtualMachine v : cfg.getWaitingsList()) {
-            VM vm = registryVMs.resolve(v.getName());
-            if (map.getRunningVMs().contains(vm) || !map.getAllVMs().contains(vm)) {
-                ready.add(vm);
-            }
-            seen.add(vm);
-        }
-
-        for (PBConfiguration.Configuration.Hoster hoster : cfg.getOnlinesList()) {
-            for (PBConfiguration.Configuration.Hosted hosted : hoster.getHostedList()) {
-                PBConfiguration.Configuration.HostedVMState st = hosted.getState();
-                String vname = hosted.getVm().getName();
-                VM vm = registryVMs.resolve(vname);
-                if (st == PBConfiguration.Configuration.HostedVMState.RUNNING) {
-                    if (map.getReadyVMs().contains(vm) || map.getSleepingVMs().contains(vm)) {
-                        running.add(vm);
+        for (int id = 0; id < next.getNbVMs(); id++) {
+            byte cur = src.getVMState(id);
+            switch (next.getVMState(id)) {
+                case ColumnarConfiguration.READY:
+                    if (cur == ColumnarConfiguration.RUNNING || cur == ColumnarConfiguration.NONE) {
+                        ready.add(new VM(id));
                     }
-                } else { //Sleeping state
-                    if (map.getRunningVMs().contains(vm)) {
-                        sleeping.add(vm);
+                    break;
+                case ColumnarConfiguration.RUNNING:
+                    if (cur != ColumnarConfiguration.RUNNING) {
+                        running.add(new VM(id));
                     }
-                }
-                seen.add(vm);
+                    break;
+                case ColumnarConfiguration.SLEEPING:
+                    if (cur == ColumnarConfiguration.RUNNING || cur == ColumnarConfiguration.NONE) {
+                        sleeping.add(new VM(id));
+                    }
+                    break;
+                default:
+                    //The killed VMs
+                    if (cur != ColumnarConfiguration.NONE) {
+                        killed.add(new VM(id));
+                    }
+                    break;
             }
         }
-        //The killed VMs
-        for (VM vm : map.getAllVMs()) {
-            if (!seen.contains(vm)) {
-                killed.add(vm);
+        //The VMs that are beyond the identifiers of the next configuration are killed
+        for (int id = next.getNbVMs(); id < src.getNbVMs(); id++) {
+            if (src.getVMState(id) != ColumnarConfiguration.NONE) {
+                killed.add(new VM(id));
             }
         }
     }
 
-    private void nextNodeStates(PBConfiguration.Configuration cfg, List<Node> on, List<Node> off) {
-        //Check for offline nodes
-        for (PBNode.Node n : cfg.getOfflinesList()) {
-            Node node = registryNodes.resolve("@"+n.getName());
-            off.add(node);
-        }
-
-        //Check for online nodes
-        for (PBConfiguration.Configuration.Hoster n : cfg.getOnlinesList()) {
-            Node node = registryNodes.resolve("@"+n.getNode().getName());
-            on.add(node);
+    private static void nextNodeStates(ColumnarConfiguration src, ColumnarConfiguration next, boolean nodeChanges,
+                                       List<Node> on, List<Node> off) {
+        for (int id = 0; id < next.getNbNodes(); id++) {
+            byte st = next.getNodeState(id);
+            if (nodeChanges && id < src.getNbNodes() && st == src.getNodeState(id)) {
+                continue;
+            }
+            if (st == ColumnarConfiguration.ONLINE) {
+                on.add(new Node(id));
+            } else if (st == ColumnarConfiguration.OFFLINE) {
+                off.add(new Node(id));
+            }
         }
     }
 
@@ -285,6 +543,34 @@ public class ConfigurationConverter {
         return registryVMs;
     }
 
+    /**
+     * Get the catalog that stores the VM templates.
+     *
+     * @return the catalog, {@code null} if the templates are declared as attributes
+     */
+    public TemplateCatalog getTemplateCatalog() {
+        return catalog;
+    }
+
+    /**
+     * Get the table that stores the resource demands.
+     *
+     * @return the table, {@code null} if the demands are stated using {@link Preserve} constraints
+     */
+    public DemandTable getDemandTable() {
+        return demands;
+    }
+
+    /**
+     * Get the columns of the converted configuration.
+     * Elements identifiers are the indexes inside the columns.
+     *
+     * @return the columns
+     */
+    public ColumnarConfiguration getColumns() {
+        return src;
+    }
+
     /**
      * Get the model that results from the configuration conversion.
      *
@@ -295,90 +581,54 @@ public class ConfigurationConverter {
     }
 
     /**
-     * Un-serialize the protobuf version of a VM
+     * Un-serialize the attributes of the protobuf version of a VM.
+     * The resources and the state are read from the columns.
      *
+     * @param id   the VM identifier
      * @param pbVM the virtual machine to convert.
-     * @return the VM identifier
      */
-    private VM parse(PBVirtualMachine.VirtualMachine pbVM) {
+    private void parse(int id, PBVirtualMachine.VirtualMachine pbVM) {
 
-        String name = pbVM.getName();
-        VM vm = registryVMs.resolve(name);
-        if (vm == null) {
-            vm = new VM(vmId);
-            vmId++;
-            registryVMs.register(vm, name);
-        }
-        model.getAttributes().put(vm, ENTROPY_ID, name);
-        if (pbVM.hasCpuConsumption()) {
-            rcCpu.setConsumption(vm, pbVM.getCpuConsumption());
-        }
-
-        if (pbVM.hasCpuDemand() && pbVM.getCpuDemand() != rcCpu.getConsumption(vm)) {
-            cstrs.add(new Preserve(vm, UCPU_USAGE, pbVM.getCpuDemand()));
-        }
-
-        if (pbVM.hasCpuMax()) {
-            model.getAttributes().put(vm, UCPU_MAX, pbVM.getCpuMax());
-        }
+        VM vm = new VM(id);
 
-        if (pbVM.hasMemoryConsumption()) {
-            rcMem.setConsumption(vm, pbVM.getMemoryConsumption());
-        }
+        /*if (pbVM.hasNbOfCPUs()) {
+            rcNbCPUs.setConsumption(vm, pbVM.getNbOfCPUs());
+        }*/
 
-        if (pbVM.hasMemoryDemand() && pbVM.getMemoryDemand() != rcMem.getConsumption(vm)) {
-            cstrs.add(new Preserve(vm, MEMORY_USAGE, pbVM.getMemoryDemand()));
+        if (catalog != null) {
+            model.getAttributes().put(vm, TEMPLATE_ID, catalog.register(pbVM));
+            return;
         }
 
         if (pbVM.hasTemplate()) {
             model.getAttributes().put(vm, TEMPLATE, pbVM.getTemplate());
         }
 
-        /*if (pbVM.hasNbOfCPUs()) {
-            rcNbCPUs.setConsumption(vm, pbVM.getNbOfCPUs());
-        }*/
-
         for (PBVirtualMachine.VirtualMachine.Option opt : pbVM.getOptionsList()) {
             String k = opt.getKey();
             if (opt.hasValue()) {
-                model.getAttributes().castAndPut(vm, k, opt.getValue());
+                caster.put(model.getAttributes(), vm, k, opt.getValue());
             } else {
                 model.getAttributes().put(vm, k, true);
             }
         }
-
-        return vm;
     }
 
     /**
-     * Un-serialize the protobuf version of a node
+     * Un-serialize the attributes of the protobuf version of a node.
+     * The resources and the state are read from the columns.
      *
+     * @param id     the node identifier
      * @param pbNode the node to convert.
-     * @return the Node
      */
-    private Node parse(PBNode.Node pbNode) {
+    private void parse(int id, PBNode.Node pbNode) {
 
-        String name = pbNode.getName();
-        Node n = registryNodes.resolve("@"+name);
-        if (n == null) {
-            n = new Node(nodeId);
-            nodeId++;
-            registryNodes.register(n, "@"+name);
-        }
-        model.getAttributes().put(n, ENTROPY_ID, name);
+        Node n = new Node(id);
 
         /*if (pbNode.hasNbOfCPUs()) {
             rcNbCPUs.setCapacity(n, pbNode.getNbOfCPUs());
         }*/
 
-        if (pbNode.hasCpuCapacity()) {
-            rcCpu.setCapacity(n, pbNode.getCpuCapacity());
-        }
-
-        if (pbNode.hasMemoryCapacity()) {
-            rcMem.setCapacity(n, pbNode.getMemoryCapacity());
-        }
-
         if (pbNode.hasIp()) {
             model.getAttributes().put(n, IP, pbNode.getIp());
         }
@@ -391,7 +641,7 @@ public class ConfigurationConverter {
             for (PBNode.Node.Platform.Option o : p.getOptionsList()) {
                 String k = o.getKey();
                 if (o.hasValue()) {
-                    model.getAttributes().castAndPut(n, k, o.getValue());
+                    caster.put(model.getAttributes(), n, k, o.getValue());
                 } else {
                     model.getAttributes().put(n, k, true);
                 }
@@ -401,32 +651,109 @@ public class ConfigurationConverter {
         if (pbNode.hasCurrentPlatform()) {
             model.getAttributes().put(n, TEMPLATE, pbNode.getCurrentPlatform());
         }
-        return n;
     }
 
-    private void makeMapping(PBConfiguration.Configuration c) {
-
-        for (PBNode.Node n : c.getOfflinesList()) {
-            map.addOfflineNode(parse(n));
+    /**
+     * Fill the naming services from the conversion-local registries.
+     * The naming services of btrplace store the names, so they are materialized there.
+     * The {@link #ENTROPY_ID} attributes are not stored but resolved on demand
+     * from the registries.
+     */
+    private void registerNames() {
+        for (int id = 0; id < nodeNames.size(); id++) {
+            registryNodes.register(new Node(id), "@" + nodeNames.name(id));
         }
-        for (PBVirtualMachine.VirtualMachine vm : c.getWaitingsList()) {
-            map.addReadyVM(parse(vm));
+        for (int id = 0; id < vmNames.size(); id++) {
+            registryVMs.register(new VM(id), vmNames.name(id));
         }
-        for (PBConfiguration.Configuration.Hoster h : c.getOnlinesList()) {
-            Node n = parse(h.getNode());
-            map.addOnlineNode(n);
-            for (PBConfiguration.Configuration.Hosted hosted : h.getHostedList()) {
-                PBConfiguration.Configuration.HostedVMState st = hosted.getState();
-                VM vm = parse(hosted.getVm());
-                switch (st) {
-                    case RUNNING:
-                        map.addRunningVM(vm, n);
-                        break;
-                    case SLEEPING:
-                        map.addSleepingVM(vm, n);
-                        break;
-                }
+        attrs.setNames(nodeNames, vmNames);
+    }
+
+    /**
+     * Decode the configuration into columns and attributes.
+     *
+     * @param c the configuration to decode
+     */
+    private void decode(PBConfiguration.Configuration c) {
+        src = ColumnarConfiguration.decode(c, nodeNames, vmNames, true, new ColumnarConfiguration.Listener() {
+            @Override
+            public void onNode(int id, PBNode.Node pbNode) {
+                parse(id, pbNode);
             }
+
+            @Override
+            public void onVM(int id, PBVirtualMachine.VirtualMachine pbVM) {
+                parse(id, pbVM);
+            }
+        }, store);
+    }
+
+    /**
+     * Make the mapping, the resources and the resource demands from the columns.
+     */
+    private void makeMapping() {
+        for (int id = 0; id < src.getNbNodes(); id++) {
+            Node n = new Node(id);
+            byte st = src.getNodeState(id);
+            if (st == ColumnarConfiguration.ONLINE) {
+                map.addOnlineNode(n);
+            } else if (st == ColumnarConfiguration.OFFLINE) {
+                map.addOfflineNode(n);
+            } else {
+                continue;
+            }
+            if (src.getNodeCpuCapacity(id) != ColumnarConfiguration.UNDEFINED) {
+                rcCpu.setCapacity(n, src.getNodeCpuCapacity(id));
+            }
+            if (src.getNodeMemoryCapacity(id) != ColumnarConfiguration.UNDEFINED) {
+                rcMem.setCapacity(n, src.getNodeMemoryCapacity(id));
+            }
+        }
+
+        for (int id = 0; id < src.getNbVMs(); id++) {
+            VM vm = new VM(id);
+            switch (src.getVMState(id)) {
+                case ColumnarConfiguration.READY:
+                    map.addReadyVM(vm);
+                    break;
+                case ColumnarConfiguration.RUNNING:
+                    map.addRunningVM(vm, new Node(src.getVMHost(id)));
+                    break;
+                case ColumnarConfiguration.SLEEPING:
+                    map.addSleepingVM(vm, new Node(src.getVMHost(id)));
+                    break;
+                default:
+                    continue;
+            }
+
+            int v = src.getVMCpuConsumption(id);
+            if (v != ColumnarConfiguration.UNDEFINED) {
+                rcCpu.setConsumption(vm, v);
+            }
+            v = src.getVMCpuDemand(id);
+            if (v != ColumnarConfiguration.UNDEFINED && v != rcCpu.getConsumption(vm)) {
+                addDemand(vm, UCPU_USAGE, v);
+            }
+            v = src.getVMCpuMax(id);
+            if (v != ColumnarConfiguration.UNDEFINED) {
+                model.getAttributes().put(vm, UCPU_MAX, v);
+            }
+            v = src.getVMMemoryConsumption(id);
+            if (v != ColumnarConfiguration.UNDEFINED) {
+                rcMem.setConsumption(vm, v);
+            }
+            v = src.getVMMemoryDemand(id);
+            if (v != ColumnarConfiguration.UNDEFINED && v != rcMem.getConsumption(vm)) {
+                addDemand(vm, MEMORY_USAGE, v);
+            }
+        }
+    }
+
+    private void addDemand(VM vm, String rc, int amount) {
+        if (demands != null) {
+            demands.setDemand(rc, vm, amount);
+        } else {
+            cstrs.add(new Preserve(vm, rc, amount));
         }
     }
 
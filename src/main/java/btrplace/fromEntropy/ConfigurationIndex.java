@@ -0,0 +1,488 @@
+/*
+ * Copyright (c) 2012 University of Nice Sophia-Antipolis
+ *
+ * This file is part of btrplace.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package btrplace.fromEntropy;
+
+import entropy.configuration.parser.PBConfiguration;
+import entropy.configuration.parser.PBNode;
+import entropy.configuration.parser.PBVirtualMachine;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * A random access to the records of a configuration in the protobuf format.
+ * <p/>
+ * The index is a sidecar file that stores, by name, the byte offset and the length
+ * of each {@code Hoster}, offline {@code Node} and waiting {@code VirtualMachine} record.
+ * The VMs hosted by a node point to the record of their {@code Hoster}.
+ * The index is bound to the size and the modification date of the configuration.
+ * <p/>
+ * The index stores one table for the nodes and one for the VMs. Each table is made of
+ * fixed-size entries sorted by the UTF-8 bytes of the element names, so a query is a binary
+ * search through a memory-mapped view of the index. A query then only decodes the
+ * requested records through a memory-mapped view of the configuration.
+ *
+ * @author Fabien Hermenier
+ */
+public class ConfigurationIndex implements Closeable {
+
+    /**
+     * The extension of the index files.
+     */
+    public static final String EXTENSION = ".idx";
+
+    private static final int MAGIC = 0x45494458;
+
+    private static final int VERSION = 2;
+
+    private static final byte HOSTER = 0, OFFLINE = 1, WAITING = 2, HOSTED = 3;
+
+    /**
+     * The size of the header: magic, version, configuration size and date, number of nodes and VMs.
+     */
+    private static final int HEADER = 32;
+
+    /**
+     * The size of a table entry: name position, kind, record offset and record length.
+     */
+    private static final int ENTRY = 17;
+
+    /**
+     * The record of an element.
+     */
+    private static final class Entry {
+
+        byte kind;
+
+        long offset;
+
+        int length;
+
+        Entry(byte kind, long offset, int length) {
+            this.kind = kind;
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+
+    /**
+     * The mapped index.
+     */
+    private ByteBuffer idx;
+
+    private int nbNodes, nbVMs;
+
+    private RandomAccessFile raf;
+
+    /**
+     * Open an index.
+     * Only the header is read, the entries are looked up on demand.
+     *
+     * @param cfg the indexed configuration
+     * @param idx the index file
+     * @throws IOException if an error occurred while reading the index or if the index is not up-to-date
+     */
+    public ConfigurationIndex(File cfg, File idx) throws IOException {
+        RandomAccessFile in = new RandomAccessFile(idx, "r");
+        try {
+            this.idx = in.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, in.length());
+        } finally {
+            in.close();
+        }
+        if (this.idx.limit() < HEADER || this.idx.getInt(0) != MAGIC) {
+            throw new IOException("'" + idx + "' is not an index");
+        }
+        if (!isUpToDate(this.idx, cfg)) {
+            throw new IOException("'" + idx + "' is not up-to-date with '" + cfg + "'");
+        }
+        nbNodes = this.idx.getInt(24);
+        nbVMs = this.idx.getInt(28);
+        raf = new RandomAccessFile(cfg, "r");
+    }
+
+    /**
+     * Open the index of a configuration.
+     * The index is built if it does not exist, or re-built if it is not up-to-date.
+     *
+     * @param cfg the indexed configuration
+     * @param idx the index file
+     * @return the opened index
+     * @throws IOException if an error occurred while building or reading the index
+     */
+    public static ConfigurationIndex open(File cfg, File idx) throws IOException {
+        if (!isUpToDate(cfg, idx)) {
+            build(cfg, idx);
+        }
+        return new ConfigurationIndex(cfg, idx);
+    }
+
+    /**
+     * Check if an index exists and matches the current version of its configuration.
+     *
+     * @param cfg the indexed configuration
+     * @param idx the index file
+     * @return {@code true} if the index can be opened
+     * @throws IOException if an error occurred while reading the index
+     */
+    public static boolean isUpToDate(File cfg, File idx) throws IOException {
+        if (!idx.isFile() || idx.length() < HEADER) {
+            return false;
+        }
+        DataInputStream in = new DataInputStream(new FileInputStream(idx));
+        try {
+            byte[] header = new byte[HEADER];
+            in.readFully(header);
+            ByteBuffer bb = ByteBuffer.wrap(header);
+            return bb.getInt(0) == MAGIC && isUpToDate(bb, cfg);
+        } finally {
+            in.close();
+        }
+    }
+
+    private static boolean isUpToDate(ByteBuffer header, File cfg) {
+        return header.getInt(4) == VERSION && header.getLong(8) == cfg.length() && header.getLong(16) == cfg.lastModified();
+    }
+
+    /**
+     * Build the index of a configuration.
+     * The configuration is read sequentially, the records are not decoded.
+     *
+     * @param cfg the configuration to index
+     * @param idx the index file to write
+     * @throws IOException if an error occurred while reading the configuration or writing the index
+     */
+    public static void build(File cfg, File idx) throws IOException {
+        Map<String, Entry> nodes = new HashMap<String, Entry>();
+        Map<String, Entry> vms = new HashMap<String, Entry>();
+        RecordReader in = new RecordReader(new BufferedInputStream(new FileInputStream(cfg)));
+        try {
+            int field;
+            while ((field = in.next()) >= 0) {
+                int length = in.length();
+                long offset = in.offset();
+                byte[] buf = in.buffer();
+                switch (field) {
+                    case RecordReader.ONLINE:
+                        //Hoster: the node name is in field 1 of field 1, the hosted VM names in field 1 of field 1 of field 2
+                        for (int p = 0; p < length; ) {
+                            long[] t = readVarint(buf, p);
+                            long[] l = readVarint(buf, (int) t[1]);
+                            int from = (int) l[1];
+                            int to = from + (int) l[0];
+                            if ((t[0] >>> 3) == 1) {
+                                nodes.put(name(buf, from, to), new Entry(HOSTER, offset, length));
+                            } else if ((t[0] >>> 3) == 2) {
+                                long[] vm = readVarint(buf, field(buf, from, to, 1));
+                                vms.put(name(buf, (int) vm[1], (int) (vm[1] + vm[0])), new Entry(HOSTED, offset, length));
+                            }
+                            p = to;
+                        }
+                        break;
+                    case RecordReader.OFFLINE:
+                        nodes.put(name(buf, 0, length), new Entry(OFFLINE, offset, length));
+                        break;
+                    case RecordReader.WAITING:
+                        vms.put(name(buf, 0, length), new Entry(WAITING, offset, length));
+                        break;
+                    default:
+                        //Unknown records are ignored
+                        break;
+                }
+            }
+        } finally {
+            in.close();
+        }
+
+        List<byte[]> nodeNames = sortedNames(nodes.keySet());
+        List<byte[]> vmNames = sortedNames(vms.keySet());
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(idx)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(cfg.length());
+            out.writeLong(cfg.lastModified());
+            out.writeInt(nodeNames.size());
+            out.writeInt(vmNames.size());
+            //The names are stored after the tables
+            long pos = HEADER + (long) (nodeNames.size() + vmNames.size()) * ENTRY;
+            pos = writeTable(out, nodeNames, nodes, pos);
+            writeTable(out, vmNames, vms, pos);
+            writeNames(out, nodeNames);
+            writeNames(out, vmNames);
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Get the UTF-8 bytes of names, in the order used by the binary search.
+     */
+    private static List<byte[]> sortedNames(Set<String> names) throws IOException {
+        List<byte[]> res = new ArrayList<byte[]>(names.size());
+        for (String n : names) {
+            byte[] b = n.getBytes(StandardCharsets.UTF_8);
+            if (b.length > 0xffff) {
+                throw new IOException("Name too long: '" + n.substring(0, 32) + "...'");
+            }
+            res.add(b);
+        }
+        Collections.sort(res, new Comparator<byte[]>() {
+            @Override
+            public int compare(byte[] a, byte[] b) {
+                int n = Math.min(a.length, b.length);
+                for (int i = 0; i < n; i++) {
+                    int c = (a[i] & 0xff) - (b[i] & 0xff);
+                    if (c != 0) {
+                        return c;
+                    }
+                }
+                return a.length - b.length;
+            }
+        });
+        return res;
+    }
+
+    /**
+     * Write the entries of a table.
+     *
+     * @param pos the position of the first name in the index
+     * @return the position after the last name
+     */
+    private static long writeTable(DataOutputStream out, List<byte[]> names, Map<String, Entry> entries, long pos) throws IOException {
+        for (byte[] n : names) {
+            if (pos > Integer.MAX_VALUE) {
+                throw new IOException("Index too large");
+            }
+            Entry e = entries.get(new String(n, StandardCharsets.UTF_8));
+            out.writeInt((int) pos);
+            out.writeByte(e.kind);
+            out.writeLong(e.offset);
+            out.writeInt(e.length);
+            pos += 2 + n.length;
+        }
+        return pos;
+    }
+
+    private static void writeNames(DataOutputStream out, List<byte[]> names) throws IOException {
+        for (byte[] n : names) {
+            out.writeShort(n.length);
+            out.write(n);
+        }
+    }
+
+    /**
+     * Compare the unsigned bytes of a name stored in the index with a name.
+     *
+     * @param pos the position of the stored name, after its length
+     * @param len the length of the stored name
+     * @param key the name
+     */
+    private int compare(int pos, int len, byte[] key) {
+        int n = Math.min(len, key.length);
+        for (int i = 0; i < n; i++) {
+            int c = (idx.get(pos + i) & 0xff) - (key[i] & 0xff);
+            if (c != 0) {
+                return c;
+            }
+        }
+        return len - key.length;
+    }
+
+    /**
+     * Look for the entry of an element.
+     *
+     * @param first the position of the first entry of the table
+     * @param nb    the number of entries in the table
+     * @param name  the element name
+     * @return the entry, {@code null} if there is no such element
+     */
+    private Entry find(int first, int nb, String name) {
+        byte[] key = name.getBytes(StandardCharsets.UTF_8);
+        int lo = 0, hi = nb - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int e = first + mid * ENTRY;
+            int pos = idx.getInt(e);
+            int c = compare(pos + 2, idx.getShort(pos) & 0xffff, key);
+            if (c < 0) {
+                lo = mid + 1;
+            } else if (c > 0) {
+                hi = mid - 1;
+            } else {
+                return new Entry(idx.get(e + 4), idx.getLong(e + 5), idx.getInt(e + 13));
+            }
+        }
+        return null;
+    }
+
+    private Entry node(String name) {
+        return find(HEADER, nbNodes, name);
+    }
+
+    private Entry vm(String name) {
+        return find(HEADER + nbNodes * ENTRY, nbVMs, name);
+    }
+
+    /**
+     * Get the position of a length-delimited field inside a message.
+     *
+     * @return the position of the field length
+     */
+    private static int field(byte[] buf, int from, int to, int field) throws IOException {
+        int p = from;
+        while (p < to) {
+            long[] t = readVarint(buf, p);
+            p = (int) t[1];
+            int wire = (int) (t[0] & 7);
+            if ((t[0] >>> 3) == field && wire == 2) {
+                return p;
+            }
+            switch (wire) {
+                case 0:
+                    p = (int) readVarint(buf, p)[1];
+                    break;
+                case 1:
+                    p += 8;
+                    break;
+                case 2:
+                    long[] l = readVarint(buf, p);
+                    p = (int) (l[1] + l[0]);
+                    break;
+                case 5:
+                    p += 4;
+                    break;
+                default:
+                    throw new IOException("Unsupported wire type " + wire);
+            }
+        }
+        throw new IOException("Missing field " + field);
+    }
+
+    /**
+     * Get the value of the 'name' field of a message.
+     */
+    private static String name(byte[] buf, int from, int to) throws IOException {
+        int p = field(buf, from, to, 1);
+        long[] l = readVarint(buf, p);
+        return new String(buf, (int) l[1], (int) l[0], StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Read a varint.
+     *
+     * @return the value and the position after the varint
+     */
+    private static long[] readVarint(byte[] buf, int p) {
+        long v = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = buf[p++];
+            v |= (long) (b & 0x7f) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return new long[]{v, p};
+    }
+
+    /**
+     * Get the record of an online node.
+     *
+     * @param name the node name
+     * @return the node and its hosted VMs. {@code null} if the node is not online
+     * @throws IOException if an error occurred while reading the record
+     */
+    public PBConfiguration.Configuration.Hoster getHoster(String name) throws IOException {
+        Entry e = node(name);
+        if (e == null || e.kind != HOSTER) {
+            return null;
+        }
+        return PBConfiguration.Configuration.Hoster.parseFrom(read(e));
+    }
+
+    /**
+     * Get a node.
+     *
+     * @param name the node name
+     * @return the node. {@code null} if the node is unknown
+     * @throws IOException if an error occurred while reading the record
+     */
+    public PBNode.Node getNode(String name) throws IOException {
+        Entry e = node(name);
+        if (e == null) {
+            return null;
+        }
+        if (e.kind == OFFLINE) {
+            return PBNode.Node.parseFrom(read(e));
+        }
+        return PBConfiguration.Configuration.Hoster.parseFrom(read(e)).getNode();
+    }
+
+    /**
+     * Get a VM.
+     *
+     * @param name the VM name
+     * @return the VM. {@code null} if the VM is unknown
+     * @throws IOException if an error occurred while reading the record
+     */
+    public PBVirtualMachine.VirtualMachine getVM(String name) throws IOException {
+        Entry e = vm(name);
+        if (e == null) {
+            return null;
+        }
+        if (e.kind == WAITING) {
+            return PBVirtualMachine.VirtualMachine.parseFrom(read(e));
+        }
+        for (PBConfiguration.Configuration.Hosted h : PBConfiguration.Configuration.Hoster.parseFrom(read(e)).getHostedList()) {
+            if (h.getVm().getName().equals(name)) {
+                return h.getVm();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Get the host of a VM.
+     *
+     * @param name the VM name
+     * @return the name of the hosting node. {@code null} if the VM is waiting or unknown
+     * @throws IOException if an error occurred while reading the record
+     */
+    public String getHost(String name) throws IOException {
+        Entry e = vm(name);
+        if (e == null || e.kind != HOSTED) {
+            return null;
+        }
+        return PBConfiguration.Configuration.Hoster.parseFrom(read(e)).getNode().getName();
+    }
+
+    private byte[] read(Entry e) throws IOException {
+        ByteBuffer bb = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, e.offset, e.length);
+        byte[] buf = new byte[e.length];
+        bb.get(buf);
+        return buf;
+    }
+
+    @Override
+    public void close() throws IOException {
+        raf.close();
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ * Copyright (c) 2012 University of Nice Sophia-Antipolis
+ *
+ * This file is part of btrplace.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package btrplace.fromEntropy;
+
+import entropy.configuration.parser.PBConfiguration;
+import entropy.configuration.parser.PBNode;
+import entropy.configuration.parser.PBVirtualMachine;
+
+import java.io.*;
+
+/**
+ * CLI to query configurations through their {@link ConfigurationIndex}.
+ * The index is built if it does not exist or if it is not up-to-date. The {@link ConfigurationStatistics} do not need any index.
+ *
+ * @author Fabien Hermenier
+ */
+public class ConfigurationQuery {
+
+    public static void main(String[] args) {
+        if (args.length < 2) {
+            usage(1);
+        }
+        File cfg = new File(args[1]);
+        File idx = new File(args[1] + ConfigurationIndex.EXTENSION);
+        try {
+            if (args[0].equals("index")) {
+                ConfigurationIndex.build(cfg, idx);
+                return;
+            }
+            if (args[0].equals("stats")) {
+                stats(args);
+                return;
+            }
+            // Build the index if it is missing or stale
+            ConfigurationIndex index = ConfigurationIndex.open(cfg, idx);
+            try {
+                for (int i = 2; i < args.length; i++) {
+                    if (args[0].equals("node")) {
+                        printNode(index, args[i]);
+                    } else if (args[0].equals("vm")) {
+                        printVM(index, args[i]);
+                    } else {
+                        usage(1);
+                    }
+                }
+            } finally {
+                index.close();
+            }
+        } catch (IOException e) {
+            System.err.println(e.getMessage());
+            System.exit(1);
+        }
+    }
+
+    private static void stats(String[] args) throws IOException {
+        if (args.length > 4) {
+            usage(1);
+        }
+        Writer nodes = args.length > 3 ? new BufferedWriter(new FileWriter(args[3])) : null;
+        ConfigurationStatistics st;
+        InputStream in = new BufferedInputStream(new FileInputStream(args[1]), 1 << 16);
+        try {
+            st = ConfigurationStatistics.analyze(in, nodes);
+        } finally {
+            in.close();
+            if (nodes != null) {
+                nodes.close();
+            }
+        }
+        Writer out = args.length > 2 ? new BufferedWriter(new FileWriter(args[2])) : new OutputStreamWriter(System.out);
+        try {
+            if (args.length > 2 && args[2].endsWith(".csv")) {
+                st.writeCSV(out);
+            } else {
+                st.toJSON().writeJSONString(out);
+                out.write("\n");
+            }
+        } finally {
+            out.flush();
+            if (args.length > 2) {
+                out.close();
+            }
+        }
+    }
+
+    private static void printNode(ConfigurationIndex index, String name) throws IOException {
+        PBConfiguration.Configuration.Hoster h = index.getHoster(name);
+        if (h != null) {
+            System.out.println("online node " + name + ", " + h.getHostedCount() + " hosted VM(s)");
+            System.out.print(h.getNode());
+            for (PBConfiguration.Configuration.Hosted vm : h.getHostedList()) {
+                System.out.println("\t" + vm.getVm().getName() + " (" + vm.getState() + ")");
+            }
+            return;
+        }
+        PBNode.Node n = index.getNode(name);
+        if (n == null) {
+            System.out.println("unknown node " + name);
+        } else {
+            System.out.println("offline node " + name);
+            System.out.print(n);
+        }
+    }
+
+    private static void printVM(ConfigurationIndex index, String name) throws IOException {
+        PBVirtualMachine.VirtualMachine vm = index.getVM(name);
+        if (vm == null) {
+            System.out.println("unknown VM " + name);
+            return;
+        }
+        String host = index.getHost(name);
+        System.out.println(host == null ? "waiting VM " + name : "VM " + name + " on " + host);
+        System.out.print(vm);
+    }
+
+    public static void usage(int code) {
+        System.out.println("Usage: query (index cfg | node cfg name... | vm cfg name... | stats cfg [output [nodes]])");
+        System.out.println("\tindex: build or rebuild the index of the configuration, stored in 'cfg" + ConfigurationIndex.EXTENSION + "'");
+        System.out.println("\tnode: print the nodes and the VMs they host");
+        System.out.println("\tvm: print the VMs and their host");
+        System.out.println("\tstats: print the aggregated statistics in 'output', in CSV if it ends with '.csv', in JSON otherwise");
+        System.out.println("\t       The utilization of each node is written in CSV in 'nodes' if stated");
+        System.out.println("\tcfg: the configuration in protobuf format");
+        System.exit(code);
+    }
+}
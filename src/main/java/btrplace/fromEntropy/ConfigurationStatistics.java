@@ -0,0 +1,337 @@
+/*
+ * Copyright (c) 2012 University of Nice Sophia-Antipolis
+ *
+ * This file is part of btrplace.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package btrplace.fromEntropy;
+
+import entropy.configuration.parser.PBConfiguration;
+import entropy.configuration.parser.PBNode;
+import entropy.configuration.parser.PBVirtualMachine;
+import net.minidev.json.JSONObject;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Aggregated statistics of a configuration in the protobuf format.
+ * <p/>
+ * The statistics are computed in a single pass over the configuration, one record at a time,
+ * without building a model. The memory usage only depends on the number of templates.
+ * The utilization of each node can be streamed in CSV during the pass.
+ * Only the running VMs consume resources.
+ *
+ * @author Fabien Hermenier
+ */
+public class ConfigurationStatistics {
+
+    /**
+     * The template key for the VMs without template.
+     */
+    public static final String NO_TEMPLATE = "";
+
+    /**
+     * The header of the per-node CSV output.
+     */
+    public static final String NODES_HEADER = "node,state,vms,memoryUsage,memoryCapacity,uCpuUsage,uCpuCapacity";
+
+    private int nbOnlines, nbOfflines;
+
+    private int nbRunnings, nbSleepings, nbWaitings;
+
+    private long memCapacity, cpuCapacity;
+
+    private long memUsage, cpuUsage;
+
+    private Map<String, Integer> templates = new TreeMap<String, Integer>();
+
+    /**
+     * Analyze a configuration.
+     *
+     * @param in    the stream to read
+     * @param nodes the writer for the per-node CSV utilization. {@code null} to skip it
+     * @return the statistics
+     * @throws IOException if an error occurred while reading the configuration or writing the utilization
+     */
+    public static ConfigurationStatistics analyze(InputStream in, Writer nodes) throws IOException {
+        ConfigurationStatistics st = new ConfigurationStatistics();
+        PrintWriter out = nodes == null ? null : new PrintWriter(nodes);
+        if (out != null) {
+            out.print(NODES_HEADER + "\r\n");
+        }
+        RecordReader r = new RecordReader(in);
+        int field;
+        while ((field = r.next()) >= 0) {
+            switch (field) {
+                case RecordReader.ONLINE:
+                    st.online(PBConfiguration.Configuration.Hoster.parseFrom(r.record()), out);
+                    break;
+                case RecordReader.OFFLINE:
+                    PBNode.Node n = PBNode.Node.parseFrom(r.record());
+                    st.nbOfflines++;
+                    if (out != null) {
+                        row(out, n.getName(), "offline", 0, 0, n.getMemoryCapacity(), 0, n.getCpuCapacity());
+                    }
+                    break;
+                case RecordReader.WAITING:
+                    st.nbWaitings++;
+                    st.template(PBVirtualMachine.VirtualMachine.parseFrom(r.record()));
+                    break;
+                default:
+                    break;
+            }
+        }
+        if (out != null) {
+            out.flush();
+            if (out.checkError()) {
+                throw new IOException("Unable to write the node utilization");
+            }
+        }
+        return st;
+    }
+
+    private void online(PBConfiguration.Configuration.Hoster h, PrintWriter out) {
+        nbOnlines++;
+        PBNode.Node n = h.getNode();
+        memCapacity += n.getMemoryCapacity();
+        cpuCapacity += n.getCpuCapacity();
+        int mem = 0, cpu = 0;
+        for (PBConfiguration.Configuration.Hosted hosted : h.getHostedList()) {
+            PBVirtualMachine.VirtualMachine vm = hosted.getVm();
+            template(vm);
+            if (hosted.getState() == PBConfiguration.Configuration.HostedVMState.SLEEPING) {
+                nbSleepings++;
+            } else {
+                nbRunnings++;
+                mem += vm.getMemoryConsumption();
+                cpu += vm.getCpuConsumption();
+            }
+        }
+        memUsage += mem;
+        cpuUsage += cpu;
+        if (out != null) {
+            row(out, n.getName(), "online", h.getHostedCount(), mem, n.getMemoryCapacity(), cpu, n.getCpuCapacity());
+        }
+    }
+
+    private void template(PBVirtualMachine.VirtualMachine vm) {
+        String t = vm.hasTemplate() ? vm.getTemplate() : NO_TEMPLATE;
+        Integer nb = templates.get(t);
+        templates.put(t, nb == null ? 1 : nb + 1);
+    }
+
+    /**
+     * Get the number of online nodes.
+     *
+     * @return a positive integer
+     */
+    public int getNbOnlines() {
+        return nbOnlines;
+    }
+
+    /**
+     * Get the number of offline nodes.
+     *
+     * @return a positive integer
+     */
+    public int getNbOfflines() {
+        return nbOfflines;
+    }
+
+    /**
+     * Get the number of running VMs.
+     *
+     * @return a positive integer
+     */
+    public int getNbRunnings() {
+        return nbRunnings;
+    }
+
+    /**
+     * Get the number of sleeping VMs.
+     *
+     * @return a positive integer
+     */
+    public int getNbSleepings() {
+        return nbSleepings;
+    }
+
+    /**
+     * Get the number of waiting VMs.
+     *
+     * @return a positive integer
+     */
+    public int getNbWaitings() {
+        return nbWaitings;
+    }
+
+    /**
+     * Get the ratio of sleeping VMs.
+     *
+     * @return a ratio between 0 and 1
+     */
+    public double getSleepingRatio() {
+        return ratio(nbSleepings, nbRunnings + nbSleepings + nbWaitings);
+    }
+
+    /**
+     * Get the ratio of waiting VMs.
+     *
+     * @return a ratio between 0 and 1
+     */
+    public double getWaitingRatio() {
+        return ratio(nbWaitings, nbRunnings + nbSleepings + nbWaitings);
+    }
+
+    /**
+     * Get the memory capacity of the online nodes.
+     *
+     * @return the cumulative capacity
+     */
+    public long getMemoryCapacity() {
+        return memCapacity;
+    }
+
+    /**
+     * Get the memory consumption of the running VMs.
+     *
+     * @return the cumulative consumption
+     */
+    public long getMemoryUsage() {
+        return memUsage;
+    }
+
+    /**
+     * Get the uCPU capacity of the online nodes.
+     *
+     * @return the cumulative capacity
+     */
+    public long getCpuCapacity() {
+        return cpuCapacity;
+    }
+
+    /**
+     * Get the uCPU consumption of the running VMs.
+     *
+     * @return the cumulative consumption
+     */
+    public long getCpuUsage() {
+        return cpuUsage;
+    }
+
+    /**
+     * Get the number of VMs per template.
+     * The VMs without template are counted with the {@link #NO_TEMPLATE} key.
+     *
+     * @return a map sorted by template
+     */
+    public Map<String, Integer> getTemplates() {
+        return templates;
+    }
+
+    private static double ratio(long a, long b) {
+        return b == 0 ? 0 : (double) a / b;
+    }
+
+    /**
+     * Get the statistics in JSON.
+     *
+     * @return a JSON object
+     */
+    public JSONObject toJSON() {
+        JSONObject o = new JSONObject();
+        o.put("onlines", nbOnlines);
+        o.put("offlines", nbOfflines);
+        o.put("runnings", nbRunnings);
+        o.put("sleepings", nbSleepings);
+        o.put("waitings", nbWaitings);
+        o.put("sleepingRatio", getSleepingRatio());
+        o.put("waitingRatio", getWaitingRatio());
+        o.put("memoryCapacity", memCapacity);
+        o.put("memoryUsage", memUsage);
+        o.put("memoryUtilization", ratio(memUsage, memCapacity));
+        o.put("uCpuCapacity", cpuCapacity);
+        o.put("uCpuUsage", cpuUsage);
+        o.put("uCpuUtilization", ratio(cpuUsage, cpuCapacity));
+        JSONObject t = new JSONObject();
+        t.putAll(templates);
+        o.put("templates", t);
+        return o;
+    }
+
+    /**
+     * Write a CSV record.
+     * The fields are escaped and the record ends with CRLF, as stated by RFC 4180.
+     *
+     * @param out    the writer to use
+     * @param fields the fields of the record
+     */
+    private static void row(PrintWriter out, Object... fields) {
+        for (int i = 0; i < fields.length; i++) {
+            if (i > 0) {
+                out.print(',');
+            }
+            out.print(escape(String.valueOf(fields[i])));
+        }
+        out.print("\r\n");
+    }
+
+    /**
+     * Escape a CSV field.
+     * A field that contains a comma, a double quote or a line break is enclosed in double quotes,
+     * and its double quotes are doubled.
+     *
+     * @param f the field
+     * @return the escaped field
+     */
+    static String escape(String f) {
+        for (int i = 0; i < f.length(); i++) {
+            char c = f.charAt(i);
+            if (c == ',' || c == '"' || c == '\r' || c == '\n') {
+                return '"' + f.replace("\"", "\"\"") + '"';
+            }
+        }
+        return f;
+    }
+
+    /**
+     * Write the statistics in CSV, one 'key,value' line per statistic.
+     * The templates are declared using 'template:name' keys.
+     *
+     * @param w the writer to use
+     * @throws IOException if an error occurred while writing
+     */
+    public void writeCSV(Writer w) throws IOException {
+        PrintWriter out = new PrintWriter(w);
+        out.print("key,value\r\n");
+        JSONObject o = toJSON();
+        o.remove("templates");
+        for (Map.Entry<String, Object> e : new TreeMap<String, Object>(o).entrySet()) {
+            row(out, e.getKey(), e.getValue());
+        }
+        for (Map.Entry<String, Integer> e : templates.entrySet()) {
+            row(out, "template:" + e.getKey(), e.getValue());
+        }
+        out.flush();
+        if (out.checkError()) {
+            throw new IOException("Unable to write the statistics");
+        }
+    }
+}
@@ -22,18 +22,23 @@ import btrplace.btrpsl.Script;
 import btrplace.btrpsl.ScriptBuilder;
 import btrplace.btrpsl.ScriptBuilderException;
 import btrplace.btrpsl.includes.BasicIncludes;
-import btrplace.json.model.InstanceConverter;
+import btrplace.json.JSONConverterException;
+import btrplace.json.plan.ReconfigurationPlanConverter;
 import btrplace.model.Instance;
+import btrplace.model.Mapping;
 import btrplace.model.Node;
 import btrplace.model.constraint.Offline;
 import btrplace.model.constraint.Online;
 import btrplace.model.constraint.Preserve;
 import btrplace.model.constraint.SatConstraint;
+import btrplace.plan.ReconfigurationPlan;
 import net.minidev.json.JSONObject;
 import org.apache.commons.io.FileUtils;
 
 import java.io.*;
-import java.util.Iterator;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
 import java.util.zip.GZIPOutputStream;
 
 /**
@@ -43,75 +48,242 @@ import java.util.zip.GZIPOutputStream;
  */
 public class Converter {
 
-    public static void main(String[] args) {
+    /**
+     * The name that stands for the standard input or the standard output.
+     */
+    private static final String STD = "-";
+
+    /**
+     * The settings of the output of a conversion.
+     */
+    private static final class Settings {
+
+        /**
+         * The standard output. The messages are sent to the error output when the result is written on it.
+         */
+        final PrintStream stdout;
+
+        /**
+         * {@code true} to compress the lists of element identifiers of the output instances.
+         */
+        boolean compactIds;
+
+        Settings(PrintStream stdout) {
+            this.stdout = stdout;
+        }
+    }
+
+    public static void main(String[] params) {
+        Settings settings = new Settings(System.out);
+        try {
+            convert(params, settings);
+        } finally {
+            // The messages may have been sent to the error output
+            System.setOut(settings.stdout);
+        }
+    }
+
+    /**
+     * Run a conversion.
+     *
+     * @param params   the command line parameters
+     * @param settings the output settings
+     */
+    private static void convert(String[] params, Settings settings) {
         String src, dst = null, output, scriptDC = null, dirScriptsCL = null;
 
+        // Extract the options
+        boolean shareTemplates = false;
+        boolean check = false;
+        boolean partition = false;
+        boolean active = false;
+        boolean shapes = false;
+        boolean watch = false;
+        boolean demands = false;
+        boolean shards = false;
+        boolean stream = false;
+        boolean delta = false;
+        boolean solve = false;
+        boolean intern = false;
+        boolean noDemands = false;
+        int timeLimit = -1;
+        int nbWorkers = 1;
+        SnapshotCache cache = null;
+        List<String> positionals = new ArrayList<String>();
+        for (String p : params) {
+            if (p.equals("--templates")) {
+                shareTemplates = true;
+            } else if (p.equals("--check")) {
+                check = true;
+            } else if (p.equals("--delta")) {
+                delta = true;
+            } else if (p.equals("--stream")) {
+                stream = true;
+            } else if (p.equals("--ranges")) {
+                settings.compactIds = true;
+            } else if (p.equals("--nr")) {
+                noDemands = true;
+            } else if (p.equals("--intern")) {
+                intern = true;
+            } else if (p.equals("--shards")) {
+                shards = true;
+            } else if (p.equals("--demands")) {
+                demands = true;
+            } else if (p.equals("--watch")) {
+                watch = true;
+            } else if (p.equals("--shapes")) {
+                shapes = true;
+            } else if (p.equals("--active")) {
+                active = true;
+            } else if (p.equals("--partition")) {
+                partition = true;
+            } else if (p.equals("--solve")) {
+                solve = true;
+            } else if (p.startsWith("--solve=")) {
+                solve = true;
+                timeLimit = Integer.parseInt(p.substring("--solve=".length()));
+            } else if (p.startsWith("--workers=")) {
+                nbWorkers = Integer.parseInt(p.substring("--workers=".length()));
+            } else if (p.startsWith("--cache=")) {
+                cache = new SnapshotCache(new File(p.substring("--cache=".length())));
+            } else {
+                positionals.add(p);
+            }
+        }
+        String[] args = positionals.toArray(new String[positionals.size()]);
+
+        if (stream) {
+            if (args.length != 3 || !args[1].equals("-o")) {
+                usage(1);
+            }
+            if (args[2].equals(STD)) {
+                System.setOut(System.err);
+            }
+            try {
+                convertStream(args[0], args[2], settings);
+            } catch (IOException e) {
+                System.err.println(e.getMessage());
+                e.printStackTrace();
+                System.exit(1);
+            }
+            return;
+        }
+
         if (args.length < 5 || args.length > 6 || !args[args.length-2].equals("-o")) { usage(1); }
+        if (watch && (solve || partition || active || shards || intern)) {
+            // The output of these modes does not follow the script modifications
+            usage(1);
+        }
         src = args[0];
         output = args[args.length - 1];
         if (args.length > 5) {
             dst = args[1];
         }
+        // The 'nr' instances are recognized by their path only, use --nr for the standard input
+        if (src.contains("nr")) {
+            noDemands = true;
+        }
+        if (src.equals(STD) && STD.equals(dst)) {
+            // A single standard input
+            usage(1);
+        }
+        if (output.equals(STD)) {
+            if (partition || shards || delta || watch) {
+                // These modes write several files or read back the output
+                usage(1);
+            }
+            // The messages, and the solving statistics with --solve, go to the error output
+            // so the standard output only holds a single instance or plan
+            System.setOut(System.err);
+        }
         scriptDC = args[args.length - 4];
         dirScriptsCL = args[args.length - 3];
+        if (watch && ScriptBundle.isBundle(new File(dirScriptsCL))) {
+            // Only the scripts of a directory are watched
+            usage(1);
+        }
 
-        OutputStreamWriter out = null;
         try {
-            // Convert the src file
-            ConfigurationConverter conv = new ConfigurationConverter(src);
+            // Convert the src file, or the standard input without using the cache
+            ConfigurationConverter conv;
+            if (src.equals(STD)) {
+                conv = new ConfigurationConverter(new BufferedInputStream(System.in), shareTemplates ? new TemplateCatalog() : null, ColumnStore.HEAP,
+                        demands ? new DemandTable() : null);
+            } else {
+                conv = new ConfigurationConverter(src, shareTemplates ? new TemplateCatalog() : null, ColumnStore.HEAP, cache,
+                        demands ? new DemandTable() : null);
+            }
             Instance i = conv.getInstance();
 
             // Read the dst file, deduce and add the states constraints
-            if (dst != null) {
+            if (STD.equals(dst)) {
+                i.getSatConstraints().addAll(conv.getNextStates(new BufferedInputStream(System.in)));
+            } else if (dst != null) {
                 i.getSatConstraints().addAll(conv.getNextStates(dst));
             }
 
             // Read the script files
-            ScriptBuilder scriptBuilder = new ScriptBuilder(i.getModel());
-            //scriptBuilder.setIncludes(new PathBasedIncludes(scriptBuilder,
-            //        new File("src/test/resources")));
-
-            // Read the datacenter script file if exists
-            if (scriptDC != null) {
-                String strScriptDC = null;
-                try {
-                    strScriptDC = readFile(scriptDC);
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
-                Script scrDC = null;
-                try {
-                    // Build the DC script
-                    scrDC = scriptBuilder.build(strScriptDC);
-
-                } catch (ScriptBuilderException sbe) {
-                    System.out.println(sbe);
-                }
-
-                // Set the DC script as an include
-                BasicIncludes bi = new BasicIncludes();
-                bi.add(scrDC);
-                scriptBuilder.setIncludes(bi);
-            }
-
-            // Read all the client script files
-            String scriptCL = null, strScriptCL = null;
-            Script scrCL = null;
-            Iterator it = FileUtils.iterateFiles(new File(dirScriptsCL), null, false);
-            while(it.hasNext()) {
-                scriptCL = dirScriptsCL + "/" + ((File) it.next()).getName();
+            ScriptWatcher watcher = null;
+            if (watch) {
+                // Keep the compiled scripts to only compile again the modified ones
+                watcher = new ScriptWatcher(i.getModel(), scriptDC == null ? null : new File(scriptDC), new File(dirScriptsCL));
+                i.getSatConstraints().addAll(watcher.getConstraints());
+            } else {
+                ScriptBuilder scriptBuilder = new ScriptBuilder(i.getModel());
+                //scriptBuilder.setIncludes(new PathBasedIncludes(scriptBuilder,
+                //        new File("src/test/resources")));
 
-                if (scriptCL != null) {
-                    // Read
+                // Read the datacenter script file if exists
+                if (scriptDC != null) {
+                    String strScriptDC = null;
                     try {
-                        strScriptCL = readFile(scriptCL);
+                        strScriptDC = readFile(scriptDC);
                     } catch (IOException e) {
                         e.printStackTrace();
                     }
+                    Script scrDC = null;
+                    try {
+                        // Build the DC script, or reuse the one compiled for the same nodes
+                        scrDC = IncludeCache.shared().get(scriptBuilder, i.getModel(), strScriptDC);
 
+                    } catch (ScriptBuilderException sbe) {
+                        System.out.println(sbe);
+                    }
+
+                    // Set the DC script as an include
+                    BasicIncludes bi = new BasicIncludes();
+                    bi.add(scrDC);
+                    scriptBuilder.setIncludes(bi);
+                }
+
+                // Read all the client script files, from a directory or a single bundle
+                Map<String, String> scriptsCL;
+                File fileScriptsCL = new File(dirScriptsCL);
+                if (ScriptBundle.isBundle(fileScriptsCL)) {
+                    scriptsCL = ScriptBundle.read(fileScriptsCL);
+                } else {
+                    scriptsCL = new LinkedHashMap<String, String>();
+                    Iterator it = FileUtils.iterateFiles(fileScriptsCL, null, false);
+                    while (it.hasNext()) {
+                        String scriptCL = dirScriptsCL + "/" + ((File) it.next()).getName();
+                        try {
+                            scriptsCL.put(scriptCL, readFile(scriptCL));
+                        } catch (IOException e) {
+                            e.printStackTrace();
+                        }
+                    }
+                }
+
+                // The scripts are compiled on this thread: the builder declares the VMs in the shared model
+                // and a script may import the namespace of another client
+                Collection<SatConstraint> cstrsCL = null;
+                ScriptShapeCompiler shapeCompiler = shapes ? new ScriptShapeCompiler(scriptBuilder, i.getModel()) : null;
+                for (String strScriptCL : scriptsCL.values()) {
                     // Parse
+                    cstrsCL = null;
                     try {
-                        scrCL = scriptBuilder.build(strScriptCL);
+                        // Instantiate the scripts sharing a same structure without parsing them
+                        cstrsCL = shapes ? shapeCompiler.compile(strScriptCL) : scriptBuilder.build(strScriptCL).getConstraints();
 
                     } catch (ScriptBuilderException sbe) {
                         System.out.println(sbe);
@@ -119,8 +291,8 @@ public class Converter {
                     }
 
                     // Add the resulting constraints
-                    if (scrCL.getConstraints() != null) {
-                        i.getSatConstraints().addAll(scrCL.getConstraints());
+                    if (cstrsCL != null) {
+                        i.getSatConstraints().addAll(cstrsCL);
                     }
                 }
             }
@@ -136,50 +308,377 @@ public class Converter {
             // Remove preserve constraints
             for (Iterator<SatConstraint> ite = i.getSatConstraints().iterator(); ite.hasNext(); ) {
                 SatConstraint s = ite.next();
-                if (s instanceof Preserve && src.contains("nr")) {
+                if (s instanceof Preserve && noDemands) {
                     ite.remove();
                 }
             }
             /************************************/
 
-            // Convert to JSON
-            InstanceConverter iConv = new InstanceConverter();
-            JSONObject o = iConv.toJSON(i);
+            // Only a plain instance can embed the demand table, the other modes need the Preserve constraints
+            DemandTable table = conv.getDemandTable();
+            if (table != null) {
+                if (noDemands) {
+                    table.clear();
+                } else if (active || solve || partition) {
+                    i.getSatConstraints().addAll(table.expand());
+                    table.clear();
+                }
+            }
 
-            // Check for gzip extension
-            if (output.endsWith(".gz")) {
-                out = new OutputStreamWriter(new GZIPOutputStream(new FileOutputStream(output)));
-            } else {
-                out = new FileWriter(output);
+            // Share the sets of elements that are stated by several constraints.
+            // Not in watch mode, as the watcher tracks the script constraints by reference
+            if (intern) {
+                ElementSetInterner interner = new ElementSetInterner();
+                interner.intern(i.getSatConstraints());
+                System.out.println("Shared sets: " + interner.getNbSets() + "/" + interner.getNbRequests() + " set(s), about "
+                        + interner.footprint() / 1024 + " KB instead of " + interner.getRequestedFootprint() / 1024 + " KB");
             }
 
-            // Write the output file
-            o.writeJSONString(out);
-            out.close();
+            // Only keep the elements affected by the reconfiguration
+            if (active) {
+                Instance reduced = new ActiveSubsetReducer().reduce(i);
+                Mapping before = i.getModel().getMapping(), after = reduced.getModel().getMapping();
+                System.out.println("Active subset: " + after.getAllNodes().size() + "/" + before.getAllNodes().size() + " node(s), "
+                        + after.getAllVMs().size() + "/" + before.getAllVMs().size() + " VM(s), "
+                        + reduced.getSatConstraints().size() + "/" + i.getSatConstraints().size() + " constraint(s)");
+                i = reduced;
+            }
+
+            // Check the node capacities before the output
+            if (check) {
+                List<CapacityChecker.Violation> violations = new CapacityChecker().check(i.getModel());
+                if (!violations.isEmpty()) {
+                    for (CapacityChecker.Violation v : violations) {
+                        System.err.println(v);
+                    }
+                    throw new IllegalStateException(violations.size() + " capacity violation(s). No output produced");
+                }
+            }
+
+            // Solve the instance in place, or write the instance or its independent sub-instances
+            if (solve) {
+                InProcessSolver solver = new InProcessSolver(timeLimit, nbWorkers);
+                ReconfigurationPlan plan = solver.solve(i);
+                writeStatistics(solver.getStatistics(), output);
+                if (plan == null) {
+                    System.err.println("No solution");
+                    System.exit(1);
+                }
+                write(new ReconfigurationPlanConverter().toJSON(plan), settings, output);
+            } else if (partition) {
+                List<Instance> parts = new InstancePartitioner().split(i);
+                for (int x = 0; x < parts.size(); x++) {
+                    write(parts.get(x), conv, settings, partName(output, x));
+                }
+            } else if (shards) {
+                // The model once, then the constraints of each client namespace
+                JSONObject model = toJSON(new Instance(i.getModel(), new ArrayList<SatConstraint>(), i.getOptConstraint()), conv, settings);
+                String dir = output.endsWith(".gz") ? output.substring(0, output.length() - 3) : output;
+                JSONObject manifest = new InstanceSharder(output.endsWith(".gz"), settings.compactIds).write(i, model, new File(dir));
+                System.out.println(((Map<?, ?>) manifest.get("sizes")).size() + " client shard(s) written in '" + dir + "'");
+            } else if (watch) {
+                watch(i, conv, settings, watcher, output);
+            } else if (delta) {
+                append(i, conv, settings, output);
+            } else {
+                write(i, conv, settings, output);
+            }
 
         } catch (Exception e) {
             System.err.println(e.getMessage());
             e.printStackTrace();
             System.exit(1);
+        }
+    }
+
+    /**
+     * Write an instance in JSON.
+     *
+     * @param i        the instance to write
+     * @param conv     the converter that made the instance. Its template catalog and its demand table are embedded
+     * @param settings the output settings
+     * @param output   the output file. Ends with '.gz' for an automatic compression
+     * @throws IOException            if an error occurred while writing the file
+     * @throws JSONConverterException if the instance can not be converted
+     */
+    private static void write(Instance i, ConfigurationConverter conv, Settings settings, String output) throws IOException, JSONConverterException {
+        // Convert to JSON
+        write(toJSON(i, conv, settings), settings, output);
+    }
+
+    /**
+     * Append an instance to a delta-encoded archive.
+     * The archive is created if it does not exist.
+     *
+     * @param i        the instance to append
+     * @param conv     the converter that made the instance. Its template catalog and its demand table are embedded
+     * @param settings the output settings
+     * @param output   the archive. Ends with '.gz' for an automatic compression
+     * @throws IOException            if an error occurred while reading or writing the archive
+     * @throws JSONConverterException if the instance can not be converted
+     */
+    private static void append(Instance i, ConfigurationConverter conv, Settings settings, String output) throws IOException, JSONConverterException {
+        appendArchive(output, lastOf(output), toJSON(i, conv, settings));
+    }
+
+    /**
+     * Get the last instance of a delta-encoded archive.
+     * The last instance is read from the checkpoint of the archive. The archive
+     * is only replayed when the checkpoint is missing or out of date.
+     *
+     * @param output the archive. Ends with '.gz' for an automatic compression
+     * @return the last instance, {@code null} if the archive does not exist or is empty
+     * @throws IOException if an error occurred while reading the archive, or if its last gzip member is truncated
+     */
+    static JSONObject lastOf(String output) throws IOException {
+        File f = new File(output);
+        if (!f.exists()) {
+            return null;
+        }
+        JSONObject last = InstanceArchiveWriter.readCheckpoint(f);
+        if (last == null) {
+            InputStream is = new FileInputStream(output);
+            InstanceArchiveReader in = new InstanceArchiveReader(new InputStreamReader(output.endsWith(".gz") ? new GZIPInputStream(is) : is));
+            try {
+                for (JSONObject o = in.nextJSON(); o != null; o = in.nextJSON()) {
+                    last = o;
+                }
+            } finally {
+                in.close();
+            }
+        }
+        return last;
+    }
+
+    /**
+     * Append an instance to a delta-encoded archive, then update its checkpoint.
+     * The archive is created if it does not exist.
+     * With a compression, the instance is written in a gzip member of its own, that is finished
+     * before the checkpoint is written. An interrupted conversion then leaves either the
+     * previous members, or an out of date checkpoint and a truncated member that is reported
+     * by the next {@link #lastOf(String)}.
+     *
+     * @param output the archive. Ends with '.gz' for an automatic compression
+     * @param last   the last instance of the archive, {@code null} if the archive does not exist or is empty
+     * @param o      the instance to append
+     * @return the instance that was appended
+     * @throws IOException if an error occurred while writing the archive
+     */
+    static JSONObject appendArchive(String output, JSONObject last, JSONObject o) throws IOException {
+        // Concatenated gzip members are read as a single stream
+        OutputStream os = new FileOutputStream(output, true);
+        InstanceArchiveWriter out = new InstanceArchiveWriter(new BufferedWriter(new OutputStreamWriter(output.endsWith(".gz") ? new GZIPOutputStream(os) : os)), last);
+        try {
+            out.add(o);
         } finally {
-            if (out != null) {
-                try {
-                    out.close();
-                } catch (IOException e) {
-                    System.err.println(e.getMessage());
-                    System.exit(1);
+            out.close();
+        }
+        out.writeCheckpoint(new File(output));
+        return o;
+    }
+
+    private static JSONObject toJSON(Instance i, ConfigurationConverter conv, Settings settings) throws JSONConverterException {
+        JSONObject o = new ParallelInstanceConverter().toJSON(i);
+        if (conv.getTemplateCatalog() != null) {
+            o.put(TemplateCatalog.JSON_KEY, conv.getTemplateCatalog().toJSON());
+        }
+        if (conv.getDemandTable() != null) {
+            o.put(DemandTable.JSON_KEY, conv.getDemandTable().toJSON());
+        }
+        return settings.compactIds ? IdRanges.compress(o) : o;
+    }
+
+    /**
+     * Append a new instance to an archive each time the client scripts change.
+     * The instance constraints stated by the scripts are replaced by their new version.
+     * This method never returns.
+     *
+     * @param i        the instance to update
+     * @param conv     the converter that made the instance. Its template catalog and its demand table are embedded
+     * @param settings the output settings
+     * @param watcher  the watcher of the scripts that stated the constraints of the instance
+     * @param output   the archive. Ends with '.gz' for an automatic compression
+     * @throws IOException            if an error occurred while reading the scripts or writing the archive
+     * @throws JSONConverterException if the instance can not be converted
+     * @throws InterruptedException   if interrupted while waiting for the modifications
+     */
+    private static void watch(Instance i, ConfigurationConverter conv, Settings settings, ScriptWatcher watcher, String output)
+            throws IOException, JSONConverterException, InterruptedException {
+        JSONObject last = appendArchive(output, lastOf(output), toJSON(i, conv, settings));
+        List<SatConstraint> scriptCstrs = watcher.getConstraints();
+        while (true) {
+            Set<String> changed = watcher.poll(1, TimeUnit.MINUTES);
+            if (changed.isEmpty()) {
+                continue;
+            }
+            long st = System.currentTimeMillis();
+            // The constraints are compared by reference as several scripts may state equal constraints
+            Set<SatConstraint> previous = Collections.newSetFromMap(new IdentityHashMap<SatConstraint, Boolean>());
+            previous.addAll(scriptCstrs);
+            for (Iterator<SatConstraint> ite = i.getSatConstraints().iterator(); ite.hasNext(); ) {
+                if (previous.contains(ite.next())) {
+                    ite.remove();
+                }
+            }
+            scriptCstrs = watcher.getConstraints();
+            i.getSatConstraints().addAll(scriptCstrs);
+            last = appendArchive(output, last, toJSON(i, conv, settings));
+            System.out.println(changed.size() + " script(s) updated in " + (System.currentTimeMillis() - st) + " ms: " + changed);
+        }
+    }
+
+    /**
+     * Write a JSON object.
+     *
+     * @param o        the object to write
+     * @param settings the output settings
+     * @param output   the output file. Ends with '.gz' for an automatic compression
+     * @throws IOException if an error occurred while writing the file
+     */
+    private static void write(JSONObject o, Settings settings, String output) throws IOException {
+        // Check for gzip extension
+        OutputStreamWriter out;
+        if (output.endsWith(".gz")) {
+            out = new OutputStreamWriter(new GZIPOutputStream(open(output, settings.stdout)));
+        } else {
+            out = new OutputStreamWriter(open(output, settings.stdout));
+        }
+
+        // Write the output file, the large arrays are serialized concurrently
+        try {
+            new ParallelInstanceConverter().write(o, out);
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Write the solving statistics next to the plan.
+     *
+     * @param stats  the statistics, one per solved sub-instance
+     * @param output the plan file. The statistics are written in the same file with the '.stats' extension
+     *               instead of '.gz'. On the error output if the plan is written on the standard output
+     * @throws IOException if an error occurred while writing the file
+     */
+    private static void writeStatistics(List<String> stats, String output) throws IOException {
+        PrintWriter out;
+        if (output.equals(STD)) {
+            out = new PrintWriter(new OutputStreamWriter(System.err));
+        } else {
+            String base = output.endsWith(".gz") ? output.substring(0, output.length() - 3) : output;
+            out = new PrintWriter(new FileWriter(base + ".stats"));
+        }
+        try {
+            for (int x = 0; x < stats.size(); x++) {
+                out.println(stats.size() > 1 ? "sub-instance " + x + ": " + stats.get(x) : stats.get(x));
+            }
+        } finally {
+            if (output.equals(STD)) {
+                out.flush();
+            } else {
+                out.close();
+            }
+        }
+    }
+
+    /**
+     * Open an output file.
+     *
+     * @param output the output file, {@link #STD} for the standard output
+     * @param stdout the standard output
+     * @return the stream. Closing a stream on the standard output only flushes it
+     * @throws IOException if the file can not be created
+     */
+    private static OutputStream open(String output, PrintStream stdout) throws IOException {
+        if (!output.equals(STD)) {
+            return new FileOutputStream(output);
+        }
+        return new FilterOutputStream(stdout) {
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                out.write(b, off, len);
+            }
+
+            @Override
+            public void close() throws IOException {
+                flush();
+            }
+        };
+    }
+
+    /**
+     * Convert a stream of snapshots into state changes.
+     * The changes between each pair of consecutive snapshots are written as a JSON object per line.
+     *
+     * @param src      the file or the pipe that contains the length-delimited snapshots, {@link #STD} for the standard input
+     * @param output   the output file, {@link #STD} for the standard output. Ends with '.gz' for an automatic compression
+     * @param settings the output settings
+     * @throws IOException if an error occurred while reading the snapshots or writing the output
+     */
+    private static void convertStream(String src, String output, Settings settings) throws IOException {
+        SnapshotStream in = new SnapshotStream(new BufferedInputStream(src.equals(STD) ? System.in : new FileInputStream(src)));
+        Writer out = null;
+        try {
+            if (output.endsWith(".gz")) {
+                out = new BufferedWriter(new OutputStreamWriter(new GZIPOutputStream(open(output, settings.stdout))));
+            } else {
+                out = new BufferedWriter(new OutputStreamWriter(open(output, settings.stdout)));
+            }
+            while (in.next()) {
+                if (in.getIndex() > 0) {
+                    in.toJSON().writeJSONString(out);
+                    out.write('\n');
                 }
             }
+        } finally {
+            in.close();
+            if (out != null) {
+                out.close();
+            }
+        }
+    }
+
+    /**
+     * Get the output file of a sub-instance.
+     * The index is inserted before the extension, so 'out.json.gz' becomes 'out-0.json.gz'.
+     *
+     * @param output the output file. Not the standard output, as the sub-instances are written in separate files
+     * @param x      the sub-instance index
+     * @return the file name
+     */
+    static String partName(String output, int x) {
+        int sep = output.lastIndexOf(File.separatorChar);
+        int dot = output.indexOf('.', sep + 1);
+        if (dot < 0) {
+            return output + "-" + x;
         }
+        return output.substring(0, dot) + "-" + x + output.substring(dot);
     }
 
     public static void usage(int code) {
-        System.out.println("Usage: converter src [dst] scriptDC dirScriptsCL -o output");
-        System.out.println("\tsrc: the configuration in protobuf format to convert");
-        System.out.println("\tdst: an optional dst configuration in protobuf format");
+        System.out.println("Usage: converter [--templates] [--demands] [--ranges] [--intern] [--nr] [--cache=dir] [--check] [--shapes] [--watch] [--active] [--partition] [--shards] [--delta] [--solve[=seconds]] [--workers=n] src [dst] scriptDC dirScriptsCL -o output");
+        System.out.println("   or: converter --stream snapshots -o output");
+        System.out.println("\t--stream: write the state changes between the consecutive snapshots of a length-delimited stream, one JSON object per line");
+        System.out.println("\t--templates: share the VM templates and options through a catalog");
+        System.out.println("\t--ranges: write the sorted lists of element identifiers as ranges");
+        System.out.println("\t--intern: share the sets of elements that are stated by several constraints. Not with --watch");
+        System.out.println("\t--nr: remove the resource demands. Implied when the path of 'src' contains 'nr'");
+        System.out.println("\t--demands: state the resource demands in a table instead of Preserve constraints");
+        System.out.println("\t--check: check the node capacities and states before writing the output");
+        System.out.println("\t--shapes: compile once the client scripts sharing a same structure");
+        System.out.println("\t--watch: append the instance to the archive 'output' each time the scripts inside 'dirScriptsCL' or 'scriptDC' change. 'dirScriptsCL' must be a directory");
+        System.out.println("\t--active: only keep the elements affected by the reconfiguration, the others are fixed");
+        System.out.println("\t--delta: append the instance to the archive 'output', as a delta from the previous instance");
+        System.out.println("\t--partition: split the instance into independent sub-instances written in 'output-<i>' files");
+        System.out.println("\t--shards: write the model, the shared constraints and the constraints of each client namespace in separate files inside the directory 'output', with a manifest. The files are compressed if 'output' ends with '.gz'");
+        System.out.println("\t--solve: solve the instance in place and write the reconfiguration plan, with an optional time limit. The solving statistics are written in 'output.stats', or on the error output with the plan on the standard output");
+        System.out.println("\t--workers: the number of independent sub-instances to solve concurrently. Their plans are merged");
+        System.out.println("\t--cache: re-use the snapshots of the converted configurations stored inside 'dir'");
+        System.out.println("\tsrc: the configuration in protobuf format to convert, '-' for the standard input");
+        System.out.println("\tdst: an optional dst configuration in protobuf format, '-' for the standard input");
         System.out.println("\tscriptDC: the btrpsl script file that describe the datacenter");
-        System.out.println("\tdirScriptsCL: the directory where are located the client btrpsl script files");
-        System.out.println("\toutput: the output JSON file. Ends with '.gz' for an automatic compression");
+        System.out.println("\tdirScriptsCL: the directory where are located the client btrpsl script files, or a .zip, .tar or .tar.gz bundle of these files");
+        System.out.println("\toutput: the output JSON file, '-' for the standard output. Ends with '.gz' for an automatic compression");
         System.exit(code);
     }
 
@@ -0,0 +1,207 @@
+/*
+ * Copyright (c) 2012 University of Nice Sophia-Antipolis
+ *
+ * This file is part of btrplace.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package btrplace.fromEntropy;
+
+import btrplace.model.VM;
+import btrplace.model.constraint.Preserve;
+import net.minidev.json.JSONArray;
+import net.minidev.json.JSONObject;
+
+import java.util.*;
+
+/**
+ * A dense table of the resource demands of the VMs.
+ * <p/>
+ * A VM that will consume an amount of resource that differs from its current
+ * consumption is usually stated using a {@link Preserve} constraint.
+ * Instead, the table stores the next consumption of every VM in one
+ * array of integers per resource, indexed by the VM identifiers.
+ * The table is expanded into {@link Preserve} constraints only
+ * for the consumers that require them.
+ *
+ * @author Fabien Hermenier
+ */
+public class DemandTable {
+
+    /**
+     * The JSON key to use to declare the table in an instance.
+     */
+    public static final String JSON_KEY = "demands";
+
+    private static final int NO_DEMAND = ColumnarConfiguration.UNDEFINED;
+
+    private Map<String, int[]> demands;
+
+    private int size;
+
+    /**
+     * Make a new empty table.
+     */
+    public DemandTable() {
+        demands = new TreeMap<String, int[]>();
+    }
+
+    /**
+     * Set the demand of a VM.
+     *
+     * @param rc     the resource identifier
+     * @param vm     the VM
+     * @param amount the amount of resources the VM will consume
+     */
+    public void setDemand(String rc, VM vm, int amount) {
+        int[] a = demands.get(rc);
+        if (a == null || a.length <= vm.id()) {
+            int[] b = new int[Math.max(vm.id() + 1, a == null ? 16 : a.length * 2)];
+            Arrays.fill(b, NO_DEMAND);
+            if (a != null) {
+                System.arraycopy(a, 0, b, 0, a.length);
+            }
+            a = b;
+            demands.put(rc, a);
+        }
+        if (a[vm.id()] == NO_DEMAND) {
+            size++;
+        }
+        a[vm.id()] = amount;
+    }
+
+    /**
+     * Get the demand of a VM.
+     *
+     * @param rc the resource identifier
+     * @param vm the VM
+     * @return the amount of resources the VM will consume. {@link ColumnarConfiguration#UNDEFINED} if there is no demand
+     */
+    public int getDemand(String rc, VM vm) {
+        int[] a = demands.get(rc);
+        return a == null || a.length <= vm.id() ? NO_DEMAND : a[vm.id()];
+    }
+
+    /**
+     * Get the resources having at least one demand.
+     *
+     * @return a set of resource identifiers
+     */
+    public Set<String> getResources() {
+        return demands.keySet();
+    }
+
+    /**
+     * Get the number of demands.
+     *
+     * @return a positive integer
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Estimate the number of bytes retained by the table.
+     * The estimation assumes a 64-bit JVM with compressed references.
+     * The resource identifiers are not counted as they are shared with the model.
+     *
+     * @return an amount of bytes
+     */
+    public long footprint() {
+        //The map and its entries
+        long b = 48 + 40L * demands.size();
+        for (int[] a : demands.values()) {
+            b += NameTable.array(a.length, 4);
+        }
+        return b;
+    }
+
+    /**
+     * Remove all the demands.
+     */
+    public void clear() {
+        demands.clear();
+        size = 0;
+    }
+
+    /**
+     * Expand the table into {@link Preserve} constraints.
+     *
+     * @return one constraint per demand, ordered by resource then by VM
+     */
+    public List<Preserve> expand() {
+        List<Preserve> res = new ArrayList<Preserve>(size);
+        for (Map.Entry<String, int[]> e : demands.entrySet()) {
+            int[] a = e.getValue();
+            for (int id = 0; id < a.length; id++) {
+                if (a[id] != NO_DEMAND) {
+                    res.add(new Preserve(new VM(id), e.getKey(), a[id]));
+                }
+            }
+        }
+        return res;
+    }
+
+    /**
+     * Serialise the table.
+     * Each resource is mapped to an object that lists the VM identifiers
+     * in ascending order and their demands in the same order.
+     *
+     * @return the resulting JSON object
+     */
+    public JSONObject toJSON() {
+        JSONObject o = new JSONObject();
+        for (Map.Entry<String, int[]> e : demands.entrySet()) {
+            JSONArray vms = new JSONArray();
+            JSONArray amounts = new JSONArray();
+            int[] a = e.getValue();
+            for (int id = 0; id < a.length; id++) {
+                if (a[id] != NO_DEMAND) {
+                    vms.add(id);
+                    amounts.add(a[id]);
+                }
+            }
+            JSONObject r = new JSONObject();
+            r.put("vms", vms);
+            r.put("amounts", amounts);
+            o.put(e.getKey(), r);
+        }
+        return o;
+    }
+
+    /**
+     * Un-serialise a table.
+     *
+     * @param o the JSON object, as returned by {@link #toJSON()}
+     * @return the table
+     * @throws IllegalArgumentException if the object is not a valid table
+     */
+    public static DemandTable fromJSON(JSONObject o) {
+        DemandTable t = new DemandTable();
+        for (Map.Entry<String, Object> e : o.entrySet()) {
+            if (!(e.getValue() instanceof JSONObject)) {
+                throw new IllegalArgumentException("Invalid demands for resource '" + e.getKey() + "'");
+            }
+            JSONObject r = (JSONObject) e.getValue();
+            List<?> vms = (List<?>) r.get("vms");
+            List<?> amounts = (List<?>) r.get("amounts");
+            if (vms == null || amounts == null || vms.size() != amounts.size()) {
+                throw new IllegalArgumentException("Invalid demands for resource '" + e.getKey() + "'");
+            }
+            for (int i = 0; i < vms.size(); i++) {
+                t.setDemand(e.getKey(), new VM(((Number) vms.get(i)).intValue()), ((Number) amounts.get(i)).intValue());
+            }
+        }
+        return t;
+    }
+}
@@ -0,0 +1,170 @@
+/*
+ * Copyright (c) 2012 University of Nice Sophia-Antipolis
+ *
+ * This file is part of btrplace.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package btrplace.fromEntropy;
+
+import btrplace.model.Element;
+import btrplace.model.Node;
+import btrplace.model.VM;
+
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * An immutable set of elements stored as a sorted array of identifiers.
+ * <p/>
+ * The elements are made on demand while iterating. A set only costs 4 bytes per element,
+ * instead of an entry and an element object for a {@link java.util.HashSet}.
+ * Its hash code is computed once.
+ *
+ * @param <E> the element type
+ * @author Fabien Hermenier
+ */
+public abstract class ElementSet<E extends Element> extends AbstractSet<E> {
+
+    private final int[] ids;
+
+    private final int hash;
+
+    private ElementSet(Collection<E> elements) {
+        int[] a = new int[elements.size()];
+        int x = 0;
+        for (E e : elements) {
+            a[x++] = e.id();
+        }
+        Arrays.sort(a);
+        //Remove the duplicates
+        int nb = 0;
+        for (int i = 0; i < a.length; i++) {
+            if (nb == 0 || a[nb - 1] != a[i]) {
+                a[nb++] = a[i];
+            }
+        }
+        ids = nb == a.length ? a : Arrays.copyOf(a, nb);
+        int h = 0;
+        for (int id : ids) {
+            h += element(id).hashCode();
+        }
+        hash = h;
+    }
+
+    /**
+     * Make a set of VMs.
+     *
+     * @param vms the VMs
+     * @return the set
+     */
+    public static ElementSet<VM> ofVMs(Collection<VM> vms) {
+        return new ElementSet<VM>(vms) {
+            @Override
+            protected VM element(int id) {
+                return new VM(id);
+            }
+        };
+    }
+
+    /**
+     * Make a set of nodes.
+     *
+     * @param nodes the nodes
+     * @return the set
+     */
+    public static ElementSet<Node> ofNodes(Collection<Node> nodes) {
+        return new ElementSet<Node>(nodes) {
+            @Override
+            protected Node element(int id) {
+                return new Node(id);
+            }
+        };
+    }
+
+    /**
+     * Make the element having a given identifier.
+     *
+     * @param id the identifier
+     * @return the element
+     */
+    protected abstract E element(int id);
+
+    /**
+     * Get the identifier of the elements.
+     *
+     * @return the identifiers, sorted in ascending order. The array must not be modified
+     */
+    public int[] ids() {
+        return ids;
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        if (o == null || isEmpty() || o.getClass() != element(ids[0]).getClass()) {
+            return false;
+        }
+        return Arrays.binarySearch(ids, ((Element) o).id()) >= 0;
+    }
+
+    @Override
+    public Iterator<E> iterator() {
+        return new Iterator<E>() {
+            private int cur;
+
+            @Override
+            public boolean hasNext() {
+                return cur < ids.length;
+            }
+
+            @Override
+            public E next() {
+                if (cur >= ids.length) {
+                    throw new NoSuchElementException();
+                }
+                return element(ids[cur++]);
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    @Override
+    public int size() {
+        return ids.length;
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (o == this) {
+            return true;
+        }
+        if (o instanceof ElementSet) {
+            ElementSet<?> s = (ElementSet<?>) o;
+            return hash == s.hash && Arrays.equals(ids, s.ids)
+                    && (isEmpty() || element(ids[0]).getClass() == s.element(s.ids[0]).getClass());
+        }
+        return super.equals(o);
+    }
+}
@@ -0,0 +1,202 @@
+/*
+ * Copyright (c) 2012 University of Nice Sophia-Antipolis
+ *
+ * This file is part of btrplace.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package btrplace.fromEntropy;
+
+import btrplace.model.Node;
+import btrplace.model.VM;
+import btrplace.model.constraint.*;
+
+import java.util.*;
+
+/**
+ * Share the sets of elements among the constraints that state equal sets.
+ * <p/>
+ * The constraints stated by the client scripts and by the datacenter script
+ * use over and over the same sets of nodes, such as the leafs of the datacenter.
+ * The interner rebuilds the {@link Spread}, {@link Among}, {@link Fence} and {@link Ban}
+ * constraints so that their sets of elements are {@link ElementSet}s stored only once.
+ * The other constraints, and the continuous {@link Fence} and {@link Ban} constraints, are kept as is.
+ *
+ * @author Fabien Hermenier
+ */
+public class ElementSetInterner {
+
+    private Map<ElementSet<VM>, ElementSet<VM>> vms = new HashMap<ElementSet<VM>, ElementSet<VM>>();
+
+    private Map<ElementSet<Node>, ElementSet<Node>> nodes = new HashMap<ElementSet<Node>, ElementSet<Node>>();
+
+    private Map<List<ElementSet<Node>>, Collection<Collection<Node>>> groups = new HashMap<List<ElementSet<Node>>, Collection<Collection<Node>>>();
+
+    private int nbRequests;
+
+    private long requested;
+
+    /**
+     * Get the shared set of VMs equal to a collection.
+     *
+     * @param c the VMs
+     * @return the shared set
+     */
+    public Set<VM> vms(Collection<VM> c) {
+        nbRequests++;
+        requested += hashSet(c.size());
+        ElementSet<VM> s = ElementSet.ofVMs(c);
+        ElementSet<VM> shared = vms.get(s);
+        if (shared == null) {
+            vms.put(s, s);
+            return s;
+        }
+        return shared;
+    }
+
+    /**
+     * Get the shared set of nodes equal to a collection.
+     *
+     * @param c the nodes
+     * @return the shared set
+     */
+    public Set<Node> nodes(Collection<Node> c) {
+        nbRequests++;
+        requested += hashSet(c.size());
+        ElementSet<Node> s = ElementSet.ofNodes(c);
+        ElementSet<Node> shared = nodes.get(s);
+        if (shared == null) {
+            nodes.put(s, s);
+            return s;
+        }
+        return shared;
+    }
+
+    /**
+     * Get the shared groups of nodes equal to some groups.
+     *
+     * @param c the groups of nodes
+     * @return the shared groups, in the same order
+     */
+    public Collection<Collection<Node>> groups(Collection<Collection<Node>> c) {
+        List<ElementSet<Node>> key = new ArrayList<ElementSet<Node>>(c.size());
+        for (Collection<Node> g : c) {
+            key.add((ElementSet<Node>) nodes(g));
+        }
+        Collection<Collection<Node>> shared = groups.get(key);
+        if (shared == null) {
+            shared = Collections.<Collection<Node>>unmodifiableList(new ArrayList<Collection<Node>>(key));
+            groups.put(key, shared);
+        }
+        return shared;
+    }
+
+    /**
+     * Rebuild a constraint using shared sets of elements.
+     *
+     * @param c the constraint
+     * @return an equal constraint, or {@code c} if the constraint is not supported
+     */
+    public SatConstraint intern(SatConstraint c) {
+        if (c instanceof Spread) {
+            return new Spread(vms(c.getInvolvedVMs()), c.isContinuous());
+        } else if (c instanceof Among) {
+            return new Among(vms(c.getInvolvedVMs()), groups(((Among) c).getGroupsOfNodes()), c.isContinuous());
+        } else if (c instanceof Fence && !c.isContinuous() && !c.getInvolvedVMs().isEmpty()) {
+            return new Fence(c.getInvolvedVMs().iterator().next(), nodes(c.getInvolvedNodes()));
+        } else if (c instanceof Ban && !c.isContinuous() && !c.getInvolvedVMs().isEmpty()) {
+            return new Ban(c.getInvolvedVMs().iterator().next(), nodes(c.getInvolvedNodes()));
+        }
+        return c;
+    }
+
+    /**
+     * Rebuild constraints using shared sets of elements.
+     *
+     * @param cstrs the constraints to rebuild. The collection is updated in place
+     */
+    public void intern(Collection<SatConstraint> cstrs) {
+        List<SatConstraint> res = new ArrayList<SatConstraint>(cstrs.size());
+        for (SatConstraint c : cstrs) {
+            res.add(intern(c));
+        }
+        cstrs.clear();
+        cstrs.addAll(res);
+    }
+
+    /**
+     * Get the number of distinct sets of elements.
+     *
+     * @return a positive number
+     */
+    public int getNbSets() {
+        return vms.size() + nodes.size();
+    }
+
+    /**
+     * Get the number of sets of elements that were requested.
+     *
+     * @return a positive number, at least equal to {@link #getNbSets()}
+     */
+    public int getNbRequests() {
+        return nbRequests;
+    }
+
+    /**
+     * Estimate the number of bytes retained by the shared sets of elements.
+     * The estimation assumes a 64-bit JVM with compressed references.
+     *
+     * @return an amount of bytes
+     */
+    public long footprint() {
+        long b = 0;
+        for (ElementSet<VM> s : vms.keySet()) {
+            b += footprint(s);
+        }
+        for (ElementSet<Node> s : nodes.keySet()) {
+            b += footprint(s);
+        }
+        return b;
+    }
+
+    /**
+     * Estimate the number of bytes the requested sets of elements would retain without sharing,
+     * if each of them was a {@link HashSet}. The elements themselves are not counted.
+     * The estimation assumes a 64-bit JVM with compressed references.
+     *
+     * @return an amount of bytes
+     */
+    public long getRequestedFootprint() {
+        return requested;
+    }
+
+    /**
+     * Estimate the number of bytes retained by a shared set.
+     */
+    private static long footprint(ElementSet<?> s) {
+        //The object, then its identifiers
+        return 24 + NameTable.array(s.size(), 4);
+    }
+
+    /**
+     * Estimate the number of bytes retained by a hash set, with the default load factor.
+     */
+    static long hashSet(int size) {
+        int capacity = 16;
+        while (capacity * 3 / 4 < size) {
+            capacity *= 2;
+        }
+        //The set, its map, the table, then one entry per element
+        return 16 + 48 + NameTable.array(capacity, 4) + 32L * size;
+    }
+}
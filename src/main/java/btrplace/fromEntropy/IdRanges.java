@@ -0,0 +1,158 @@
+/*
+ * Copyright (c) 2012 University of Nice Sophia-Antipolis
+ *
+ * This file is part of btrplace.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package btrplace.fromEntropy;
+
+import net.minidev.json.JSONArray;
+import net.minidev.json.JSONObject;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compress the lists of element identifiers of an instance in JSON.
+ * <p/>
+ * The converter assigns the identifiers sequentially, so the sets of nodes and VMs
+ * are mostly made of contiguous identifiers. An array of at least {@link #MIN_LENGTH}
+ * integers sorted in strictly ascending order is replaced by an object that only states
+ * the bounds of its runs: {@code [1,2,3,4,5,9]} becomes <code>{"$ranges":[1,5,9,9]}</code>.
+ * The arrays that are not sorted are kept as is, so the encoding is lossless
+ * whatever the meaning of the arrays.
+ *
+ * @author Fabien Hermenier
+ */
+public final class IdRanges {
+
+    /**
+     * The key of the objects that state compressed arrays.
+     */
+    public static final String RANGES_KEY = "$ranges";
+
+    /**
+     * The minimum length of an array to compress.
+     */
+    public static final int MIN_LENGTH = 4;
+
+    private IdRanges() {
+    }
+
+    /**
+     * Compress the arrays of identifiers.
+     *
+     * @param o the JSON object to compress. It is not modified
+     * @return a compressed copy of the object
+     */
+    public static JSONObject compress(JSONObject o) {
+        return (JSONObject) compressValue(o);
+    }
+
+    /**
+     * Expand the compressed arrays of identifiers.
+     *
+     * @param o the JSON object to expand. It is not modified
+     * @return a copy of the object without compressed arrays
+     */
+    public static JSONObject expand(JSONObject o) {
+        return (JSONObject) expandValue(o);
+    }
+
+    private static Object compressValue(Object v) {
+        if (v instanceof JSONObject) {
+            JSONObject res = new JSONObject();
+            for (Map.Entry<String, Object> e : ((JSONObject) v).entrySet()) {
+                res.put(e.getKey(), compressValue(e.getValue()));
+            }
+            return res;
+        } else if (v instanceof List) {
+            List<?> l = (List<?>) v;
+            JSONArray ranges = ranges(l);
+            if (ranges != null) {
+                JSONObject res = new JSONObject();
+                res.put(RANGES_KEY, ranges);
+                return res;
+            }
+            JSONArray res = new JSONArray();
+            for (Object x : l) {
+                res.add(compressValue(x));
+            }
+            return res;
+        }
+        return v;
+    }
+
+    /**
+     * Get the runs of an array.
+     *
+     * @return the bounds of the runs, {@code null} if the array can not be compressed
+     */
+    private static JSONArray ranges(List<?> l) {
+        if (l.size() < MIN_LENGTH) {
+            return null;
+        }
+        JSONArray res = new JSONArray();
+        long prev = 0;
+        for (int i = 0; i < l.size(); i++) {
+            Object x = l.get(i);
+            if (!(x instanceof Integer)) {
+                return null;
+            }
+            int cur = (Integer) x;
+            if (i > 0 && cur <= prev) {
+                return null;
+            }
+            if (i == 0 || cur != prev + 1) {
+                if (i > 0) {
+                    res.add((int) prev);
+                }
+                res.add(cur);
+            }
+            prev = cur;
+        }
+        res.add((int) prev);
+        //Not worth it
+        return res.size() < l.size() ? res : null;
+    }
+
+    private static Object expandValue(Object v) {
+        if (v instanceof JSONObject) {
+            JSONObject o = (JSONObject) v;
+            if (o.size() == 1 && o.get(RANGES_KEY) instanceof List) {
+                List<?> ranges = (List<?>) o.get(RANGES_KEY);
+                JSONArray res = new JSONArray();
+                for (int i = 0; i + 1 < ranges.size(); i += 2) {
+                    long to = ((Number) ranges.get(i + 1)).longValue();
+                    for (long x = ((Number) ranges.get(i)).longValue(); x <= to; x++) {
+                        res.add((int) x);
+                    }
+                }
+                return res;
+            }
+            JSONObject res = new JSONObject();
+            for (Map.Entry<String, Object> e : o.entrySet()) {
+                res.put(e.getKey(), expandValue(e.getValue()));
+            }
+            return res;
+        } else if (v instanceof List) {
+            JSONArray res = new JSONArray();
+            for (Object x : (List<?>) v) {
+                res.add(expandValue(x));
+            }
+            return res;
+        }
+        return v;
+    }
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright (c) 2012 University of Nice Sophia-Antipolis
+ *
+ * This file is part of btrplace.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package btrplace.fromEntropy;
+
+import btrplace.model.Instance;
+import btrplace.plan.DefaultReconfigurationPlan;
+import btrplace.plan.ReconfigurationPlan;
+import btrplace.plan.event.Action;
+import btrplace.solver.SolverException;
+import btrplace.solver.choco.ChocoReconfigurationAlgorithm;
+import btrplace.solver.choco.DefaultChocoReconfigurationAlgorithm;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.*;
+
+/**
+ * Solve converted instances in the current JVM using the choco-based scheduler.
+ * <p/>
+ * This prevents to serialize the instance in JSON and to parse it again in another process.
+ * When several workers are available, the instance is split using an {@link InstancePartitioner}
+ * and the independent sub-instances are solved concurrently, each with its own solver.
+ * The sub-instances share the elements of the instance, so their plans are merged into
+ * a single plan that starts from the instance model.
+ *
+ * @author Fabien Hermenier
+ */
+public class InProcessSolver {
+
+    private int timeLimit;
+
+    private int nbWorkers;
+
+    private List<String> stats;
+
+    /**
+     * Make a new solver.
+     *
+     * @param timeLimit the time limit in seconds for each (sub-)instance. A negative value for no limit
+     * @param nbWorkers the number of (sub-)instances to solve concurrently
+     */
+    public InProcessSolver(int timeLimit, int nbWorkers) {
+        if (nbWorkers < 1) {
+            throw new IllegalArgumentException("At least one worker is required");
+        }
+        this.timeLimit = timeLimit;
+        this.nbWorkers = nbWorkers;
+        this.stats = Collections.emptyList();
+    }
+
+    /**
+     * Solve an instance.
+     *
+     * @param i the instance to solve
+     * @return the reconfiguration plan, {@code null} if the instance or one of its
+     * independent sub-instances has no solution
+     * @throws SolverException if an error occurred while solving
+     */
+    public ReconfigurationPlan solve(Instance i) throws SolverException {
+        List<Instance> parts = nbWorkers > 1 ? new InstancePartitioner().split(i) : Collections.singletonList(i);
+        stats = new ArrayList<String>(parts.size());
+        if (parts.size() == 1) {
+            Result r = solvePart(parts.get(0));
+            stats.add(r.stats);
+            return r.plan;
+        }
+
+        ReconfigurationPlan plan = new DefaultReconfigurationPlan(i.getModel());
+        ExecutorService exec = Executors.newFixedThreadPool(Math.min(nbWorkers, parts.size()));
+        try {
+            List<Future<Result>> results = new ArrayList<Future<Result>>(parts.size());
+            for (final Instance p : parts) {
+                results.add(exec.submit(new Callable<Result>() {
+                    @Override
+                    public Result call() throws SolverException {
+                        return solvePart(p);
+                    }
+                }));
+            }
+            for (Future<Result> f : results) {
+                Result r = f.get();
+                stats.add(r.stats);
+                if (r.plan == null) {
+                    plan = null;
+                } else if (plan != null) {
+                    // The sub-plans are independent so their actions can be executed concurrently
+                    for (Action a : r.plan) {
+                        plan.add(a);
+                    }
+                }
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw failure(i, "Interrupted while solving", ex);
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof SolverException) {
+                throw (SolverException) ex.getCause();
+            }
+            throw failure(i, ex.getCause().getMessage(), ex.getCause());
+        } finally {
+            exec.shutdownNow();
+        }
+        return plan;
+    }
+
+    private static SolverException failure(Instance i, String msg, Throwable cause) {
+        SolverException ex = new SolverException(i.getModel(), msg);
+        ex.initCause(cause);
+        return ex;
+    }
+
+    /**
+     * Get the statistics of the last solving process.
+     *
+     * @return the statistics, one per independent sub-instance
+     */
+    public List<String> getStatistics() {
+        return stats;
+    }
+
+    /**
+     * Solve a single (sub-)instance using a dedicated solver.
+     */
+    private Result solvePart(Instance i) throws SolverException {
+        ChocoReconfigurationAlgorithm cra = new DefaultChocoReconfigurationAlgorithm();
+        if (timeLimit >= 0) {
+            cra.setTimeLimit(timeLimit);
+        }
+        Result r = new Result();
+        r.plan = cra.solve(i.getModel(), i.getSatConstraints(), i.getOptConstraint());
+        r.stats = cra.getStatistics().toString();
+        return r;
+    }
+
+    /**
+     * The plan and the statistics of a (sub-)instance.
+     */
+    private static class Result {
+
+        ReconfigurationPlan plan;
+
+        String stats;
+    }
+}
@@ -0,0 +1,181 @@
+/*
+ * Copyright (c) 2012 University of Nice Sophia-Antipolis
+ *
+ * This file is part of btrplace.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package btrplace.fromEntropy;
+
+import btrplace.btrpsl.Script;
+import btrplace.btrpsl.ScriptBuilder;
+import btrplace.btrpsl.ScriptBuilderException;
+import btrplace.model.Model;
+import btrplace.model.Node;
+import btrplace.model.view.NamingService;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A cache of compiled include scripts, such as the datacenter description.
+ * <p/>
+ * An include like {@code $leafs = @N[1..5000] % 250;} expands node ranges into node sets when
+ * it is built. The compiled script only depends on its source and on the node names of the model,
+ * so it is shared by all the conversions of a JVM that use the same nodes: batch conversions,
+ * snapshot streams or a daemon then compile and expand the include once.
+ * A script is retrieved only if its source and the node names are equal to the cached ones,
+ * so each entry retains the node names it was compiled for.
+ * The scripts that declare VMs are not cached as they modify the model they are built for.
+ * <p/>
+ * The cached scripts are shared values and must not be modified.
+ *
+ * @author Fabien Hermenier
+ */
+public class IncludeCache {
+
+    private static final IncludeCache SHARED = new IncludeCache(16);
+
+    private final Map<Key, Script> scripts;
+
+    private int hits, misses;
+
+    /**
+     * Make a new cache.
+     *
+     * @param capacity the maximum number of scripts to keep. The least recently used script is evicted first
+     */
+    public IncludeCache(final int capacity) {
+        scripts = new LinkedHashMap<Key, Script>(capacity * 2, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, Script> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /**
+     * Get the cache shared by the whole JVM.
+     *
+     * @return the shared cache
+     */
+    public static IncludeCache shared() {
+        return SHARED;
+    }
+
+    /**
+     * Get the compiled version of a script, build it if needed.
+     *
+     * @param builder the builder to use if the script is not cached
+     * @param mo      the model the builder is working on
+     * @param src     the script source
+     * @return the compiled script
+     * @throws ScriptBuilderException if an error occurred while building the script
+     */
+    public Script get(ScriptBuilder builder, Model mo, String src) throws ScriptBuilderException {
+        Key key = new Key(src, nodeNames(mo));
+        synchronized (scripts) {
+            Script s = scripts.get(key);
+            if (s != null) {
+                hits++;
+                return s;
+            }
+        }
+        Script s = builder.build(src);
+        synchronized (scripts) {
+            misses++;
+            if (s.getVMs().isEmpty()) {
+                scripts.put(key, s);
+            }
+        }
+        return s;
+    }
+
+    /**
+     * Get the number of scripts that were retrieved from the cache.
+     *
+     * @return a positive number
+     */
+    public int getHits() {
+        synchronized (scripts) {
+            return hits;
+        }
+    }
+
+    /**
+     * Get the number of scripts that were built.
+     *
+     * @return a positive number
+     */
+    public int getMisses() {
+        synchronized (scripts) {
+            return misses;
+        }
+    }
+
+    /**
+     * Get the node names of a model, indexed by the node identifiers.
+     */
+    private static String[] nodeNames(Model mo) {
+        NamingService<Node> ns = NamingService.getNodeNames(mo);
+        if (ns == null) {
+            return new String[0];
+        }
+        int max = -1;
+        for (Node n : ns.getNamedElements()) {
+            max = Math.max(max, n.id());
+        }
+        String[] names = new String[max + 1];
+        for (Node n : ns.getNamedElements()) {
+            names[n.id()] = ns.resolve(n);
+        }
+        return names;
+    }
+
+    /**
+     * The key of a compiled script: its source and the node names it was compiled for.
+     */
+    private static final class Key {
+
+        private final String src;
+
+        private final String[] names;
+
+        private final int hash;
+
+        Key(String src, String[] names) {
+            this.src = src;
+            this.names = names;
+            this.hash = 31 * src.hashCode() + Arrays.hashCode(names);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key k = (Key) o;
+            return hash == k.hash && src.equals(k.src) && Arrays.equals(names, k.names);
+        }
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright (c) 2012 University of Nice Sophia-Antipolis
+ *
+ * This file is part of btrplace.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package btrplace.fromEntropy;
+
+import btrplace.json.JSONConverterException;
+import btrplace.json.model.InstanceConverter;
+import btrplace.model.Instance;
+import net.minidev.json.JSONObject;
+import net.minidev.json.parser.JSONParser;
+import net.minidev.json.parser.ParseException;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Read the instances of an archive written by an {@link InstanceArchiveWriter}.
+ * Each instance is rebuilt by applying its delta to the previous instance.
+ *
+ * @author Fabien Hermenier
+ */
+public class InstanceArchiveReader implements Closeable {
+
+    private BufferedReader in;
+
+    private JSONObject last;
+
+    /**
+     * Make a new reader.
+     *
+     * @param in the archive to read
+     */
+    public InstanceArchiveReader(Reader in) {
+        this.in = new BufferedReader(in);
+    }
+
+    /**
+     * Read the next instance in JSON.
+     *
+     * @return the full instance, {@code null} at the end of the archive
+     * @throws IOException if an error occurred while reading the archive
+     */
+    public JSONObject nextJSON() throws IOException {
+        String line;
+        do {
+            line = in.readLine();
+            if (line == null) {
+                return null;
+            }
+        } while (line.trim().isEmpty());
+
+        JSONObject o;
+        try {
+            o = (JSONObject) new JSONParser(JSONParser.MODE_RFC4627).parse(line);
+        } catch (ParseException ex) {
+            throw new IOException(ex);
+        }
+        last = last == null ? o : JSONDelta.apply(last, o);
+        return last;
+    }
+
+    /**
+     * Read the next instance.
+     *
+     * @return the instance, {@code null} at the end of the archive
+     * @throws IOException            if an error occurred while reading the archive
+     * @throws JSONConverterException if the instance can not be converted
+     */
+    public Instance next() throws IOException, JSONConverterException {
+        JSONObject o = nextJSON();
+        return o == null ? null : new InstanceConverter().fromJSON(IdRanges.expand(o));
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+}
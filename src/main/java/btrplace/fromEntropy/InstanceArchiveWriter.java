@@ -0,0 +1,190 @@
+/*
+ * Copyright (c) 2012 University of Nice Sophia-Antipolis
+ *
+ * This file is part of btrplace.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package btrplace.fromEntropy;
+
+import btrplace.json.JSONConverterException;
+import btrplace.json.model.InstanceConverter;
+import btrplace.model.Instance;
+import net.minidev.json.JSONObject;
+import net.minidev.json.parser.JSONParser;
+import net.minidev.json.parser.ParseException;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Write a sequence of instances in a delta-encoded archive.
+ * <p/>
+ * The archive contains one JSON object per line. The first line is a full instance,
+ * each other line is the {@link JSONDelta} between an instance and the previous one,
+ * so the unchanged parts of the model and the constraints are only stored once.
+ * Use an {@link InstanceArchiveReader} to get the full instances back.
+ * <p/>
+ * To append to an archive without replaying it, the last full instance can be saved
+ * in a checkpoint next to the archive using {@link #writeCheckpoint(File)}.
+ *
+ * @author Fabien Hermenier
+ */
+public class InstanceArchiveWriter implements Closeable {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private Writer out;
+
+    private JSONObject last;
+
+    /**
+     * Make a writer for a new archive.
+     *
+     * @param out the output
+     */
+    public InstanceArchiveWriter(Writer out) {
+        this(out, null);
+    }
+
+    /**
+     * Make a writer that appends to an existing archive.
+     *
+     * @param out  the output, positioned at the end of the archive
+     * @param last the last instance of the archive, as returned by {@link InstanceArchiveReader#nextJSON()}.
+     *             {@code null} for an empty archive
+     */
+    public InstanceArchiveWriter(Writer out, JSONObject last) {
+        this.out = out;
+        this.last = last;
+    }
+
+    /**
+     * Add an instance to the archive.
+     *
+     * @param i the instance to add
+     * @throws IOException            if an error occurred while writing the instance
+     * @throws JSONConverterException if the instance can not be converted
+     */
+    public void add(Instance i) throws IOException, JSONConverterException {
+        add(new InstanceConverter().toJSON(i));
+    }
+
+    /**
+     * Add an instance in JSON to the archive.
+     *
+     * @param o the instance to add. It is kept to compute the next delta, so it must not be modified afterward
+     * @throws IOException if an error occurred while writing the instance
+     */
+    public void add(JSONObject o) throws IOException {
+        if (last == null) {
+            o.writeJSONString(out);
+        } else {
+            JSONDelta.diff(last, o).writeJSONString(out);
+        }
+        last = o;
+        out.write('\n');
+    }
+
+    /**
+     * Flush the instances added so far.
+     *
+     * @throws IOException if an error occurred while flushing the output
+     */
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    /**
+     * Get the checkpoint of an archive.
+     *
+     * @param archive the archive
+     * @return the checkpoint file
+     */
+    public static File checkpointOf(File archive) {
+        return new File(archive.getPath() + ".last");
+    }
+
+    /**
+     * Save the last instance added to the archive in its checkpoint.
+     * The checkpoint also stores the current length of the archive, so it is ignored
+     * once the archive is modified by another way. The instances must have been flushed.
+     *
+     * @param archive the archive written by this writer
+     * @throws IOException if an error occurred while writing the checkpoint
+     */
+    public void writeCheckpoint(File archive) throws IOException {
+        if (last == null) {
+            return;
+        }
+        File cp = checkpointOf(archive);
+        File tmp = new File(cp.getPath() + ".tmp");
+        Writer w = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(tmp), UTF8));
+        try {
+            w.write(Long.toString(archive.length()));
+            w.write('\n');
+            last.writeJSONString(w);
+            w.write('\n');
+        } finally {
+            w.close();
+        }
+        //A reader never sees a partial checkpoint
+        Files.move(tmp.toPath(), cp.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Read the last instance of an archive from its checkpoint.
+     *
+     * @param archive the archive
+     * @return the last instance, {@code null} if there is no checkpoint or if it is out of date
+     * @throws IOException if an error occurred while reading the checkpoint
+     */
+    public static JSONObject readCheckpoint(File archive) throws IOException {
+        File cp = checkpointOf(archive);
+        if (!cp.exists()) {
+            return null;
+        }
+        BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(cp), UTF8));
+        try {
+            String length = in.readLine();
+            String json = in.readLine();
+            if (length == null || json == null || Long.parseLong(length) != archive.length()) {
+                return null;
+            }
+            return (JSONObject) new JSONParser(JSONParser.MODE_RFC4627).parse(json);
+        } catch (NumberFormatException ex) {
+            return null;
+        } catch (ParseException ex) {
+            return null;
+        } finally {
+            in.close();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        out.close();
+    }
+}
@@ -0,0 +1,321 @@
+/*
+ * Copyright (c) 2012 University of Nice Sophia-Antipolis
+ *
+ * This file is part of btrplace.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package btrplace.fromEntropy;
+
+import btrplace.model.*;
+import btrplace.model.constraint.*;
+import btrplace.model.view.ModelView;
+import btrplace.model.view.ShareableResource;
+
+import java.util.*;
+
+/**
+ * Split an instance into independent sub-instances that can be solved concurrently.
+ * <p/>
+ * The elements are grouped using a union-find structure:
+ * <ul>
+ * <li>a VM is grouped with its current host;</li>
+ * <li>the VMs and the nodes involved in a same constraint are grouped together;</li>
+ * <li>a VM that will be running but that is not restricted to some nodes by a {@link Fence},
+ * an {@link Among} or a {@link Root} constraint may be placed anywhere, so it is grouped with every node.</li>
+ * </ul>
+ * Each resulting group of elements is converted into a sub-instance having its own model
+ * and its own constraints. The groups that do not contain any node, such as the VMs that stay in the
+ * ready state, are put together with the first group.
+ * The {@link ShareableResource} views and the attributes are restricted to the
+ * elements of the group while the other views are copied as is.
+ *
+ * @author Fabien Hermenier
+ */
+public class InstancePartitioner {
+
+    /**
+     * The union-find parents. Nodes are indexed by their identifier,
+     * VMs are indexed by their identifier plus {@link #nbNodes}.
+     */
+    private int[] parent;
+
+    private int nbNodes;
+
+    /**
+     * The partition of the elements that are not linked to any node.
+     */
+    private int orphans;
+
+    /**
+     * Tell if a group contains at least one node.
+     */
+    private boolean[] hasNode;
+
+    /**
+     * Split an instance.
+     *
+     * @param i the instance to split
+     * @return the independent sub-instances. A single instance if the instance can not be split
+     */
+    public List<Instance> split(Instance i) {
+        Model mo = i.getModel();
+        Mapping map = mo.getMapping();
+
+        int nbVMs = 0;
+        nbNodes = 0;
+        for (Node n : map.getAllNodes()) {
+            nbNodes = Math.max(nbNodes, n.id() + 1);
+        }
+        for (VM v : map.getAllVMs()) {
+            nbVMs = Math.max(nbVMs, v.id() + 1);
+        }
+        for (SatConstraint c : i.getSatConstraints()) {
+            for (Node n : c.getInvolvedNodes()) {
+                nbNodes = Math.max(nbNodes, n.id() + 1);
+            }
+        }
+        for (SatConstraint c : i.getSatConstraints()) {
+            for (VM v : c.getInvolvedVMs()) {
+                nbVMs = Math.max(nbVMs, v.id() + 1);
+            }
+        }
+        parent = new int[nbNodes + nbVMs];
+        for (int x = 0; x < parent.length; x++) {
+            parent[x] = x;
+        }
+
+        //The VMs and their host
+        for (Node n : map.getOnlineNodes()) {
+            for (VM v : map.getRunningVMs(n)) {
+                union(n.id(), vm(v));
+            }
+            for (VM v : map.getSleepingVMs(n)) {
+                union(n.id(), vm(v));
+            }
+        }
+
+        //The constraint scopes and the placement restrictions
+        Set<VM> restricted = new HashSet<VM>();
+        Set<VM> running = new HashSet<VM>(map.getRunningVMs());
+        for (SatConstraint c : i.getSatConstraints()) {
+            int root = -1;
+            for (Node n : c.getInvolvedNodes()) {
+                root = root < 0 ? n.id() : union(root, n.id());
+            }
+            for (VM v : c.getInvolvedVMs()) {
+                root = root < 0 ? vm(v) : union(root, vm(v));
+            }
+            if (c instanceof Fence || c instanceof Among || c instanceof Root) {
+                restricted.addAll(c.getInvolvedVMs());
+            } else if (c instanceof Running) {
+                running.addAll(c.getInvolvedVMs());
+            } else if (c instanceof Ready || c instanceof Sleeping || c instanceof Killed) {
+                running.removeAll(c.getInvolvedVMs());
+            }
+        }
+
+        //The VMs that may be placed anywhere
+        int anywhere = -1;
+        for (VM v : running) {
+            if (!restricted.contains(v)) {
+                anywhere = anywhere < 0 ? vm(v) : union(anywhere, vm(v));
+            }
+        }
+        if (anywhere >= 0) {
+            for (Node n : map.getAllNodes()) {
+                anywhere = union(anywhere, n.id());
+            }
+        }
+
+        hasNode = new boolean[parent.length];
+        orphans = -1;
+        for (Node n : map.getAllNodes()) {
+            int root = find(n.id());
+            hasNode[root] = true;
+            orphans = orphans < 0 ? root : Math.min(orphans, root);
+        }
+        return makeInstances(i);
+    }
+
+    /**
+     * Get the partition of an element.
+     *
+     * @param x the element index
+     * @return the partition identifier
+     */
+    private int partition(int x) {
+        int root = find(x);
+        return hasNode[root] || orphans < 0 ? root : orphans;
+    }
+
+    private List<Instance> makeInstances(Instance i) {
+        Model mo = i.getModel();
+        Mapping map = mo.getMapping();
+        Map<Integer, Model> models = new LinkedHashMap<Integer, Model>();
+        Map<Integer, List<SatConstraint>> cstrs = new HashMap<Integer, List<SatConstraint>>();
+
+        for (Node n : map.getAllNodes()) {
+            Model sub = model(models, mo, partition(n.id()));
+            if (map.getOnlineNodes().contains(n)) {
+                sub.getMapping().addOnlineNode(n);
+            } else {
+                sub.getMapping().addOfflineNode(n);
+            }
+            copy(mo, sub, n);
+        }
+        for (VM v : map.getAllVMs()) {
+            Model sub = model(models, mo, partition(vm(v)));
+            if (map.getRunningVMs().contains(v)) {
+                sub.getMapping().addRunningVM(v, map.getVMLocation(v));
+            } else if (map.getSleepingVMs().contains(v)) {
+                sub.getMapping().addSleepingVM(v, map.getVMLocation(v));
+            } else {
+                sub.getMapping().addReadyVM(v);
+            }
+            copy(mo, sub, v);
+        }
+
+        for (SatConstraint c : i.getSatConstraints()) {
+            int root;
+            if (!c.getInvolvedNodes().isEmpty()) {
+                root = partition(c.getInvolvedNodes().iterator().next().id());
+            } else if (!c.getInvolvedVMs().isEmpty()) {
+                root = partition(vm(c.getInvolvedVMs().iterator().next()));
+            } else {
+                //No scope, the constraint goes to the first partition
+                root = models.isEmpty() ? 0 : models.keySet().iterator().next();
+            }
+            model(models, mo, root);
+            List<SatConstraint> l = cstrs.get(root);
+            if (l == null) {
+                l = new ArrayList<SatConstraint>();
+                cstrs.put(root, l);
+            }
+            l.add(c);
+        }
+
+        List<Instance> res = new ArrayList<Instance>(models.size());
+        for (Map.Entry<Integer, Model> e : models.entrySet()) {
+            List<SatConstraint> l = cstrs.get(e.getKey());
+            res.add(new Instance(e.getValue(), l == null ? new ArrayList<SatConstraint>() : l, i.getOptConstraint()));
+        }
+        return res;
+    }
+
+    /**
+     * Get the model of a partition, create it if needed.
+     */
+    private static Model model(Map<Integer, Model> models, Model mo, int root) {
+        Model sub = models.get(root);
+        if (sub == null) {
+            sub = emptyCopy(mo);
+            models.put(root, sub);
+        }
+        return sub;
+    }
+
+    /**
+     * Make a model without any element but with the views of another model.
+     * The {@link ShareableResource} views are empty while the other views are cloned.
+     *
+     * @param mo the model to copy
+     * @return the new model
+     */
+    static Model emptyCopy(Model mo) {
+        Model sub = new DefaultModel();
+        for (ModelView v : mo.getViews()) {
+            if (v instanceof ShareableResource) {
+                ShareableResource rc = (ShareableResource) v;
+                sub.attach(new ShareableResource(rc.getResourceIdentifier(), rc.getDefaultCapacity(), rc.getDefaultConsumption()));
+            } else {
+                sub.attach(v.clone());
+            }
+        }
+        return sub;
+    }
+
+    /**
+     * Copy the resource usage and the attributes of a node.
+     */
+    static void copy(Model mo, Model sub, Node n) {
+        for (ModelView v : mo.getViews()) {
+            if (v instanceof ShareableResource) {
+                ShareableResource rc = (ShareableResource) v;
+                ((ShareableResource) sub.getView(rc.getIdentifier())).setCapacity(n, rc.getCapacity(n));
+            }
+        }
+        copyAttributes(mo.getAttributes(), sub.getAttributes(), n);
+    }
+
+    /**
+     * Copy the resource usage and the attributes of a VM.
+     */
+    static void copy(Model mo, Model sub, VM vm) {
+        for (ModelView v : mo.getViews()) {
+            if (v instanceof ShareableResource) {
+                ShareableResource rc = (ShareableResource) v;
+                ((ShareableResource) sub.getView(rc.getIdentifier())).setConsumption(vm, rc.getConsumption(vm));
+            }
+        }
+        copyAttributes(mo.getAttributes(), sub.getAttributes(), vm);
+    }
+
+    private static void copyAttributes(Attributes from, Attributes to, Element e) {
+        for (String k : from.getKeys(e)) {
+            Object o = from.get(e, k);
+            if (o instanceof Integer) {
+                to.put(e, k, (Integer) o);
+            } else if (o instanceof Double) {
+                to.put(e, k, (Double) o);
+            } else if (o instanceof Boolean) {
+                to.put(e, k, (Boolean) o);
+            } else {
+                to.put(e, k, o.toString());
+            }
+        }
+    }
+
+    private int vm(VM v) {
+        return nbNodes + v.id();
+    }
+
+    private int find(int x) {
+        while (parent[x] != x) {
+            parent[x] = parent[parent[x]];
+            x = parent[x];
+        }
+        return x;
+    }
+
+    /**
+     * Merge two groups.
+     *
+     * @return the root of the merged group
+     */
+    private int union(int a, int b) {
+        int ra = find(a);
+        int rb = find(b);
+        if (ra != rb) {
+            //Keep the lowest index as the root to get a stable partition order
+            if (ra < rb) {
+                parent[rb] = ra;
+            } else {
+                parent[ra] = rb;
+                ra = rb;
+            }
+        }
+        return ra;
+    }
+}
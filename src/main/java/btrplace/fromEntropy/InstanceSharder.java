@@ -0,0 +1,276 @@
+/*
+ * Copyright (c) 2012 University of Nice Sophia-Antipolis
+ *
+ * This file is part of btrplace.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package btrplace.fromEntropy;
+
+import btrplace.json.JSONConverterException;
+import btrplace.model.Instance;
+import btrplace.model.VM;
+import btrplace.model.constraint.SatConstraint;
+import btrplace.model.view.NamingService;
+import net.minidev.json.JSONObject;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Write an instance as one file per client namespace.
+ * <p/>
+ * A constraint belongs to a client when all its VMs are named inside the
+ * namespace of the client, for example {@code clients.c4.VM1} belongs to {@code clients.c4}.
+ * The constraints without VMs, such as the node states, and the constraints
+ * over the VMs of several clients are shared.
+ * <p/>
+ * The output directory contains:
+ * <ul>
+ * <li>{@code model.json}: the instance without any constraint;</li>
+ * <li>{@code shared.json}: the shared constraints;</li>
+ * <li>one {@code clients/<namespace>.json} file per client, with its constraints;</li>
+ * <li>{@code manifest.json}: the name of these files and their number of constraints.</li>
+ * </ul>
+ * The client files are stored in their own directory, so a namespace never collides with the other files.
+ * A constraint file is a JSON object that states its constraints, and the namespace of a client file.
+ * A client only loads the model, the shared constraints and its own file.
+ * The files are written concurrently.
+ *
+ * @author Fabien Hermenier
+ */
+public class InstanceSharder {
+
+    /**
+     * The name of the manifest file.
+     */
+    public static final String MANIFEST = "manifest.json";
+
+    /**
+     * The name of the shard that contains the constraints that do not belong to a single client.
+     */
+    public static final String SHARED = "shared";
+
+    /**
+     * The directory of the client shards.
+     */
+    public static final String CLIENTS = "clients";
+
+    private ForkJoinPool pool;
+
+    private boolean compress;
+
+    private boolean ranges;
+
+    /**
+     * Make a new sharder that use the common fork-join pool.
+     *
+     * @param compress {@code true} to compress the files, except the manifest, with gzip
+     */
+    public InstanceSharder(boolean compress) {
+        this(compress, false);
+    }
+
+    /**
+     * Make a new sharder that use the common fork-join pool.
+     *
+     * @param compress {@code true} to compress the files, except the manifest, with gzip
+     * @param ranges   {@code true} to write the sorted lists of element identifiers of the constraints as ranges
+     */
+    public InstanceSharder(boolean compress, boolean ranges) {
+        this(compress, ranges, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Make a new sharder.
+     *
+     * @param compress {@code true} to compress the files, except the manifest, with gzip
+     * @param ranges   {@code true} to write the sorted lists of element identifiers of the constraints as ranges
+     * @param pool     the pool that writes the files
+     */
+    public InstanceSharder(boolean compress, boolean ranges, ForkJoinPool pool) {
+        this.compress = compress;
+        this.ranges = ranges;
+        this.pool = pool;
+    }
+
+    /**
+     * Group the constraints of an instance by client namespace.
+     *
+     * @param i      the instance
+     * @param shared the list to add the constraints that do not belong to a single client to
+     * @return the constraints of each namespace, in the instance order. The namespaces are sorted
+     */
+    public SortedMap<String, List<SatConstraint>> split(Instance i, List<SatConstraint> shared) {
+        NamingService<VM> ns = NamingService.getVMNames(i.getModel());
+        SortedMap<String, List<SatConstraint>> shards = new TreeMap<String, List<SatConstraint>>();
+        for (SatConstraint c : i.getSatConstraints()) {
+            String k = namespace(ns, c);
+            if (k == null) {
+                shared.add(c);
+                continue;
+            }
+            List<SatConstraint> l = shards.get(k);
+            if (l == null) {
+                l = new ArrayList<SatConstraint>();
+                shards.put(k, l);
+            }
+            l.add(c);
+        }
+        return shards;
+    }
+
+    /**
+     * Get the client namespace of a constraint.
+     *
+     * @return the namespace, {@code null} if the constraint does not belong to a single client
+     */
+    private static String namespace(NamingService<VM> ns, SatConstraint c) {
+        if (ns == null || c.getInvolvedVMs().isEmpty()) {
+            return null;
+        }
+        String res = null;
+        for (VM v : c.getInvolvedVMs()) {
+            String n = ns.resolve(v);
+            int dot = n == null ? -1 : n.lastIndexOf('.');
+            if (dot <= 0) {
+                return null;
+            }
+            String k = n.substring(0, dot);
+            if (res == null) {
+                res = k;
+            } else if (!res.equals(k)) {
+                return null;
+            }
+        }
+        return res;
+    }
+
+    /**
+     * Write the shards of an instance.
+     *
+     * @param i     the instance
+     * @param model the instance without constraints in JSON, as written in the model file. Its
+     *              identifiers are not written as ranges by the sharder
+     * @param dir   the output directory. Created if needed
+     * @return the manifest
+     * @throws IOException            if an error occurred while writing the files
+     * @throws JSONConverterException if a constraint can not be converted
+     */
+    public JSONObject write(Instance i, JSONObject model, File dir) throws IOException, JSONConverterException {
+        File clients = new File(dir, CLIENTS);
+        if (!clients.isDirectory() && !clients.mkdirs()) {
+            throw new IOException("Unable to create the directory '" + clients + "'");
+        }
+        String ext = compress ? ".json.gz" : ".json";
+        List<SatConstraint> shared = new ArrayList<SatConstraint>();
+        SortedMap<String, List<SatConstraint>> shards = split(i, shared);
+
+        List<ForkJoinTask<Void>> tasks = new ArrayList<ForkJoinTask<Void>>();
+        tasks.add(pool.submit(new WriteTask(model, null, i, new File(dir, "model" + ext), compress, false)));
+        tasks.add(pool.submit(new WriteTask(new JSONObject(), shared, i, new File(dir, SHARED + ext), compress, ranges)));
+        JSONObject files = new JSONObject();
+        JSONObject sizes = new JSONObject();
+        for (Map.Entry<String, List<SatConstraint>> e : shards.entrySet()) {
+            String f = CLIENTS + "/" + e.getKey() + ext;
+            JSONObject o = new JSONObject();
+            o.put("namespace", e.getKey());
+            tasks.add(pool.submit(new WriteTask(o, e.getValue(), i, new File(dir, f), compress, ranges)));
+            files.put(e.getKey(), f);
+            sizes.put(e.getKey(), e.getValue().size());
+        }
+
+        JSONObject manifest = new JSONObject();
+        manifest.put("model", "model" + ext);
+        manifest.put(SHARED, SHARED + ext);
+        manifest.put(SHARED + "Size", shared.size());
+        manifest.put(ParallelInstanceConverter.CONSTRAINTS_KEY, files);
+        manifest.put("sizes", sizes);
+        for (ForkJoinTask<Void> t : tasks) {
+            try {
+                t.join();
+            } catch (RuntimeException ex) {
+                //The exception may be re-wrapped by the pool
+                for (Throwable c = ex; c != null; c = c.getCause()) {
+                    if (c instanceof IOException) {
+                        throw (IOException) c;
+                    } else if (c instanceof JSONConverterException) {
+                        throw (JSONConverterException) c;
+                    }
+                }
+                throw ex;
+            }
+        }
+        try {
+            new WriteTask(manifest, null, i, new File(dir, MANIFEST), false, false).compute();
+        } catch (UncheckedIOException ex) {
+            throw ex.getCause();
+        }
+        return manifest;
+    }
+
+    /**
+     * Write a JSON object into a file.
+     * The constraints of a shard are converted by the task.
+     */
+    private static class WriteTask extends RecursiveAction {
+
+        private JSONObject o;
+
+        private List<SatConstraint> cstrs;
+
+        private Instance i;
+
+        private File f;
+
+        private boolean compress;
+
+        private boolean ranges;
+
+        WriteTask(JSONObject o, List<SatConstraint> cstrs, Instance i, File f, boolean compress, boolean ranges) {
+            this.o = o;
+            this.cstrs = cstrs;
+            this.i = i;
+            this.f = f;
+            this.compress = compress;
+            this.ranges = ranges;
+        }
+
+        @Override
+        protected void compute() {
+            try {
+                if (cstrs != null) {
+                    o.put(ParallelInstanceConverter.CONSTRAINTS_KEY, ParallelInstanceConverter.toJSON(cstrs, i.getOptConstraint()));
+                }
+                if (ranges) {
+                    o = IdRanges.compress(o);
+                }
+                OutputStream os = new FileOutputStream(f);
+                Writer out = new BufferedWriter(new OutputStreamWriter(compress ? new GZIPOutputStream(os) : os));
+                try {
+                    o.writeJSONString(out);
+                } finally {
+                    out.close();
+                }
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            } catch (JSONConverterException ex) {
+                throw new IllegalStateException(ex);
+            }
+        }
+    }
+}
@@ -0,0 +1,287 @@
+/*
+ * Copyright (c) 2012 University of Nice Sophia-Antipolis
+ *
+ * This file is part of btrplace.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package btrplace.fromEntropy;
+
+import net.minidev.json.JSONArray;
+import net.minidev.json.JSONObject;
+
+import java.util.*;
+
+/**
+ * Differences between two JSON documents.
+ * <p/>
+ * A delta is a JSON object with up to four entries:
+ * <ul>
+ * <li>{@value #SET}: the keys with a new value;</li>
+ * <li>{@value #UNSET}: the removed keys;</li>
+ * <li>{@value #NESTED}: the delta of the objects that changed;</li>
+ * <li>{@value #ARRAY}: the changes of the arrays, as a sequence of {@value #SEGMENTS}. Each segment
+ * either copies a run of the previous array ({@value #COPY}: the position of the run and its length)
+ * or inserts new elements ({@value #ADDED}).</li>
+ * </ul>
+ * The arrays are compared positionally, so applying a delta restores the exact order of the elements.
+ * The values are compared as they are written: the numbers by value whatever their type, and the
+ * arrays and the objects by content, so a document built in memory can be compared with one that
+ * was parsed back.
+ *
+ * @author Fabien Hermenier
+ */
+final class JSONDelta {
+
+    static final String SET = "$set";
+
+    static final String UNSET = "$unset";
+
+    static final String NESTED = "$nested";
+
+    static final String ARRAY = "$array";
+
+    static final String ADDED = "added";
+
+    static final String SEGMENTS = "segments";
+
+    static final String COPY = "copy";
+
+    private JSONDelta() {
+    }
+
+    /**
+     * Compute the delta between two objects.
+     *
+     * @param from the previous object
+     * @param to   the next object
+     * @return the delta, empty if the objects are equal
+     */
+    static JSONObject diff(JSONObject from, JSONObject to) {
+        JSONObject set = new JSONObject();
+        JSONArray unset = new JSONArray();
+        JSONObject nested = new JSONObject();
+        JSONObject arrays = new JSONObject();
+        for (Map.Entry<String, Object> e : to.entrySet()) {
+            String k = e.getKey();
+            Object prev = from.get(k);
+            Object next = e.getValue();
+            if (!from.containsKey(k)) {
+                set.put(k, next);
+            } else if (prev instanceof JSONObject && next instanceof JSONObject) {
+                JSONObject d = diff((JSONObject) prev, (JSONObject) next);
+                if (!d.isEmpty()) {
+                    nested.put(k, d);
+                }
+            } else if (prev instanceof JSONArray && next instanceof JSONArray) {
+                if (!equal(prev, next)) {
+                    JSONObject d = diff((JSONArray) prev, (JSONArray) next);
+                    if (d == null) {
+                        set.put(k, next);
+                    } else {
+                        arrays.put(k, d);
+                    }
+                }
+            } else if (!equal(prev, next)) {
+                set.put(k, next);
+            }
+        }
+        for (String k : from.keySet()) {
+            if (!to.containsKey(k)) {
+                unset.add(k);
+            }
+        }
+
+        JSONObject d = new JSONObject();
+        if (!set.isEmpty()) {
+            d.put(SET, set);
+        }
+        if (!unset.isEmpty()) {
+            d.put(UNSET, unset);
+        }
+        if (!nested.isEmpty()) {
+            d.put(NESTED, nested);
+        }
+        if (!arrays.isEmpty()) {
+            d.put(ARRAY, arrays);
+        }
+        return d;
+    }
+
+    /**
+     * Compute the changes between two arrays.
+     * The next array is made of runs of the previous array and of new elements.
+     *
+     * @return the changes, {@code null} if replacing the array is cheaper
+     */
+    private static JSONObject diff(JSONArray from, JSONArray to) {
+        //The first position of each element of the previous array
+        Map<Object, Integer> positions = new HashMap<Object, Integer>(from.size() * 2);
+        for (int i = from.size() - 1; i >= 0; i--) {
+            positions.put(key(from.get(i)), i);
+        }
+        JSONArray segments = new JSONArray();
+        JSONArray added = new JSONArray();
+        int runFrom = -1, runLen = 0;
+        int cost = 0;
+        for (Object o : to) {
+            int p = runFrom + runLen;
+            if (runLen > 0 && p < from.size() && equal(from.get(p), o)) {
+                runLen++;
+                continue;
+            }
+            cost += segment(segments, runFrom, runLen, null);
+            runLen = 0;
+            Integer pos = positions.get(key(o));
+            if (pos == null) {
+                added.add(o);
+            } else {
+                cost += segment(segments, -1, 0, added);
+                added = new JSONArray();
+                runFrom = pos;
+                runLen = 1;
+            }
+        }
+        cost += segment(segments, runFrom, runLen, null);
+        cost += segment(segments, -1, 0, added);
+        if (cost >= to.size()) {
+            return null;
+        }
+        JSONObject d = new JSONObject();
+        d.put(SEGMENTS, segments);
+        return d;
+    }
+
+    /**
+     * Add a segment that copies a run or that inserts elements, if not empty.
+     *
+     * @return the cost of the segment, in number of values
+     */
+    private static int segment(JSONArray segments, int runFrom, int runLen, JSONArray added) {
+        JSONObject seg = new JSONObject();
+        if (runLen > 0) {
+            JSONArray run = new JSONArray();
+            run.add(runFrom);
+            run.add(runLen);
+            seg.put(COPY, run);
+            segments.add(seg);
+            return 2;
+        } else if (added != null && !added.isEmpty()) {
+            seg.put(ADDED, added);
+            segments.add(seg);
+            return added.size();
+        }
+        return 0;
+    }
+
+    /**
+     * Check if two values have the same JSON form.
+     */
+    static boolean equal(Object a, Object b) {
+        if (a == null || b == null) {
+            return a == b;
+        } else if (a instanceof Number && b instanceof Number) {
+            return key(a).equals(key(b));
+        } else if (a instanceof List && b instanceof List) {
+            List<?> x = (List<?>) a;
+            List<?> y = (List<?>) b;
+            if (x.size() != y.size()) {
+                return false;
+            }
+            for (int i = 0; i < x.size(); i++) {
+                if (!equal(x.get(i), y.get(i))) {
+                    return false;
+                }
+            }
+            return true;
+        } else if (a instanceof Map && b instanceof Map) {
+            Map<?, ?> x = (Map<?, ?>) a;
+            Map<?, ?> y = (Map<?, ?>) b;
+            if (x.size() != y.size()) {
+                return false;
+            }
+            for (Map.Entry<?, ?> e : x.entrySet()) {
+                if (!y.containsKey(e.getKey()) || !equal(e.getValue(), y.get(e.getKey()))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        return a.equals(b);
+    }
+
+    /**
+     * Get the key of a value to look for it in a hash table.
+     * The numbers are mapped to the type the parser returns: a {@code Long} for the integers, a {@code Double}
+     * otherwise, so two values with the same JSON form have the same key. The arrays and the objects
+     * are kept, so they are only found when their content have the same types.
+     */
+    private static Object key(Object o) {
+        if (o instanceof Integer || o instanceof Long || o instanceof Short || o instanceof Byte) {
+            return ((Number) o).longValue();
+        } else if (o instanceof Number) {
+            //From the decimal form, so a float is equal to the double that is parsed back
+            return Double.valueOf(o.toString());
+        }
+        return o;
+    }
+
+    /**
+     * Apply a delta on an object.
+     *
+     * @param from  the object to update. It is not modified
+     * @param delta the delta to apply
+     * @return the updated object
+     */
+    static JSONObject apply(JSONObject from, JSONObject delta) {
+        JSONObject to = new JSONObject();
+        to.putAll(from);
+        JSONObject set = (JSONObject) delta.get(SET);
+        if (set != null) {
+            to.putAll(set);
+        }
+        JSONArray unset = (JSONArray) delta.get(UNSET);
+        if (unset != null) {
+            for (Object k : unset) {
+                to.remove(k);
+            }
+        }
+        JSONObject nested = (JSONObject) delta.get(NESTED);
+        if (nested != null) {
+            for (Map.Entry<String, Object> e : nested.entrySet()) {
+                to.put(e.getKey(), apply((JSONObject) from.get(e.getKey()), (JSONObject) e.getValue()));
+            }
+        }
+        JSONObject arrays = (JSONObject) delta.get(ARRAY);
+        if (arrays != null) {
+            for (Map.Entry<String, Object> e : arrays.entrySet()) {
+                JSONArray prev = (JSONArray) from.get(e.getKey());
+                JSONObject d = (JSONObject) e.getValue();
+                JSONArray next = new JSONArray();
+                for (Object o : (JSONArray) d.get(SEGMENTS)) {
+                    JSONObject seg = (JSONObject) o;
+                    JSONArray run = (JSONArray) seg.get(COPY);
+                    if (run != null) {
+                        int p = ((Number) run.get(0)).intValue();
+                        next.addAll(prev.subList(p, p + ((Number) run.get(1)).intValue()));
+                    } else {
+                        next.addAll((JSONArray) seg.get(ADDED));
+                    }
+                }
+                to.put(e.getKey(), next);
+            }
+        }
+        return to;
+    }
+}
@@ -0,0 +1,301 @@
+/*
+ * Copyright (c) 2012 University of Nice Sophia-Antipolis
+ *
+ * This file is part of btrplace.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package btrplace.fromEntropy;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A conversion-local registry that associates entropy element names to
+ * sequential integer identifiers.
+ * <p/>
+ * Names are stored in an open-addressing hash table so the lookup only relies
+ * on primitive arrays. Entropy names usually follow a pattern like {@code VM1234},
+ * {@code N56} or {@code c40m200}, so a name is stored as the identifier of its prefix
+ * plus its numeric suffix. Names that does not follow this pattern are stored as is.
+ * The string of a compact name is only materialized on demand, using {@link #name(int)}.
+ *
+ * @author Fabien Hermenier
+ */
+final class NameTable {
+
+    private static final float LOAD_FACTOR = 0.5f;
+
+    /**
+     * The maximum number of distinct prefixes.
+     * Beyond, names are no longer compacted.
+     */
+    private static final int MAX_PREFIXES = 256;
+
+    /**
+     * The slots. Each slot store the identifier + 1, 0 denotes an empty slot.
+     */
+    private int[] slots;
+
+    /**
+     * The hash of each name, to rehash without materializing the names.
+     */
+    private int[] hashes;
+
+    /**
+     * For each name, the index of its prefix, or {@code -1} for a plain name.
+     */
+    private short[] prefixOf;
+
+    /**
+     * For each name, its numeric suffix, or the index of the plain name.
+     */
+    private int[] suffixOf;
+
+    private List<String> prefixes;
+
+    /**
+     * The index of each prefix.
+     */
+    private Map<String, Integer> prefixIndex;
+
+    private List<String> plains;
+
+    private int size;
+
+    /**
+     * Make a new table.
+     *
+     * @param expected the expected number of names
+     */
+    public NameTable(int expected) {
+        int capacity = Integer.highestOneBit(Math.max(16, (int) (expected / LOAD_FACTOR)) - 1) << 1;
+        slots = new int[capacity];
+        int n = Math.max(16, expected);
+        hashes = new int[n];
+        prefixOf = new short[n];
+        suffixOf = new int[n];
+        prefixes = new ArrayList<String>();
+        prefixIndex = new HashMap<String, Integer>();
+        plains = new ArrayList<String>();
+    }
+
+    /**
+     * Get the identifier associated to a name.
+     *
+     * @param name the name to look for
+     * @return the identifier. {@code -1} if the name is unknown
+     */
+    public int indexOf(String name) {
+        int h = name.hashCode();
+        int mask = slots.length - 1;
+        int i = mix(h) & mask;
+        while (slots[i] != 0) {
+            int id = slots[i] - 1;
+            if (hashes[id] == h && matches(id, name)) {
+                return id;
+            }
+            i = (i + 1) & mask;
+        }
+        return -1;
+    }
+
+    /**
+     * Get the identifier associated to a name, and register
+     * the name with the next free identifier if needed.
+     *
+     * @param name the name
+     * @return the identifier associated to the name
+     */
+    public int add(String name) {
+        int h = name.hashCode();
+        int mask = slots.length - 1;
+        int i = mix(h) & mask;
+        while (slots[i] != 0) {
+            int id = slots[i] - 1;
+            if (hashes[id] == h && matches(id, name)) {
+                return id;
+            }
+            i = (i + 1) & mask;
+        }
+        int id = size++;
+        if (id == hashes.length) {
+            int n = hashes.length * 2;
+            hashes = Arrays.copyOf(hashes, n);
+            prefixOf = Arrays.copyOf(prefixOf, n);
+            suffixOf = Arrays.copyOf(suffixOf, n);
+        }
+        hashes[id] = h;
+        store(id, name);
+        slots[i] = id + 1;
+        if (size > slots.length * LOAD_FACTOR) {
+            rehash();
+        }
+        return id;
+    }
+
+    /**
+     * Get the name associated to an identifier.
+     * The string is materialized for compacted names.
+     *
+     * @param id the identifier
+     * @return the name
+     */
+    public String name(int id) {
+        int p = prefixOf[id];
+        if (p < 0) {
+            return plains.get(suffixOf[id]);
+        }
+        return prefixes.get(p) + suffixOf[id];
+    }
+
+    /**
+     * Get the number of registered names.
+     *
+     * @return a positive integer
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Estimate the number of bytes retained by the table.
+     * The estimation assumes a 64-bit JVM with compressed references.
+     *
+     * @return an amount of bytes
+     */
+    public long footprint() {
+        long b = array(slots.length, 4) + array(hashes.length, 4) + array(prefixOf.length, 2) + array(suffixOf.length, 4);
+        for (String p : prefixes) {
+            b += footprint(p);
+        }
+        for (String p : plains) {
+            b += footprint(p);
+        }
+        return b;
+    }
+
+    /**
+     * Estimate the number of bytes retained by a string.
+     * The estimation assumes a 64-bit JVM with compressed references.
+     *
+     * @param s the string
+     * @return an amount of bytes
+     */
+    public static long footprint(String s) {
+        //The String object, then its char array
+        return 24 + array(s.length(), 2);
+    }
+
+    /**
+     * Estimate the number of bytes retained by an array of primitives.
+     *
+     * @param length the array length
+     * @param width  the number of bytes per element
+     * @return an amount of bytes
+     */
+    static long array(int length, int width) {
+        return (16 + (long) length * width + 7) & ~7L;
+    }
+
+    /**
+     * Get the position of the numeric suffix of a name.
+     *
+     * @param name the name
+     * @return the position of the suffix, or {@code -1} if the name can not
+     * be stored as a prefix and a numeric suffix.
+     */
+    private static int suffixStart(String name) {
+        int i = name.length();
+        while (i > 0 && Character.isDigit(name.charAt(i - 1)) && name.charAt(i - 1) < 128) {
+            i--;
+        }
+        int len = name.length() - i;
+        //No suffix, a leading 0 that would be lost, or a possible overflow
+        if (len == 0 || len > 9 || (len > 1 && name.charAt(i) == '0')) {
+            return -1;
+        }
+        return i;
+    }
+
+    private static int suffix(String name, int from) {
+        int v = 0;
+        for (int i = from; i < name.length(); i++) {
+            v = v * 10 + (name.charAt(i) - '0');
+        }
+        return v;
+    }
+
+    private void store(int id, String name) {
+        int from = suffixStart(name);
+        if (from >= 0) {
+            String prefix = name.substring(0, from);
+            Integer idx = prefixIndex.get(prefix);
+            int p = idx == null ? -1 : idx;
+            if (p < 0 && prefixes.size() < MAX_PREFIXES) {
+                p = prefixes.size();
+                prefixes.add(prefix);
+                prefixIndex.put(prefix, p);
+            }
+            if (p >= 0) {
+                prefixOf[id] = (short) p;
+                suffixOf[id] = suffix(name, from);
+                return;
+            }
+        }
+        prefixOf[id] = -1;
+        suffixOf[id] = plains.size();
+        plains.add(name);
+    }
+
+    private boolean matches(int id, String name) {
+        int p = prefixOf[id];
+        if (p < 0) {
+            return plains.get(suffixOf[id]).equals(name);
+        }
+        int from = suffixStart(name);
+        if (from < 0) {
+            return false;
+        }
+        String prefix = prefixes.get(p);
+        return prefix.length() == from
+                && name.regionMatches(0, prefix, 0, from)
+                && suffix(name, from) == suffixOf[id];
+    }
+
+    private void rehash() {
+        int[] old = slots;
+        slots = new int[old.length * 2];
+        int mask = slots.length - 1;
+        for (int s : old) {
+            if (s != 0) {
+                int i = mix(hashes[s - 1]) & mask;
+                while (slots[i] != 0) {
+                    i = (i + 1) & mask;
+                }
+                slots[i] = s;
+            }
+        }
+    }
+
+    private static int mix(int h) {
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        return h;
+    }
+}
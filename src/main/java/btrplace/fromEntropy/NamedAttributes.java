@@ -0,0 +1,135 @@
+/*
+ * Copyright (c) 2012 University of Nice Sophia-Antipolis
+ *
+ * This file is part of btrplace.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package btrplace.fromEntropy;
+
+import btrplace.model.DefaultAttributes;
+import btrplace.model.Element;
+import btrplace.model.Node;
+import btrplace.model.VM;
+
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * Attributes that resolve the {@link ConfigurationConverter#ENTROPY_ID} attribute
+ * of the elements from the conversion-local name tables.
+ * <p/>
+ * The names are not stored as attributes but materialized each time they are read.
+ * An explicit value for {@link ConfigurationConverter#ENTROPY_ID} prevails over
+ * the resolved name.
+ *
+ * @author Fabien Hermenier
+ */
+class NamedAttributes extends DefaultAttributes {
+
+    private NameTable nodes, vms;
+
+    /**
+     * Set the tables used to resolve the names.
+     *
+     * @param nodes the node names
+     * @param vms   the VM names
+     */
+    void setNames(NameTable nodes, NameTable vms) {
+        this.nodes = nodes;
+        this.vms = vms;
+    }
+
+    /**
+     * Get the name of an element.
+     *
+     * @param e the element
+     * @return the name, {@code null} if the element is not named
+     */
+    private String name(Element e) {
+        NameTable t = e instanceof VM ? vms : (e instanceof Node ? nodes : null);
+        if (t == null || e.id() < 0 || e.id() >= t.size()) {
+            return null;
+        }
+        return t.name(e.id());
+    }
+
+    @Override
+    public Object get(Element e, String k) {
+        Object o = super.get(e, k);
+        if (o == null && ConfigurationConverter.ENTROPY_ID.equals(k)) {
+            return name(e);
+        }
+        return o;
+    }
+
+    @Override
+    public String getString(Element e, String k) {
+        if (ConfigurationConverter.ENTROPY_ID.equals(k)) {
+            return (String) get(e, k);
+        }
+        return super.getString(e, k);
+    }
+
+    @Override
+    public boolean isSet(Element e, String k) {
+        return super.isSet(e, k) || (ConfigurationConverter.ENTROPY_ID.equals(k) && name(e) != null);
+    }
+
+    @Override
+    public Set<String> getKeys(Element e) {
+        Set<String> keys = new LinkedHashSet<String>(super.getKeys(e));
+        if (name(e) != null) {
+            keys.add(ConfigurationConverter.ENTROPY_ID);
+        }
+        return keys;
+    }
+
+    @Override
+    public Set<Element> getDefined() {
+        Set<Element> defined = new LinkedHashSet<Element>(super.getDefined());
+        if (nodes != null) {
+            for (int id = 0; id < nodes.size(); id++) {
+                defined.add(new Node(id));
+            }
+        }
+        if (vms != null) {
+            for (int id = 0; id < vms.size(); id++) {
+                defined.add(new VM(id));
+            }
+        }
+        return defined;
+    }
+
+    @Override
+    public NamedAttributes clone() {
+        NamedAttributes c = new NamedAttributes();
+        c.setNames(nodes, vms);
+        for (Element e : super.getDefined()) {
+            for (String k : super.getKeys(e)) {
+                Object v = super.get(e, k);
+                if (v instanceof Integer) {
+                    c.put(e, k, (Integer) v);
+                } else if (v instanceof Double) {
+                    c.put(e, k, (Double) v);
+                } else if (v instanceof Boolean) {
+                    c.put(e, k, (Boolean) v);
+                } else {
+                    c.put(e, k, v.toString());
+                }
+            }
+        }
+        return c;
+    }
+}
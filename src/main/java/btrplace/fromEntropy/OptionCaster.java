@@ -0,0 +1,199 @@
+/*
+ * Copyright (c) 2012 University of Nice Sophia-Antipolis
+ *
+ * This file is part of btrplace.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package btrplace.fromEntropy;
+
+import btrplace.model.Attributes;
+import btrplace.model.DefaultAttributes;
+import btrplace.model.Element;
+import btrplace.model.VM;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Put option values as typed attributes.
+ * <p/>
+ * {@link Attributes#castAndPut(Element, String, String)} infers the type of
+ * every value by trying successive parsers. As the values of a given option
+ * key usually share the same type, the caster learns the type of each key
+ * from its first value and then uses a dedicated parser. When the dedicated
+ * parser does not apply, the value goes through {@link Attributes#castAndPut(Element, String, String)}
+ * and the key type is learned again, so the resulting attributes are always
+ * the same.
+ *
+ * @author Fabien Hermenier
+ */
+public class OptionCaster {
+
+    /**
+     * The possible value types.
+     */
+    private enum Kind {BOOLEAN, INTEGER, DOUBLE, STRING}
+
+    /**
+     * The value returned by {@link #parseInt(String)} for a non-integer value.
+     */
+    private static final long NOT_AN_INT = Long.MIN_VALUE;
+
+    /**
+     * The element used to cast values that are not put as attributes.
+     */
+    private static final VM SCRATCH = new VM(0);
+
+    private Map<String, Kind> kinds;
+
+    private Attributes scratch;
+
+    /**
+     * Make a new caster.
+     */
+    public OptionCaster() {
+        kinds = new HashMap<String, Kind>();
+        scratch = new DefaultAttributes();
+    }
+
+    /**
+     * Cast a value the same way it would be put as an attribute.
+     *
+     * @param k the attribute key
+     * @param v the value to cast
+     * @return the typed value
+     */
+    public Object cast(String k, String v) {
+        put(scratch, SCRATCH, k, v);
+        Object o = scratch.get(SCRATCH, k);
+        scratch.unset(SCRATCH, k);
+        return o;
+    }
+
+    /**
+     * Put a value as an attribute.
+     *
+     * @param attrs the attributes to fill
+     * @param e     the element
+     * @param k     the attribute key
+     * @param v     the value to cast
+     * @return the result of the put operation
+     */
+    public boolean put(Attributes attrs, Element e, String k, String v) {
+        Kind kind = kinds.get(k);
+        if (kind != null && !v.isEmpty()) {
+            switch (kind) {
+                case BOOLEAN:
+                    if (v.equalsIgnoreCase("true")) {
+                        return attrs.put(e, k, true);
+                    } else if (v.equalsIgnoreCase("false")) {
+                        return attrs.put(e, k, false);
+                    }
+                    break;
+                case INTEGER:
+                    long i = parseInt(v);
+                    if (i != NOT_AN_INT) {
+                        return attrs.put(e, k, (int) i);
+                    }
+                    break;
+                case DOUBLE:
+                    if (parseInt(v) == NOT_AN_INT && isDecimal(v)) {
+                        try {
+                            return attrs.put(e, k, Double.parseDouble(v));
+                        } catch (NumberFormatException ex) {
+                            //Not a double, go for the complete inference
+                        }
+                    }
+                    break;
+                case STRING:
+                    if (!mayBeTyped(v.charAt(0))) {
+                        return attrs.put(e, k, v);
+                    }
+                    break;
+                default:
+                    break;
+            }
+        }
+        boolean ret = attrs.castAndPut(e, k, v);
+        learn(k, attrs.get(e, k));
+        return ret;
+    }
+
+    private void learn(String k, Object o) {
+        if (o instanceof Boolean) {
+            kinds.put(k, Kind.BOOLEAN);
+        } else if (o instanceof Integer) {
+            kinds.put(k, Kind.INTEGER);
+        } else if (o instanceof Double) {
+            kinds.put(k, Kind.DOUBLE);
+        } else {
+            kinds.put(k, Kind.STRING);
+        }
+    }
+
+    /**
+     * Parse a strict integer value, without any surrounding space.
+     *
+     * @param v the value to parse
+     * @return the integer or {@link #NOT_AN_INT}
+     */
+    private static long parseInt(String v) {
+        int i = 0;
+        boolean neg = false;
+        char c = v.charAt(0);
+        if (c == '-' || c == '+') {
+            neg = c == '-';
+            i++;
+        }
+        if (i == v.length() || v.length() - i > 10) {
+            return NOT_AN_INT;
+        }
+        long x = 0;
+        for (; i < v.length(); i++) {
+            c = v.charAt(i);
+            if (c < '0' || c > '9') {
+                return NOT_AN_INT;
+            }
+            x = x * 10 + (c - '0');
+        }
+        x = neg ? -x : x;
+        if (x < Integer.MIN_VALUE || x > Integer.MAX_VALUE) {
+            return NOT_AN_INT;
+        }
+        return x;
+    }
+
+    /**
+     * Check if a value only contains characters of a plain decimal number.
+     */
+    private static boolean isDecimal(String v) {
+        for (int i = 0; i < v.length(); i++) {
+            char c = v.charAt(i);
+            if ((c < '0' || c > '9') && c != '.' && c != '-' && c != '+' && c != 'e' && c != 'E') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Check if a value starting with a given character may be
+     * converted to a boolean or a number.
+     */
+    private static boolean mayBeTyped(char c) {
+        return Character.isDigit(c) || c <= ' ' || Character.isWhitespace(c)
+                || "+-.tTfFnNiI".indexOf(c) >= 0;
+    }
+}
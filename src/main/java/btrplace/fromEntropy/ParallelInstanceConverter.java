@@ -0,0 +1,224 @@
+/*
+ * Copyright (c) 2012 University of Nice Sophia-Antipolis
+ *
+ * This file is part of btrplace.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package btrplace.fromEntropy;
+
+import btrplace.json.JSONConverterException;
+import btrplace.json.model.InstanceConverter;
+import btrplace.model.DefaultModel;
+import btrplace.model.Instance;
+import btrplace.model.constraint.OptConstraint;
+import btrplace.model.constraint.SatConstraint;
+import net.minidev.json.JSONArray;
+import net.minidev.json.JSONObject;
+import net.minidev.json.JSONValue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Convert and write instances in JSON using several threads.
+ * <p/>
+ * The constraints are split into chunks of {@link #CHUNK_SIZE} constraints that are
+ * converted concurrently by an {@link InstanceConverter}, then concatenated in order.
+ * When writing, each large array of the instance is serialized by chunks into
+ * per-task buffers that are appended in order to the output.
+ * The resulting JSON and the written characters are the same as with a single thread.
+ *
+ * @author Fabien Hermenier
+ */
+public class ParallelInstanceConverter {
+
+    /**
+     * The key of the constraints in an instance, as stated by the {@link InstanceConverter}.
+     */
+    public static final String CONSTRAINTS_KEY = "constraints";
+
+    /**
+     * The number of elements of a chunk.
+     */
+    public static final int CHUNK_SIZE = 2048;
+
+    private ForkJoinPool pool;
+
+    /**
+     * Make a new converter that use the common fork-join pool.
+     */
+    public ParallelInstanceConverter() {
+        this(ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Make a new converter.
+     *
+     * @param pool the pool that runs the chunks
+     */
+    public ParallelInstanceConverter(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * Convert an instance.
+     *
+     * @param i the instance to convert
+     * @return the same JSON object as {@link InstanceConverter#toJSON(Object)}
+     * @throws JSONConverterException if the instance can not be converted
+     */
+    public JSONObject toJSON(Instance i) throws JSONConverterException {
+        List<SatConstraint> cstrs = new ArrayList<SatConstraint>(i.getSatConstraints());
+        if (cstrs.size() <= CHUNK_SIZE) {
+            return new InstanceConverter().toJSON(i);
+        }
+        JSONObject o = new InstanceConverter().toJSON(new Instance(i.getModel(), new ArrayList<SatConstraint>(), i.getOptConstraint()));
+
+        List<ForkJoinTask<JSONArray>> tasks = new ArrayList<ForkJoinTask<JSONArray>>();
+        for (int from = 0; from < cstrs.size(); from += CHUNK_SIZE) {
+            tasks.add(pool.submit(new ConvertTask(cstrs.subList(from, Math.min(from + CHUNK_SIZE, cstrs.size())), i)));
+        }
+        JSONArray res = new JSONArray();
+        for (ForkJoinTask<JSONArray> t : tasks) {
+            try {
+                res.addAll(t.join());
+            } catch (RuntimeException ex) {
+                //The exception may be re-wrapped by the pool
+                for (Throwable c = ex; c != null; c = c.getCause()) {
+                    if (c instanceof JSONConverterException) {
+                        throw (JSONConverterException) c;
+                    }
+                }
+                throw ex;
+            }
+        }
+        o.put(CONSTRAINTS_KEY, res);
+        return o;
+    }
+
+    /**
+     * Convert a chunk of constraints.
+     */
+    private static class ConvertTask extends RecursiveTask<JSONArray> {
+
+        private List<SatConstraint> cstrs;
+
+        private Instance i;
+
+        ConvertTask(List<SatConstraint> cstrs, Instance i) {
+            this.cstrs = cstrs;
+            this.i = i;
+        }
+
+        @Override
+        protected JSONArray compute() {
+            try {
+                return toJSON(cstrs, i.getOptConstraint());
+            } catch (JSONConverterException ex) {
+                throw new IllegalStateException(ex);
+            }
+        }
+    }
+
+    /**
+     * Convert constraints alone.
+     * The model is left empty as the constraints only refer to the element identifiers.
+     *
+     * @param cstrs the constraints to convert
+     * @param opt   the optimisation constraint of the instance
+     * @return the same array as the {@link #CONSTRAINTS_KEY} entry of an instance
+     * @throws JSONConverterException if a constraint can not be converted
+     */
+    static JSONArray toJSON(Collection<SatConstraint> cstrs, OptConstraint opt) throws JSONConverterException {
+        JSONObject o = new InstanceConverter().toJSON(new Instance(new DefaultModel(), cstrs, opt));
+        return (JSONArray) o.get(CONSTRAINTS_KEY);
+    }
+
+    /**
+     * Write a JSON object.
+     * The arrays of the object that contain more than {@link #CHUNK_SIZE} elements are serialized concurrently.
+     *
+     * @param o   the object to write
+     * @param out the output
+     * @throws IOException if an error occurred while writing
+     */
+    public void write(JSONObject o, Appendable out) throws IOException {
+        out.append('{');
+        boolean first = true;
+        for (Map.Entry<String, Object> e : o.entrySet()) {
+            if (!first) {
+                out.append(',');
+            }
+            first = false;
+            out.append(JSONValue.toJSONString(e.getKey())).append(':');
+            Object v = e.getValue();
+            if (v instanceof JSONArray && ((JSONArray) v).size() > CHUNK_SIZE) {
+                writeArray((JSONArray) v, out);
+            } else {
+                JSONValue.writeJSONString(v, out);
+            }
+        }
+        out.append('}');
+    }
+
+    private void writeArray(JSONArray a, Appendable out) throws IOException {
+        List<ForkJoinTask<String>> tasks = new ArrayList<ForkJoinTask<String>>();
+        for (int from = 0; from < a.size(); from += CHUNK_SIZE) {
+            tasks.add(pool.submit(new WriteTask(a.subList(from, Math.min(from + CHUNK_SIZE, a.size())))));
+        }
+        out.append('[');
+        for (int x = 0; x < tasks.size(); x++) {
+            if (x > 0) {
+                out.append(',');
+            }
+            out.append(tasks.get(x).join());
+        }
+        out.append(']');
+    }
+
+    /**
+     * Serialize a chunk of array elements, separated by commas.
+     */
+    private static class WriteTask extends RecursiveTask<String> {
+
+        private List<Object> elements;
+
+        WriteTask(List<Object> elements) {
+            this.elements = elements;
+        }
+
+        @Override
+        protected String compute() {
+            StringBuilder b = new StringBuilder(elements.size() * 64);
+            try {
+                for (int x = 0; x < elements.size(); x++) {
+                    if (x > 0) {
+                        b.append(',');
+                    }
+                    JSONValue.writeJSONString(elements.get(x), b);
+                }
+            } catch (IOException ex) {
+                //Not thrown by a StringBuilder
+                throw new IllegalStateException(ex);
+            }
+            return b.toString();
+        }
+    }
+}
@@ -0,0 +1,169 @@
+/*
+ * Copyright (c) 2012 University of Nice Sophia-Antipolis
+ *
+ * This file is part of btrplace.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package btrplace.fromEntropy;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Read the top-level records of a configuration in the protobuf format one by one.
+ * Only the current record is in memory, so the configuration is never entirely parsed.
+ *
+ * @author Fabien Hermenier
+ */
+final class RecordReader {
+
+    /**
+     * The field number of the {@code Hoster} records.
+     */
+    static final int ONLINE = 1;
+
+    /**
+     * The field number of the offline {@code Node} records.
+     */
+    static final int OFFLINE = 2;
+
+    /**
+     * The field number of the waiting {@code VirtualMachine} records.
+     */
+    static final int WAITING = 3;
+
+    private InputStream in;
+
+    private long pos;
+
+    private long offset;
+
+    private byte[] buf = new byte[4096];
+
+    private int length;
+
+    /**
+     * Make a new reader.
+     *
+     * @param in the stream to read, preferably buffered
+     */
+    RecordReader(InputStream in) {
+        this.in = in;
+    }
+
+    /**
+     * Read the next record.
+     *
+     * @return the field number of the record, {@code -1} at the end of the stream
+     * @throws IOException if an error occurred while reading the stream
+     */
+    int next() throws IOException {
+        long tag = readVarint();
+        if (tag < 0) {
+            return -1;
+        }
+        if ((tag & 7) != 2) {
+            throw new IOException("Unexpected wire type for tag " + tag + " at offset " + pos);
+        }
+        length = (int) readVarint();
+        offset = pos;
+        if (buf.length < length) {
+            buf = new byte[Math.max(length, buf.length * 2)];
+        }
+        int off = 0;
+        while (off < length) {
+            int nb = in.read(buf, off, length - off);
+            if (nb < 0) {
+                throw new EOFException("Truncated record at offset " + pos);
+            }
+            off += nb;
+        }
+        pos += length;
+        return (int) (tag >>> 3);
+    }
+
+    /**
+     * Get the content of the current record.
+     * The buffer is re-used by the next record.
+     *
+     * @return a buffer that starts with the record content
+     */
+    byte[] buffer() {
+        return buf;
+    }
+
+    /**
+     * Get the length of the current record.
+     *
+     * @return a number of bytes
+     */
+    int length() {
+        return length;
+    }
+
+    /**
+     * Get a copy of the current record.
+     *
+     * @return the record content
+     */
+    byte[] record() {
+        byte[] r = new byte[length];
+        System.arraycopy(buf, 0, r, 0, length);
+        return r;
+    }
+
+    /**
+     * Get the position of the current record in the stream.
+     *
+     * @return the offset of the first byte of the record content
+     */
+    long offset() {
+        return offset;
+    }
+
+    /**
+     * Read a varint.
+     *
+     * @return the value, {@code -1} at the end of the stream
+     */
+    private long readVarint() throws IOException {
+        long v = 0;
+        int shift = 0;
+        int b;
+        do {
+            b = in.read();
+            if (b < 0) {
+                if (shift == 0) {
+                    return -1;
+                }
+                throw new EOFException("Truncated varint at offset " + pos);
+            }
+            pos++;
+            v |= (long) (b & 0x7f) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return v;
+    }
+
+    /**
+     * Close the underlying stream.
+     *
+     * @throws IOException if an error occurred while closing the stream
+     */
+    void close() throws IOException {
+        in.close();
+    }
+}
@@ -0,0 +1,176 @@
+/*
+ * Copyright (c) 2012 University of Nice Sophia-Antipolis
+ *
+ * This file is part of btrplace.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package btrplace.fromEntropy;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Read the client scripts from a single archive instead of a directory.
+ * <p/>
+ * The archive is read sequentially through one stream, which avoids opening
+ * every script file separately. Zip files ({@code .zip}) and tar files
+ * ({@code .tar}, {@code .tar.gz} or {@code .tgz}) are supported.
+ * Only the regular files are considered as scripts, and the directories
+ * inside the archive are ignored. The metadata added by the archivers of Mac OS X
+ * (the {@code __MACOSX/} directory and the {@code ._*} files) are ignored too.
+ *
+ * @author Fabien Hermenier
+ */
+public final class ScriptBundle {
+
+    private static final int BLOCK = 512;
+
+    private ScriptBundle() {
+    }
+
+    /**
+     * Tell if a file is a bundle of scripts.
+     *
+     * @param f the file
+     * @return {@code true} if the file is a regular file with a supported archive extension
+     */
+    public static boolean isBundle(File f) {
+        String n = f.getName();
+        return f.isFile() && (n.endsWith(".zip") || n.endsWith(".tar") || n.endsWith(".tar.gz") || n.endsWith(".tgz"));
+    }
+
+    /**
+     * Read the scripts of a bundle.
+     *
+     * @param f the bundle
+     * @return the script sources, indexed by their entry name and in the archive order
+     * @throws IOException if an error occurred while reading the bundle
+     */
+    public static Map<String, String> read(File f) throws IOException {
+        String n = f.getName();
+        InputStream in = new BufferedInputStream(new FileInputStream(f), 64 * 1024);
+        try {
+            if (n.endsWith(".zip")) {
+                return readZip(in);
+            } else if (n.endsWith(".tar")) {
+                return readTar(in);
+            } else if (n.endsWith(".tar.gz") || n.endsWith(".tgz")) {
+                return readTar(new GZIPInputStream(in, 64 * 1024));
+            }
+            throw new IOException("Unsupported bundle '" + f + "'");
+        } finally {
+            in.close();
+        }
+    }
+
+    private static Map<String, String> readZip(InputStream in) throws IOException {
+        Map<String, String> scripts = new LinkedHashMap<String, String>();
+        ZipInputStream zin = new ZipInputStream(in);
+        byte[] buf = new byte[8192];
+        ByteArrayOutputStream bout = new ByteArrayOutputStream();
+        for (ZipEntry e = zin.getNextEntry(); e != null; e = zin.getNextEntry()) {
+            if (e.isDirectory() || isMetadata(e.getName())) {
+                continue;
+            }
+            bout.reset();
+            int nb;
+            while ((nb = zin.read(buf)) > 0) {
+                bout.write(buf, 0, nb);
+            }
+            scripts.put(e.getName(), new String(bout.toByteArray(), StandardCharsets.UTF_8));
+        }
+        return scripts;
+    }
+
+    /**
+     * Tell if an entry is a metadata file of the Mac OS X archivers.
+     */
+    static boolean isMetadata(String name) {
+        String base = name.substring(name.lastIndexOf('/') + 1);
+        return name.startsWith("__MACOSX/") || name.contains("/__MACOSX/") || base.startsWith("._");
+    }
+
+    /**
+     * Read a ustar archive. The long names of the GNU format are supported.
+     */
+    static Map<String, String> readTar(InputStream in) throws IOException {
+        Map<String, String> scripts = new LinkedHashMap<String, String>();
+        DataInputStream din = new DataInputStream(in);
+        byte[] header = new byte[BLOCK];
+        String longName = null;
+        while (true) {
+            try {
+                din.readFully(header);
+            } catch (EOFException ex) {
+                break;
+            }
+            if (header[0] == 0) {
+                //End of archive
+                break;
+            }
+            String magic = string(header, 257, 6);
+            if (!magic.startsWith("ustar")) {
+                throw new IOException("Not a ustar archive");
+            }
+            String name = string(header, 0, 100);
+            String octal = string(header, 124, 12).trim();
+            long size = octal.isEmpty() ? 0 : Long.parseLong(octal, 8);
+            char type = (char) header[156];
+            //The GNU format ('ustar  ') stores other fields instead of the prefix
+            if (header[262] == 0) {
+                String prefix = string(header, 345, 155);
+                if (!prefix.isEmpty()) {
+                    name = prefix + "/" + name;
+                }
+            }
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("Entry '" + name + "' is too large");
+            }
+            byte[] content = new byte[(int) size];
+            din.readFully(content);
+            int pad = (int) ((BLOCK - size % BLOCK) % BLOCK);
+            din.readFully(new byte[pad]);
+
+            if (type == 'L') {
+                longName = new String(content, StandardCharsets.UTF_8).trim();
+                continue;
+            }
+            if (longName != null) {
+                name = longName;
+                longName = null;
+            }
+            if ((type == '0' || type == 0) && !isMetadata(name)) {
+                scripts.put(name, new String(content, StandardCharsets.UTF_8));
+            }
+        }
+        return scripts;
+    }
+
+    /**
+     * Get a NUL-terminated string from a tar header.
+     */
+    private static String string(byte[] b, int from, int len) {
+        int end = from;
+        while (end < from + len && b[end] != 0) {
+            end++;
+        }
+        return new String(b, from, end - from, StandardCharsets.US_ASCII);
+    }
+}
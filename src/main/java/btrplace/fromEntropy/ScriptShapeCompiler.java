@@ -0,0 +1,486 @@
+/*
+ * Copyright (c) 2012 University of Nice Sophia-Antipolis
+ *
+ * This file is part of btrplace.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package btrplace.fromEntropy;
+
+import btrplace.btrpsl.Script;
+import btrplace.btrpsl.ScriptBuilder;
+import btrplace.btrpsl.ScriptBuilderException;
+import btrplace.btrpsl.includes.BasicIncludes;
+import btrplace.btrpsl.includes.Includes;
+import btrplace.model.Attributes;
+import btrplace.model.DefaultAttributes;
+import btrplace.model.Element;
+import btrplace.model.Model;
+import btrplace.model.Node;
+import btrplace.model.VM;
+import btrplace.model.constraint.Among;
+import btrplace.model.constraint.SatConstraint;
+import btrplace.model.constraint.Spread;
+import btrplace.model.view.NamingService;
+
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Compile client scripts that share a same structure without parsing each of them.
+ * <p/>
+ * The generated client scripts only differ by their namespace, the ranges of their VMs and
+ * the template of the VMs and the values of their options. A script written with the following
+ * statements is reduced to a shape where these values are abstracted:
+ * <pre>
+ * namespace clients.c0;
+ * import datacenter;
+ * VM[1..10]: c60m200&lt;clone,boot=4, shutdown=5&gt;;
+ * $T1 = VM[1..10];
+ * for $t in $T[1..3] { spread($t); }
+ * spread($T1);
+ * among($T1, $datacenter.leafs);
+ * export $me to *;
+ * </pre>
+ * The first script of each shape is built by the {@link ScriptBuilder}. The shape is validated by
+ * comparing the attributes stated by the VM declarations (the template and the options) and the constraints
+ * of the instantiated shape with the ones made by the builder. The other scripts of a validated
+ * shape are then instantiated by substituting the namespace, the VM ranges, the templates and the options.
+ * <p/>
+ * The compiled scripts are registered as includes of the builder, so a script can import the namespace
+ * of another client. An instantiated script is only built when it is imported.
+ * <p/>
+ * The scripts that do not fit these statements, the scripts that declare or refer to VMs that are not
+ * in the model yet, and the scripts of a shape that can not be validated are built by the {@link ScriptBuilder},
+ * which reports the errors.
+ *
+ * @author Fabien Hermenier
+ */
+public class ScriptShapeCompiler {
+
+    private static final Pattern NAMESPACE = Pattern.compile("namespace ([\\w.]+);");
+
+    private static final Pattern IMPORT = Pattern.compile("import ([\\w.*]+);");
+
+    private static final Pattern DECLARE = Pattern.compile("VM\\[(\\d+)\\.\\.(\\d+)\\]:(\\w+)(<[^>]*>)?;");
+
+    private static final Pattern ASSIGN = Pattern.compile("\\$(\\w+)=VM\\[(\\d+)\\.\\.(\\d+)\\];");
+
+    private static final Pattern FOR_SPREAD = Pattern.compile("for \\$(\\w+) in \\$(\\w+)\\[(\\d+)\\.\\.(\\d+)\\]\\{spread\\(\\$\\1\\);\\}");
+
+    private static final Pattern SPREAD = Pattern.compile("spread\\(\\$(\\w+)\\);");
+
+    private static final Pattern AMONG = Pattern.compile("among\\(\\$(\\w+),\\$([\\w.]+)\\);");
+
+    private static final Pattern EXPORT = Pattern.compile("export \\$me to \\*;");
+
+    private static final Pattern OPTION = Pattern.compile("(\\w+)(=([\\w.\\-]+))?");
+
+    private ScriptBuilder builder;
+
+    private Model mo;
+
+    private Map<String, Shape> shapes = new HashMap<String, Shape>();
+
+    private BasicIncludes built = new BasicIncludes();
+
+    /**
+     * The source of the instantiated scripts, by namespace.
+     */
+    private Map<String, String> instantiated = new HashMap<String, String>();
+
+    private int nbBuilt, nbInstantiated;
+
+    /**
+     * A parsed script.
+     */
+    private static final class Parsed {
+
+        String namespace;
+
+        StringBuilder fingerprint = new StringBuilder();
+
+        /**
+         * The VM declarations: first index, last index.
+         */
+        List<int[]> decls = new ArrayList<int[]>();
+
+        List<String> templates = new ArrayList<String>();
+
+        /**
+         * The options of each declaration. A {@code null} value denotes a flag.
+         */
+        List<Map<String, String>> options = new ArrayList<Map<String, String>>();
+
+        Map<String, int[]> vars = new HashMap<String, int[]>();
+
+        /**
+         * The variables to spread, in order.
+         */
+        List<String> spreads = new ArrayList<String>();
+
+        /**
+         * The variables to restrict with among, in order.
+         */
+        List<String> amongs = new ArrayList<String>();
+    }
+
+    /**
+     * A learned shape.
+     */
+    private static final class Shape {
+
+        /**
+         * {@code false} if the shape can not be instantiated.
+         */
+        boolean valid;
+
+        /**
+         * The groups of nodes of each among statement.
+         */
+        List<Collection<Collection<Node>>> groups = new ArrayList<Collection<Collection<Node>>>();
+
+        /**
+         * {@code true} to state the constraints as discrete.
+         */
+        boolean discrete;
+    }
+
+    /**
+     * Make a new compiler.
+     *
+     * @param builder the builder for the scripts that can not be instantiated. Its includes are used,
+     *                and extended with the scripts compiled by this compiler
+     * @param mo      the model the builder is working on
+     */
+    public ScriptShapeCompiler(ScriptBuilder builder, Model mo) {
+        this.builder = builder;
+        this.mo = mo;
+        builder.setIncludes(new CompiledIncludes(builder.getIncludes()));
+    }
+
+    /**
+     * Compile a script.
+     *
+     * @param src the script source
+     * @return the constraints stated by the script
+     * @throws ScriptBuilderException if an error occurred while building the script
+     */
+    public Collection<SatConstraint> compile(String src) throws ScriptBuilderException {
+        Parsed p = parse(src);
+        if (p == null) {
+            return build(src).getConstraints();
+        }
+        List<List<VM>> vms = resolve(p);
+        Map<String, Set<VM>> vars = vms == null ? null : vars(p);
+        if (vars == null) {
+            return build(src).getConstraints();
+        }
+        String key = p.fingerprint.toString();
+        Shape s = shapes.get(key);
+        if (s == null) {
+            //Learn the shape from the script builder
+            Set<SatConstraint> cstrs = build(src).getConstraints();
+            s = learn(p, vms, vars, cstrs);
+            shapes.put(key, s);
+            return cstrs;
+        }
+        if (!s.valid) {
+            return build(src).getConstraints();
+        }
+        nbInstantiated++;
+        declare(mo.getAttributes(), p, vms);
+        instantiated.put(p.namespace, src);
+        return instantiate(p, s, vars);
+    }
+
+    /**
+     * Get the number of scripts that were built by the script builder.
+     *
+     * @return a positive number
+     */
+    public int getNbBuilt() {
+        return nbBuilt;
+    }
+
+    /**
+     * Get the number of scripts that were instantiated from a shape.
+     *
+     * @return a positive number
+     */
+    public int getNbInstantiated() {
+        return nbInstantiated;
+    }
+
+    private Script build(String src) throws ScriptBuilderException {
+        nbBuilt++;
+        Script s = builder.build(src);
+        built.add(s);
+        return s;
+    }
+
+    /**
+     * Parse a script.
+     *
+     * @return the parsed script, {@code null} if the script does not fit the supported statements
+     */
+    static Parsed parse(String src) {
+        String s = src.replaceAll("(?s)/\\*.*?\\*/", " ").replaceAll("//[^\\n]*", " ")
+                .replaceAll("\\s+", " ").replaceAll(" ?([\\[\\](){};:,<>=.]) ?", "$1").trim();
+        Parsed p = new Parsed();
+        Matcher m = NAMESPACE.matcher(s);
+        if (!m.lookingAt()) {
+            return null;
+        }
+        p.namespace = m.group(1);
+        p.fingerprint.append("namespace;");
+        int pos = m.end();
+        while (pos < s.length()) {
+            if (s.charAt(pos) == ' ') {
+                pos++;
+                continue;
+            }
+            if ((m = match(IMPORT, s, pos)) != null) {
+                p.fingerprint.append(m.group());
+            } else if ((m = match(DECLARE, s, pos)) != null) {
+                p.decls.add(new int[]{Integer.parseInt(m.group(1)), Integer.parseInt(m.group(2))});
+                p.templates.add(m.group(3));
+                Map<String, String> options = new LinkedHashMap<String, String>();
+                p.fingerprint.append("VM[]:");
+                if (m.group(4) != null) {
+                    //The option values are abstracted, not their keys
+                    String opts = m.group(4).substring(1, m.group(4).length() - 1);
+                    p.fingerprint.append('<');
+                    for (String o : opts.isEmpty() ? new String[0] : opts.split(",")) {
+                        Matcher om = OPTION.matcher(o);
+                        if (!om.matches()) {
+                            return null;
+                        }
+                        options.put(om.group(1), om.group(3));
+                        p.fingerprint.append(om.group(1)).append(om.group(3) == null ? "," : "=,");
+                    }
+                    p.fingerprint.append('>');
+                }
+                p.options.add(options);
+                p.fingerprint.append(';');
+            } else if ((m = match(ASSIGN, s, pos)) != null) {
+                p.vars.put(m.group(1), new int[]{Integer.parseInt(m.group(2)), Integer.parseInt(m.group(3))});
+                p.fingerprint.append('$').append(m.group(1)).append("=VM[];");
+            } else if ((m = match(FOR_SPREAD, s, pos)) != null) {
+                for (int i = Integer.parseInt(m.group(3)); i <= Integer.parseInt(m.group(4)); i++) {
+                    p.spreads.add(m.group(2) + i);
+                }
+                p.fingerprint.append(m.group());
+            } else if ((m = match(SPREAD, s, pos)) != null) {
+                p.spreads.add(m.group(1));
+                p.fingerprint.append(m.group());
+            } else if ((m = match(AMONG, s, pos)) != null) {
+                p.amongs.add(m.group(1));
+                p.fingerprint.append(m.group());
+            } else if ((m = match(EXPORT, s, pos)) != null) {
+                p.fingerprint.append(m.group());
+            } else {
+                return null;
+            }
+            pos = m.end();
+        }
+        //Every variable must be declared
+        for (String v : p.spreads) {
+            if (!p.vars.containsKey(v)) {
+                return null;
+            }
+        }
+        for (String v : p.amongs) {
+            if (!p.vars.containsKey(v)) {
+                return null;
+            }
+        }
+        return p;
+    }
+
+    private static Matcher match(Pattern pattern, String s, int pos) {
+        Matcher m = pattern.matcher(s);
+        m.region(pos, s.length());
+        return m.lookingAt() ? m : null;
+    }
+
+    /**
+     * Get the declared VMs.
+     *
+     * @return the VMs of each declaration. {@code null} if a VM is not in the model
+     */
+    private List<List<VM>> resolve(Parsed p) {
+        NamingService<VM> ns = NamingService.getVMNames(mo);
+        if (ns == null) {
+            return null;
+        }
+        List<List<VM>> res = new ArrayList<List<VM>>(p.decls.size());
+        for (int[] d : p.decls) {
+            List<VM> l = new ArrayList<VM>(d[1] - d[0] + 1);
+            for (int i = d[0]; i <= d[1]; i++) {
+                VM v = ns.resolve(p.namespace + ".VM" + i);
+                if (v == null) {
+                    return null;
+                }
+                l.add(v);
+            }
+            res.add(l);
+        }
+        return res;
+    }
+
+    /**
+     * Learn a shape from a built script.
+     */
+    private Shape learn(Parsed p, List<List<VM>> vms, Map<String, Set<VM>> vars, Set<SatConstraint> cstrs) {
+        Shape s = new Shape();
+
+        //The builder must have set the attributes stated by the declarations
+        Attributes declared = new DefaultAttributes();
+        declare(declared, p, vms);
+        Attributes attrs = mo.getAttributes();
+        for (Element e : declared.getDefined()) {
+            for (String k : declared.getKeys(e)) {
+                if (!declared.get(e, k).equals(attrs.get(e, k))) {
+                    return s;
+                }
+            }
+        }
+
+        //The groups of nodes of the among constraints
+        for (String v : p.amongs) {
+            Set<VM> scope = vars.get(v);
+            Collection<Collection<Node>> groups = null;
+            for (SatConstraint c : cstrs) {
+                if (c instanceof Among && new HashSet<VM>(c.getInvolvedVMs()).equals(scope)) {
+                    groups = ((Among) c).getGroupsOfNodes();
+                }
+            }
+            if (groups == null) {
+                return s;
+            }
+            s.groups.add(groups);
+        }
+
+        //Validate the shape using both the default and the discrete constraints
+        Set<SatConstraint> expected = new HashSet<SatConstraint>(cstrs);
+        for (boolean discrete : new boolean[]{false, true}) {
+            s.discrete = discrete;
+            if (expected.equals(new HashSet<SatConstraint>(instantiate(p, s, vars)))) {
+                s.valid = true;
+                return s;
+            }
+        }
+        return s;
+    }
+
+    /**
+     * Get the VMs of the variables.
+     *
+     * @return the VMs of each variable. {@code null} if a VM is not in the model
+     */
+    private Map<String, Set<VM>> vars(Parsed p) {
+        NamingService<VM> ns = NamingService.getVMNames(mo);
+        Map<String, Set<VM>> res = new HashMap<String, Set<VM>>(p.vars.size() * 2);
+        for (Map.Entry<String, int[]> e : p.vars.entrySet()) {
+            int[] r = e.getValue();
+            Set<VM> l = new HashSet<VM>();
+            for (int i = r[0]; i <= r[1]; i++) {
+                VM v = ns.resolve(p.namespace + ".VM" + i);
+                if (v == null) {
+                    return null;
+                }
+                l.add(v);
+            }
+            res.put(e.getKey(), l);
+        }
+        return res;
+    }
+
+    /**
+     * Set the attributes stated by the VM declarations: the template and the options.
+     */
+    private static void declare(Attributes attrs, Parsed p, List<List<VM>> vms) {
+        for (int d = 0; d < vms.size(); d++) {
+            for (VM v : vms.get(d)) {
+                attrs.put(v, ConfigurationConverter.TEMPLATE, p.templates.get(d));
+                for (Map.Entry<String, String> o : p.options.get(d).entrySet()) {
+                    if (o.getValue() == null) {
+                        attrs.put(v, o.getKey(), true);
+                    } else {
+                        attrs.castAndPut(v, o.getKey(), o.getValue());
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Make the constraints of a script.
+     */
+    private List<SatConstraint> instantiate(Parsed p, Shape s, Map<String, Set<VM>> vars) {
+        List<SatConstraint> res = new ArrayList<SatConstraint>(p.spreads.size() + p.amongs.size());
+        for (String v : p.spreads) {
+            res.add(s.discrete ? new Spread(vars.get(v), false) : new Spread(vars.get(v)));
+        }
+        for (int i = 0; i < p.amongs.size(); i++) {
+            Set<VM> scope = vars.get(p.amongs.get(i));
+            res.add(s.discrete ? new Among(scope, s.groups.get(i), false) : new Among(scope, s.groups.get(i)));
+        }
+        return res;
+    }
+
+    /**
+     * The includes of the builder, extended with the compiled scripts.
+     * The instantiated scripts are built when they are imported for the first time.
+     */
+    private final class CompiledIncludes implements Includes {
+
+        private Includes parent;
+
+        CompiledIncludes(Includes parent) {
+            this.parent = parent;
+        }
+
+        @Override
+        public List<Script> getScripts(String id) throws ScriptBuilderException {
+            List<Script> res = new ArrayList<Script>();
+            List<Script> inherited = parent == null ? null : parent.getScripts(id);
+            if (inherited != null) {
+                res.addAll(inherited);
+            }
+            List<String> toBuild = new ArrayList<String>();
+            for (Iterator<Map.Entry<String, String>> ite = instantiated.entrySet().iterator(); ite.hasNext(); ) {
+                Map.Entry<String, String> e = ite.next();
+                if (matches(id, e.getKey())) {
+                    toBuild.add(e.getValue());
+                    ite.remove();
+                }
+            }
+            for (String src : toBuild) {
+                built.add(builder.build(src));
+            }
+            res.addAll(built.getScripts(id));
+            return res;
+        }
+
+        private boolean matches(String id, String namespace) {
+            if (id.endsWith(".*")) {
+                return namespace.startsWith(id.substring(0, id.length() - 1));
+            }
+            return id.equals(namespace);
+        }
+    }
+}
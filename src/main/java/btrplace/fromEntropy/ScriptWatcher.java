@@ -0,0 +1,195 @@
+/*
+ * Copyright (c) 2012 University of Nice Sophia-Antipolis
+ *
+ * This file is part of btrplace.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package btrplace.fromEntropy;
+
+import btrplace.btrpsl.Script;
+import btrplace.btrpsl.ScriptBuilder;
+import btrplace.btrpsl.ScriptBuilderException;
+import btrplace.btrpsl.includes.BasicIncludes;
+import btrplace.model.Model;
+import btrplace.model.constraint.SatConstraint;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keep the constraints of the client scripts up to date with their files.
+ * <p/>
+ * The constraints of every client script are compiled once and kept in memory.
+ * A {@link WatchService} then reports the scripts that were added, modified or removed
+ * and only these scripts are compiled again. A modification of the datacenter script
+ * changes the include of every client script, so all of them are compiled again.
+ * A script that can not be compiled does not state any constraint until it is fixed.
+ *
+ * @author Fabien Hermenier
+ */
+public class ScriptWatcher implements Closeable {
+
+    private Model mo;
+
+    private Path scriptDC;
+
+    private Path dirScriptsCL;
+
+    private WatchService watcher;
+
+    private WatchKey dcKey, clKey;
+
+    private ScriptBuilder builder;
+
+    /**
+     * The constraints of each client script, indexed by file name.
+     */
+    private SortedMap<String, Collection<SatConstraint>> constraints = new TreeMap<String, Collection<SatConstraint>>();
+
+    /**
+     * Make a new watcher and compile all the scripts.
+     *
+     * @param mo           the model the scripts are compiled against
+     * @param scriptDC     the datacenter script. May be {@code null}
+     * @param dirScriptsCL the directory of the client scripts
+     * @throws IOException if an error occurred while reading the scripts or while watching the files
+     */
+    public ScriptWatcher(Model mo, File scriptDC, File dirScriptsCL) throws IOException {
+        this.mo = mo;
+        this.scriptDC = scriptDC == null ? null : scriptDC.toPath().toAbsolutePath();
+        this.dirScriptsCL = dirScriptsCL.toPath().toAbsolutePath();
+        watcher = FileSystems.getDefault().newWatchService();
+        WatchEvent.Kind<?>[] kinds = {StandardWatchEventKinds.ENTRY_CREATE,
+                StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE};
+        clKey = this.dirScriptsCL.register(watcher, kinds);
+        if (this.scriptDC != null) {
+            Path parent = this.scriptDC.getParent();
+            dcKey = parent.equals(this.dirScriptsCL) ? clKey : parent.register(watcher, kinds);
+        }
+        compileAll();
+    }
+
+    /**
+     * Get the constraints stated by the client scripts, ordered by file name.
+     *
+     * @return a new list of constraints
+     */
+    public List<SatConstraint> getConstraints() {
+        List<SatConstraint> res = new ArrayList<SatConstraint>();
+        for (Collection<SatConstraint> l : constraints.values()) {
+            res.addAll(l);
+        }
+        return res;
+    }
+
+    /**
+     * Wait for modifications of the scripts and compile again the modified scripts.
+     * All the pending modifications are handled at once.
+     *
+     * @param timeout the maximum waiting time
+     * @param unit    the time unit
+     * @return the names of the client scripts that were compiled again or removed. Empty if nothing changed
+     * @throws IOException          if an error occurred while reading the scripts
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public Set<String> poll(long timeout, TimeUnit unit) throws IOException, InterruptedException {
+        Set<String> changed = new TreeSet<String>();
+        boolean dcChanged = false;
+        boolean overflow = false;
+        WatchKey k = watcher.poll(timeout, unit);
+        while (k != null) {
+            for (WatchEvent<?> e : k.pollEvents()) {
+                if (e.kind() == StandardWatchEventKinds.OVERFLOW) {
+                    overflow = true;
+                    continue;
+                }
+                Path p = (Path) e.context();
+                if (k == dcKey && scriptDC.getFileName().equals(p)) {
+                    dcChanged = true;
+                } else if (k == clKey) {
+                    changed.add(p.toString());
+                }
+            }
+            k.reset();
+            k = watcher.poll();
+        }
+        if (dcChanged || overflow) {
+            changed.addAll(constraints.keySet());
+            compileAll();
+            changed.addAll(constraints.keySet());
+            return changed;
+        }
+        for (String n : changed) {
+            Path p = dirScriptsCL.resolve(n);
+            if (Files.isRegularFile(p)) {
+                compile(p);
+            } else {
+                constraints.remove(n);
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * Compile the datacenter script and every client script.
+     */
+    private void compileAll() throws IOException {
+        builder = new ScriptBuilder(mo);
+        if (scriptDC != null) {
+            String src = new String(Files.readAllBytes(scriptDC), StandardCharsets.UTF_8);
+            try {
+                Script dc = IncludeCache.shared().get(builder, mo, src);
+                BasicIncludes bi = new BasicIncludes();
+                bi.add(dc);
+                builder.setIncludes(bi);
+            } catch (ScriptBuilderException ex) {
+                System.out.println(ex);
+            }
+        }
+        constraints.clear();
+        DirectoryStream<Path> files = Files.newDirectoryStream(dirScriptsCL);
+        try {
+            for (Path p : files) {
+                if (Files.isRegularFile(p) && !p.equals(scriptDC)) {
+                    compile(p);
+                }
+            }
+        } finally {
+            files.close();
+        }
+    }
+
+    private void compile(Path p) throws IOException {
+        String src = new String(Files.readAllBytes(p), StandardCharsets.UTF_8);
+        Collection<SatConstraint> cstrs;
+        try {
+            cstrs = builder.build(src).getConstraints();
+        } catch (ScriptBuilderException ex) {
+            System.out.println(p.getFileName() + ": " + ex);
+            cstrs = Collections.emptyList();
+        }
+        constraints.put(p.getFileName().toString(), cstrs);
+    }
+
+    @Override
+    public void close() throws IOException {
+        watcher.close();
+    }
+}
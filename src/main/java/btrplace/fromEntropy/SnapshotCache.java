@@ -0,0 +1,313 @@
+/*
+ * Copyright (c) 2012 University of Nice Sophia-Antipolis
+ *
+ * This file is part of btrplace.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package btrplace.fromEntropy;
+
+import btrplace.model.Attributes;
+import btrplace.model.Element;
+import btrplace.model.Node;
+import btrplace.model.VM;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * A cache of converted configurations.
+ * <p/>
+ * A snapshot stores the name registries, the columns and the attributes
+ * of a converted configuration in a binary file named after the hash of the
+ * source configuration. A later conversion of the same file memory-maps the
+ * snapshot instead of decoding the protobuf message.
+ * Each snapshot ends with a CRC32 checksum. A corrupted snapshot is discarded.
+ *
+ * @author Fabien Hermenier
+ */
+public class SnapshotCache {
+
+    private static final int MAGIC = 0x45325042;
+
+    private static final int VERSION = 1;
+
+    private static final byte NODE = 0, VM_ELEMENT = 1;
+
+    private static final byte STRING = 0, INTEGER = 1, DOUBLE = 2, BOOLEAN = 3;
+
+    private File dir;
+
+    /**
+     * The names and the columns of a cached configuration.
+     */
+    static final class Snapshot {
+
+        NameTable nodes;
+
+        NameTable vms;
+
+        ColumnarConfiguration columns;
+    }
+
+    /**
+     * Make a new cache.
+     *
+     * @param dir the directory that store the snapshots. Created if needed
+     */
+    public SnapshotCache(File dir) {
+        this.dir = dir;
+    }
+
+    /**
+     * Compute the cache key of a configuration file.
+     *
+     * @param src the configuration file
+     * @return the hexadecimal SHA-1 hash of the file content
+     * @throws IOException if an error occurred while reading the file
+     */
+    public String key(String src) throws IOException {
+        MessageDigest md;
+        try {
+            md = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IOException(ex);
+        }
+        InputStream in = new FileInputStream(src);
+        try {
+            byte[] buf = new byte[64 * 1024];
+            int nb;
+            while ((nb = in.read(buf)) > 0) {
+                md.update(buf, 0, nb);
+            }
+        } finally {
+            in.close();
+        }
+        StringBuilder b = new StringBuilder();
+        for (byte x : md.digest()) {
+            b.append(String.format("%02x", x));
+        }
+        return b.toString();
+    }
+
+    private File file(String key) {
+        return new File(dir, key + ".snapshot");
+    }
+
+    /**
+     * Load a snapshot.
+     *
+     * @param key   the snapshot key
+     * @param attrs the attributes to fill
+     * @param store the store that allocates the columns
+     * @return the snapshot, {@code null} if there is no valid snapshot for this key
+     * @throws IOException if an error occurred while reading the snapshot
+     */
+    Snapshot load(String key, Attributes attrs, ColumnStore store) throws IOException {
+        File f = file(key);
+        if (!f.isFile()) {
+            return null;
+        }
+        ByteBuffer bb;
+        RandomAccessFile raf = new RandomAccessFile(f, "r");
+        try {
+            bb = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+        } finally {
+            raf.close();
+        }
+        if (!isValid(bb)) {
+            f.delete();
+            return null;
+        }
+
+        Snapshot s = new Snapshot();
+        s.nodes = readNames(bb);
+        s.vms = readNames(bb);
+        int nbNodes = bb.getInt();
+        int nbVMs = bb.getInt();
+        s.columns = new ColumnarConfiguration(nbNodes, nbVMs, store);
+        for (int id = 0; id < nbNodes; id++) {
+            s.columns.setNode(id, bb.get(), bb.getInt(), bb.getInt());
+        }
+        for (int id = 0; id < nbVMs; id++) {
+            s.columns.setVM(id, bb.get(), bb.getInt(), bb.getInt(), bb.getInt(), bb.getInt(), bb.getInt(), bb.getInt());
+        }
+        int nbElements = bb.getInt();
+        for (int i = 0; i < nbElements; i++) {
+            Element e = bb.get() == NODE ? new Node(bb.getInt()) : new VM(bb.getInt());
+            int nbKeys = bb.getInt();
+            for (int j = 0; j < nbKeys; j++) {
+                String k = readString(bb);
+                switch (bb.get()) {
+                    case INTEGER:
+                        attrs.put(e, k, bb.getInt());
+                        break;
+                    case DOUBLE:
+                        attrs.put(e, k, bb.getDouble());
+                        break;
+                    case BOOLEAN:
+                        attrs.put(e, k, bb.get() != 0);
+                        break;
+                    default:
+                        attrs.put(e, k, readString(bb));
+                        break;
+                }
+            }
+        }
+        return s;
+    }
+
+    /**
+     * Check the header and the checksum of a snapshot.
+     * The buffer is positioned after the header if the snapshot is valid.
+     */
+    private static boolean isValid(ByteBuffer bb) {
+        if (bb.limit() < 16 || bb.getInt() != MAGIC || bb.getInt() != VERSION) {
+            return false;
+        }
+        ByteBuffer content = bb.duplicate();
+        content.position(0);
+        content.limit(bb.limit() - 8);
+        CRC32 crc = new CRC32();
+        crc.update(content);
+        return crc.getValue() == bb.getLong(bb.limit() - 8);
+    }
+
+    /**
+     * Save a snapshot.
+     * The {@link ConfigurationConverter#ENTROPY_ID} attributes are not saved
+     * as they are deduced from the names.
+     *
+     * @param key   the snapshot key
+     * @param nodes the node names
+     * @param vms   the VM names
+     * @param cols  the columns
+     * @param attrs the attributes
+     * @throws IOException if an error occurred while writing the snapshot
+     */
+    void save(String key, NameTable nodes, NameTable vms, ColumnarConfiguration cols, Attributes attrs) throws IOException {
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Unable to create the cache directory '" + dir + "'");
+        }
+        File tmp = File.createTempFile("snapshot", ".tmp", dir);
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            writeNames(out, nodes);
+            writeNames(out, vms);
+            out.writeInt(cols.getNbNodes());
+            out.writeInt(cols.getNbVMs());
+            for (int id = 0; id < cols.getNbNodes(); id++) {
+                out.writeByte(cols.getNodeState(id));
+                out.writeInt(cols.getNodeCpuCapacity(id));
+                out.writeInt(cols.getNodeMemoryCapacity(id));
+            }
+            for (int id = 0; id < cols.getNbVMs(); id++) {
+                out.writeByte(cols.getVMState(id));
+                out.writeInt(cols.getVMHost(id));
+                out.writeInt(cols.getVMCpuConsumption(id));
+                out.writeInt(cols.getVMMemoryConsumption(id));
+                out.writeInt(cols.getVMCpuDemand(id));
+                out.writeInt(cols.getVMMemoryDemand(id));
+                out.writeInt(cols.getVMCpuMax(id));
+            }
+            List<Element> elements = new ArrayList<Element>(attrs.getDefined());
+            out.writeInt(elements.size());
+            for (Element e : elements) {
+                out.writeByte(e instanceof Node ? NODE : VM_ELEMENT);
+                out.writeInt(e.id());
+                List<String> keys = new ArrayList<String>(attrs.getKeys(e));
+                keys.remove(ConfigurationConverter.ENTROPY_ID);
+                out.writeInt(keys.size());
+                for (String k : keys) {
+                    writeString(out, k);
+                    Object v = attrs.get(e, k);
+                    if (v instanceof Integer) {
+                        out.writeByte(INTEGER);
+                        out.writeInt((Integer) v);
+                    } else if (v instanceof Double) {
+                        out.writeByte(DOUBLE);
+                        out.writeDouble((Double) v);
+                    } else if (v instanceof Boolean) {
+                        out.writeByte(BOOLEAN);
+                        out.writeByte((Boolean) v ? 1 : 0);
+                    } else {
+                        out.writeByte(STRING);
+                        writeString(out, v.toString());
+                    }
+                }
+            }
+        } finally {
+            out.close();
+        }
+        appendChecksum(tmp);
+        File f = file(key);
+        if (!tmp.renameTo(f)) {
+            f.delete();
+            if (!tmp.renameTo(f)) {
+                tmp.delete();
+                throw new IOException("Unable to store the snapshot '" + f + "'");
+            }
+        }
+    }
+
+    private static void appendChecksum(File f) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(f, "rw");
+        try {
+            ByteBuffer bb = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+            CRC32 crc = new CRC32();
+            crc.update(bb);
+            raf.seek(raf.length());
+            raf.writeLong(crc.getValue());
+        } finally {
+            raf.close();
+        }
+    }
+
+    private static void writeNames(DataOutputStream out, NameTable names) throws IOException {
+        out.writeInt(names.size());
+        for (int id = 0; id < names.size(); id++) {
+            writeString(out, names.name(id));
+        }
+    }
+
+    private static NameTable readNames(ByteBuffer bb) {
+        int nb = bb.getInt();
+        NameTable t = new NameTable(nb);
+        for (int i = 0; i < nb; i++) {
+            t.add(readString(bb));
+        }
+        return t;
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        byte[] b = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(b.length);
+        out.write(b);
+    }
+
+    private static String readString(ByteBuffer bb) {
+        byte[] b = new byte[bb.getInt()];
+        bb.get(b);
+        return new String(b, StandardCharsets.UTF_8);
+    }
+}
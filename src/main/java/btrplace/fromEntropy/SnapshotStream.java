@@ -0,0 +1,187 @@
+/*
+ * Copyright (c) 2012 University of Nice Sophia-Antipolis
+ *
+ * This file is part of btrplace.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package btrplace.fromEntropy;
+
+import btrplace.model.Node;
+import btrplace.model.VM;
+import btrplace.model.constraint.*;
+import entropy.configuration.parser.PBConfiguration;
+import net.minidev.json.JSONArray;
+import net.minidev.json.JSONObject;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Convert a stream of configuration snapshots into state changes.
+ * <p/>
+ * The stream is a sequence of length-delimited {@code Configuration} messages, as written by
+ * {@code writeDelimitedTo()}. It can be a file or a pipe. The snapshots are read one by one, and
+ * each snapshot is compared to the previous one to deduce the {@link Running}, {@link Ready},
+ * {@link Sleeping}, {@link Killed}, {@link Online} and {@link Offline} constraints. Only the elements
+ * whose state changes are involved. The name registries are shared by all the snapshots so an element
+ * keeps its identifier along the stream.
+ * Unlike {@link ConfigurationConverter#getNextStates(String)}, the VMs that were not in the previous
+ * snapshot are registered, so their arrival is stated by a {@link Ready}, a {@link Running} or a {@link Sleeping}
+ * constraint.
+ *
+ * @author Fabien Hermenier
+ */
+public class SnapshotStream implements Closeable {
+
+    private InputStream in;
+
+    private ColumnStore store;
+
+    private NameTable nodeNames, vmNames;
+
+    private ColumnarConfiguration current;
+
+    private int index = -1;
+
+    private List<SatConstraint> changes = Collections.emptyList();
+
+    /**
+     * Make a new stream that stores the snapshots on the heap.
+     *
+     * @param in the stream to read
+     */
+    public SnapshotStream(InputStream in) {
+        this(in, ColumnStore.HEAP);
+    }
+
+    /**
+     * Make a new stream.
+     *
+     * @param in    the stream to read
+     * @param store the store that allocates the columns of the snapshots
+     */
+    public SnapshotStream(InputStream in, ColumnStore store) {
+        this.in = in;
+        this.store = store;
+        nodeNames = new NameTable(1024);
+        vmNames = new NameTable(1024);
+    }
+
+    /**
+     * Read the next snapshot and compute the state changes with the previous one.
+     * The previous snapshot is released so it must no longer be used.
+     *
+     * @return {@code false} if the end of the stream is reached
+     * @throws IOException if an error occurred while reading the snapshot
+     */
+    public boolean next() throws IOException {
+        PBConfiguration.Configuration cfg = PBConfiguration.Configuration.parseDelimitedFrom(in);
+        if (cfg == null) {
+            return false;
+        }
+        ColumnarConfiguration next = ColumnarConfiguration.decode(cfg, nodeNames, vmNames, true, null, store);
+        if (current == null) {
+            changes = Collections.emptyList();
+        } else {
+            changes = ConfigurationConverter.stateChanges(current, next, true);
+            // The storage of the previous snapshot is re-used by the next ones
+            current.release();
+        }
+        current = next;
+        index++;
+        return true;
+    }
+
+    /**
+     * Get the index of the current snapshot.
+     *
+     * @return the index, starting at {@code 0}. {@code -1} if no snapshot was read
+     */
+    public int getIndex() {
+        return index;
+    }
+
+    /**
+     * Get the current snapshot.
+     *
+     * @return the decoded snapshot. {@code null} if no snapshot was read
+     */
+    public ColumnarConfiguration getSnapshot() {
+        return current;
+    }
+
+    /**
+     * Get the state changes between the previous and the current snapshot.
+     *
+     * @return a list of constraints. Empty for the first snapshot
+     */
+    public List<SatConstraint> getStateChanges() {
+        return changes;
+    }
+
+    /**
+     * Get the Entropy name of a node.
+     *
+     * @param n the node
+     * @return the name
+     */
+    public String getName(Node n) {
+        return nodeNames.name(n.id());
+    }
+
+    /**
+     * Get the Entropy name of a VM.
+     *
+     * @param v the VM
+     * @return the name
+     */
+    public String getName(VM v) {
+        return vmNames.name(v.id());
+    }
+
+    /**
+     * Get the state changes of the current snapshot in JSON.
+     * The elements are identified by their Entropy name, and grouped by their next state.
+     *
+     * @return a JSON object with a 'snapshot' index and one array per next state
+     */
+    public JSONObject toJSON() {
+        JSONObject o = new JSONObject();
+        o.put("snapshot", index);
+        for (SatConstraint c : changes) {
+            String k = c.getClass().getSimpleName().toLowerCase();
+            JSONArray a = (JSONArray) o.get(k);
+            if (a == null) {
+                a = new JSONArray();
+                o.put(k, a);
+            }
+            for (Node n : c.getInvolvedNodes()) {
+                a.add(getName(n));
+            }
+            for (VM v : c.getInvolvedVMs()) {
+                a.add(getName(v));
+            }
+        }
+        return o;
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+}
@@ -0,0 +1,211 @@
+/*
+ * Copyright (c) 2012 University of Nice Sophia-Antipolis
+ *
+ * This file is part of btrplace.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package btrplace.fromEntropy;
+
+import btrplace.model.Attributes;
+import btrplace.model.Element;
+import btrplace.model.Model;
+import btrplace.model.VM;
+import entropy.configuration.parser.PBVirtualMachine;
+import net.minidev.json.JSONObject;
+
+import java.util.*;
+
+/**
+ * A catalog of VM templates.
+ * <p/>
+ * Many VMs share the same template and the same options. Instead of
+ * declaring the template and every option as attributes of each VM,
+ * identical bundles are stored once in the catalog and a VM only
+ * refers to its bundle using the {@link ConfigurationConverter#TEMPLATE_ID}
+ * attribute.
+ *
+ * @author Fabien Hermenier
+ */
+public class TemplateCatalog {
+
+    /**
+     * The JSON key to use to declare the catalog in an instance.
+     */
+    public static final String JSON_KEY = "templates";
+
+    private Map<Bundle, Integer> ids;
+
+    private List<Bundle> bundles;
+
+    private OptionCaster caster;
+
+    /**
+     * Make a new empty catalog.
+     */
+    public TemplateCatalog() {
+        ids = new HashMap<Bundle, Integer>();
+        bundles = new ArrayList<Bundle>();
+        caster = new OptionCaster();
+    }
+
+    /**
+     * Get the identifier of the bundle describing a VM template and options.
+     * The bundle is registered if needed.
+     *
+     * @param pbVM the VM
+     * @return the bundle identifier
+     */
+    public int register(PBVirtualMachine.VirtualMachine pbVM) {
+        List<PBVirtualMachine.VirtualMachine.Option> opts = pbVM.getOptionsList();
+        String[] keys = new String[opts.size()];
+        String[] values = new String[opts.size()];
+        for (int i = 0; i < keys.length; i++) {
+            PBVirtualMachine.VirtualMachine.Option o = opts.get(i);
+            keys[i] = o.getKey();
+            values[i] = o.hasValue() ? o.getValue() : null;
+        }
+        Bundle b = new Bundle(pbVM.hasTemplate() ? pbVM.getTemplate() : null, keys, values);
+        Integer id = ids.get(b);
+        if (id == null) {
+            id = bundles.size();
+            bundles.add(b);
+            ids.put(b, id);
+        }
+        return id;
+    }
+
+    /**
+     * Get the number of distinct bundles.
+     *
+     * @return a positive integer
+     */
+    public int size() {
+        return bundles.size();
+    }
+
+    /**
+     * Get the template of a bundle.
+     *
+     * @param id the bundle identifier
+     * @return the template name. {@code null} if the bundle does not declare a template
+     */
+    public String getTemplate(int id) {
+        return bundles.get(id).template;
+    }
+
+    /**
+     * Declare the template and the options of a bundle as attributes of an element.
+     *
+     * @param attrs the attributes to fill
+     * @param e     the element
+     * @param id    the bundle identifier
+     */
+    public void expand(Attributes attrs, Element e, int id) {
+        Bundle b = bundles.get(id);
+        if (b.template != null) {
+            attrs.put(e, ConfigurationConverter.TEMPLATE, b.template);
+        }
+        for (int i = 0; i < b.keys.length; i++) {
+            if (b.values[i] != null) {
+                caster.put(attrs, e, b.keys[i], b.values[i]);
+            } else {
+                attrs.put(e, b.keys[i], true);
+            }
+        }
+    }
+
+    /**
+     * Replace the {@link ConfigurationConverter#TEMPLATE_ID} attribute of every VM of a model
+     * by the template and options of the referred bundle.
+     *
+     * @param mo the model to expand
+     */
+    public void expand(Model mo) {
+        Attributes attrs = mo.getAttributes();
+        for (VM vm : mo.getMapping().getAllVMs()) {
+            Integer id = attrs.getInteger(vm, ConfigurationConverter.TEMPLATE_ID);
+            if (id != null) {
+                attrs.unset(vm, ConfigurationConverter.TEMPLATE_ID);
+                expand(attrs, vm, id);
+            }
+        }
+    }
+
+    /**
+     * Serialise the catalog.
+     * Each bundle is indexed by its identifier and declares
+     * its template and options as a JSON object. The option values
+     * are typed like the attributes made by {@link #expand(Attributes, Element, int)}.
+     *
+     * @return the resulting JSON object
+     */
+    public JSONObject toJSON() {
+        JSONObject o = new JSONObject();
+        for (int id = 0; id < bundles.size(); id++) {
+            Bundle b = bundles.get(id);
+            JSONObject j = new JSONObject();
+            if (b.template != null) {
+                j.put(ConfigurationConverter.TEMPLATE, b.template);
+            }
+            for (int i = 0; i < b.keys.length; i++) {
+                //Typed as the expanded attributes
+                j.put(b.keys[i], b.values[i] != null ? caster.cast(b.keys[i], b.values[i]) : Boolean.TRUE);
+            }
+            o.put(Integer.toString(id), j);
+        }
+        return o;
+    }
+
+    /**
+     * A template and its options.
+     */
+    private static final class Bundle {
+
+        private final String template;
+
+        private final String[] keys;
+
+        private final String[] values;
+
+        private final int hash;
+
+        Bundle(String template, String[] keys, String[] values) {
+            this.template = template;
+            this.keys = keys;
+            this.values = values;
+            hash = 31 * (31 * Objects.hashCode(template) + Arrays.hashCode(keys)) + Arrays.hashCode(values);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || o.getClass() != getClass()) {
+                return false;
+            }
+            Bundle b = (Bundle) o;
+            return hash == b.hash
+                    && Objects.equals(template, b.template)
+                    && Arrays.equals(keys, b.keys)
+                    && Arrays.equals(values, b.values);
+        }
+    }
+}
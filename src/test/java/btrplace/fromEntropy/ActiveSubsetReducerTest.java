@@ -0,0 +1,119 @@
+/*
+ * Copyright (c) 2012 University of Nice Sophia-Antipolis
+ *
+ * This file is part of btrplace.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package btrplace.fromEntropy;
+
+import btrplace.model.*;
+import btrplace.model.constraint.*;
+import btrplace.model.view.ShareableResource;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+
+/**
+ * Unit tests for {@link ActiveSubsetReducer}.
+ *
+ * @author Fabien Hermenier
+ */
+public class ActiveSubsetReducerTest {
+
+    @Test
+    public void testReduce() {
+        Model mo = new DefaultModel();
+        Mapping map = mo.getMapping();
+        ShareableResource rc = new ShareableResource(ConfigurationConverter.MEMORY_USAGE);
+        mo.attach(rc);
+        for (int i = 0; i < 4; i++) {
+            Node n = new Node(i);
+            map.addOnlineNode(n);
+            rc.setCapacity(n, 10);
+        }
+        //VM 0 goes ready and is spread with VM 1. VM 2 is fixed on the host of VM 0, VM 3 is fixed elsewhere.
+        //VM 4 fills node 2
+        map.addRunningVM(new VM(0), new Node(0));
+        map.addRunningVM(new VM(1), new Node(1));
+        map.addRunningVM(new VM(2), new Node(0));
+        map.addRunningVM(new VM(3), new Node(3));
+        map.addRunningVM(new VM(4), new Node(2));
+        for (int i = 0; i < 4; i++) {
+            rc.setConsumption(new VM(i), 3);
+        }
+        rc.setConsumption(new VM(4), 9);
+        List<SatConstraint> cstrs = new ArrayList<SatConstraint>();
+        cstrs.add(new Ready(new VM(0)));
+        cstrs.add(new Running(new VM(3)));
+        cstrs.add(new Spread(new HashSet<VM>(Arrays.asList(new VM(0), new VM(1)))));
+        cstrs.add(new Online(new Node(0)));
+        cstrs.add(new Online(new Node(3)));
+
+        Instance i = new ActiveSubsetReducer().reduce(new Instance(mo, cstrs, new MinMTTR()));
+        Mapping m = i.getModel().getMapping();
+        Assert.assertEquals(m.getAllVMs(), new HashSet<VM>(Arrays.asList(new VM(0), new VM(1))));
+        //Node 3 may host an active VM, node 2 has not enough free resources
+        Assert.assertEquals(m.getAllNodes(), new HashSet<Node>(Arrays.asList(new Node(0), new Node(1), new Node(3))));
+        Assert.assertEquals(i.getSatConstraints(), Arrays.asList(cstrs.get(0), cstrs.get(2), cstrs.get(3), cstrs.get(4)));
+
+        //VM 2 is fixed on node 0, VM 3 on node 3
+        ShareableResource r = (ShareableResource) i.getModel().getView(rc.getIdentifier());
+        Assert.assertEquals(r.getCapacity(new Node(0)), 7);
+        Assert.assertEquals(r.getCapacity(new Node(1)), 10);
+        Assert.assertEquals(r.getCapacity(new Node(3)), 7);
+        Assert.assertEquals(r.getConsumption(new VM(0)), 3);
+    }
+
+    @Test
+    public void testOffline() {
+        Model mo = new DefaultModel();
+        Mapping map = mo.getMapping();
+        map.addOnlineNode(new Node(0));
+        map.addOnlineNode(new Node(1));
+        map.addRunningVM(new VM(0), new Node(0));
+        map.addRunningVM(new VM(1), new Node(1));
+        List<SatConstraint> cstrs = new ArrayList<SatConstraint>();
+        cstrs.add(new Offline(new Node(0)));
+
+        Instance i = new ActiveSubsetReducer().reduce(new Instance(mo, cstrs, new MinMTTR()));
+        //The VM hosted by node 0 must leave, node 1 remains as a destination
+        Mapping m = i.getModel().getMapping();
+        Assert.assertEquals(m.getAllVMs(), new HashSet<VM>(Arrays.asList(new VM(0))));
+        Assert.assertEquals(m.getAllNodes(), new HashSet<Node>(Arrays.asList(new Node(0), new Node(1))));
+        Assert.assertTrue(m.getOnlineNodes().contains(new Node(1)));
+    }
+
+    @Test
+    public void testBoot() {
+        Model mo = new DefaultModel();
+        Mapping map = mo.getMapping();
+        map.addOnlineNode(new Node(0));
+        map.addOnlineNode(new Node(1));
+        map.addRunningVM(new VM(0), new Node(0));
+        map.addReadyVM(new VM(1));
+        List<SatConstraint> cstrs = new ArrayList<SatConstraint>();
+        cstrs.add(new Running(new VM(1)));
+
+        Instance i = new ActiveSubsetReducer().reduce(new Instance(mo, cstrs, new MinMTTR()));
+        //The ready VM is not restricted to some nodes, so every node is a destination
+        Mapping m = i.getModel().getMapping();
+        Assert.assertEquals(m.getAllVMs(), new HashSet<VM>(Arrays.asList(new VM(1))));
+        Assert.assertEquals(m.getOnlineNodes(), new HashSet<Node>(Arrays.asList(new Node(0), new Node(1))));
+    }
+}
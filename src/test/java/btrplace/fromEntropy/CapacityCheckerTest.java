@@ -0,0 +1,88 @@
+/*
+ * Copyright (c) 2012 University of Nice Sophia-Antipolis
+ *
+ * This file is part of btrplace.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package btrplace.fromEntropy;
+
+import btrplace.model.*;
+import btrplace.model.view.ShareableResource;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.util.List;
+
+/**
+ * Unit tests for {@link CapacityChecker}.
+ *
+ * @author Fabien Hermenier
+ */
+public class CapacityCheckerTest {
+
+    @Test
+    public void testCheck() {
+        Model mo = new DefaultModel();
+        Mapping map = mo.getMapping();
+        ShareableResource rcMem = new ShareableResource(ConfigurationConverter.MEMORY_USAGE);
+        ShareableResource rcCpu = new ShareableResource(ConfigurationConverter.UCPU_USAGE);
+        mo.attach(rcMem);
+        mo.attach(rcCpu);
+
+        //3000 nodes to split the checks, every node hosts 2 VMs
+        for (int i = 0; i < 3000; i++) {
+            Node n = new Node(i);
+            map.addOnlineNode(n);
+            rcMem.setCapacity(n, 10);
+            rcCpu.setCapacity(n, 10);
+            for (int j = 0; j < 2; j++) {
+                VM vm = new VM(i * 2 + j);
+                map.addRunningVM(vm, n);
+                rcMem.setConsumption(vm, 5);
+                rcCpu.setConsumption(vm, 5);
+            }
+        }
+        Assert.assertTrue(new CapacityChecker().check(mo).isEmpty());
+
+        //Overload node 2500
+        rcMem.setConsumption(new VM(5000), 7);
+        List<CapacityChecker.Violation> vs = new CapacityChecker().check(mo);
+        Assert.assertEquals(vs.size(), 1);
+        Assert.assertEquals(vs.get(0).getNode(), new Node(2500));
+        Assert.assertEquals(vs.get(0).getResource(), ConfigurationConverter.MEMORY_USAGE);
+        Assert.assertEquals(vs.get(0).getAmount(), 12L);
+        Assert.assertEquals(vs.get(0).getCapacity(), 10);
+    }
+
+    @Test
+    public void testLargeConsumption() {
+        Model mo = new DefaultModel();
+        Mapping map = mo.getMapping();
+        ShareableResource rcMem = new ShareableResource(ConfigurationConverter.MEMORY_USAGE);
+        mo.attach(rcMem);
+        Node n = new Node(0);
+        map.addOnlineNode(n);
+        rcMem.setCapacity(n, Integer.MAX_VALUE);
+        //The sum overflows an int and would look negative
+        for (int j = 0; j < 2; j++) {
+            VM vm = new VM(j);
+            map.addRunningVM(vm, n);
+            rcMem.setConsumption(vm, Integer.MAX_VALUE / 2 + 1);
+        }
+        List<CapacityChecker.Violation> vs = new CapacityChecker().check(mo);
+        Assert.assertEquals(vs.size(), 1);
+        Assert.assertEquals(vs.get(0).getAmount(), Integer.MAX_VALUE + 1L);
+    }
+}
@@ -26,11 +26,17 @@ import btrplace.model.constraint.Overbook;
 import btrplace.model.constraint.Preserve;
 import btrplace.model.constraint.SatConstraint;
 import btrplace.model.view.ShareableResource;
+import net.minidev.json.JSONObject;
 import org.testng.Assert;
 import org.testng.annotations.Test;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 import java.util.Collection;
+import java.util.Map;
 
 /**
  * Unit Tests for {@link ConfigurationConverter}.
@@ -159,6 +165,7 @@ public class ConfigurationConverterTest {
         //Check the entropy attribute
         for (VM v : map.getAllVMs()) {
             String id = mo.getAttributes().getString(v, ConfigurationConverter.ENTROPY_ID);
+            Assert.assertTrue(mo.getAttributes().getKeys(v).contains(ConfigurationConverter.ENTROPY_ID));
             Assert.assertEquals(conv.getRegistryVMs().resolve(id), v);
             Assert.assertEquals(conv.getRegistryVMs().resolve(v), id);
         }
@@ -170,4 +177,92 @@ public class ConfigurationConverterTest {
         }
 
     }
+
+    @Test
+    public void testTemplateCatalog() throws IOException {
+        ConfigurationConverter plain = new ConfigurationConverter("src/test/resources/configTest.pbd");
+        ConfigurationConverter conv = new ConfigurationConverter("src/test/resources/configTest.pbd", new TemplateCatalog());
+        Model mo = conv.getModel();
+        TemplateCatalog catalog = conv.getTemplateCatalog();
+        Assert.assertNotNull(catalog);
+        for (VM v : mo.getMapping().getAllVMs()) {
+            Assert.assertNotNull(mo.getAttributes().getInteger(v, ConfigurationConverter.TEMPLATE_ID));
+            Assert.assertFalse(mo.getAttributes().isSet(v, ConfigurationConverter.TEMPLATE));
+        }
+        Assert.assertTrue(catalog.size() <= mo.getMapping().getAllVMs().size());
+
+        //The catalog states the options with the types of the attributes
+        JSONObject json = catalog.toJSON();
+        for (VM v : mo.getMapping().getAllVMs()) {
+            JSONObject b = (JSONObject) json.get(mo.getAttributes().getInteger(v, ConfigurationConverter.TEMPLATE_ID).toString());
+            for (Map.Entry<String, Object> e : b.entrySet()) {
+                Assert.assertEquals(e.getValue(), plain.getModel().getAttributes().get(v, e.getKey()), v + " " + e.getKey());
+            }
+        }
+
+        //Once expanded, the attributes must be the same
+        catalog.expand(mo);
+        for (VM v : mo.getMapping().getAllVMs()) {
+            Assert.assertEquals(mo.getAttributes().getKeys(v), plain.getModel().getAttributes().getKeys(v));
+            for (String k : mo.getAttributes().getKeys(v)) {
+                Assert.assertEquals(mo.getAttributes().get(v, k), plain.getModel().getAttributes().get(v, k));
+            }
+        }
+    }
+
+    @Test
+    public void testColumns() throws IOException {
+        ConfigurationConverter conv = new ConfigurationConverter("src/test/resources/configTest.pbd");
+        Mapping map = conv.getModel().getMapping();
+        ColumnarConfiguration cols = conv.getColumns();
+        ShareableResource rcMem = (ShareableResource) conv.getModel().getView(ShareableResource.VIEW_ID_BASE + ConfigurationConverter.MEMORY_USAGE);
+        Assert.assertEquals(cols.getNbNodes(), map.getAllNodes().size());
+        Assert.assertEquals(cols.getNbVMs(), map.getAllVMs().size());
+        for (VM v : map.getAllVMs()) {
+            int id = v.id();
+            if (map.getReadyVMs().contains(v)) {
+                Assert.assertEquals(cols.getVMState(id), ColumnarConfiguration.READY);
+                Assert.assertEquals(cols.getVMHost(id), -1);
+            } else {
+                Assert.assertEquals(cols.getVMHost(id), map.getVMLocation(v).id());
+                Assert.assertEquals(cols.getVMState(id), map.getRunningVMs().contains(v) ? ColumnarConfiguration.RUNNING : ColumnarConfiguration.SLEEPING);
+            }
+            Assert.assertEquals(cols.getVMMemoryConsumption(id), rcMem.getConsumption(v));
+        }
+        for (Node n : map.getAllNodes()) {
+            Assert.assertEquals(cols.getNodeState(n.id()), map.getOnlineNodes().contains(n) ? ColumnarConfiguration.ONLINE : ColumnarConfiguration.OFFLINE);
+        }
+    }
+
+    @Test
+    public void testStreamAndBuffer() throws IOException {
+        String src = "src/test/resources/configTest.pbd";
+        ConfigurationConverter ref = new ConfigurationConverter(src);
+        byte[] content = Files.readAllBytes(Paths.get(src));
+
+        ConfigurationConverter fromStream = new ConfigurationConverter(new ByteArrayInputStream(content));
+        Assert.assertEquals(fromStream.getModel(), ref.getModel());
+        Assert.assertEquals(fromStream.getConstraint(), ref.getConstraint());
+
+        //A buffer with some leading bytes
+        ByteBuffer bb = ByteBuffer.allocate(content.length + 4);
+        bb.putInt(42).put(content).flip();
+        bb.position(4);
+        ConfigurationConverter fromBuffer = new ConfigurationConverter(bb);
+        Assert.assertEquals(bb.position(), 4);
+        Assert.assertEquals(fromBuffer.getModel(), ref.getModel());
+        Assert.assertEquals(fromBuffer.getConstraint(), ref.getConstraint());
+
+        Assert.assertEquals(new ConfigurationConverter(ByteBuffer.wrap(content)).getModel(), ref.getModel());
+
+        //A slice, with an array offset
+        bb.position(4);
+        Assert.assertEquals(new ConfigurationConverter(bb.slice()).getModel(), ref.getModel());
+
+        //Outside the heap
+        ByteBuffer direct = ByteBuffer.allocateDirect(content.length);
+        direct.put(content).flip();
+        Assert.assertEquals(new ConfigurationConverter(direct).getModel(), ref.getModel());
+        Assert.assertEquals(direct.position(), 0);
+    }
 }
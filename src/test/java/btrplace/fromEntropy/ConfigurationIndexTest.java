@@ -0,0 +1,106 @@
+/*
+ * Copyright (c) 2012 University of Nice Sophia-Antipolis
+ *
+ * This file is part of btrplace.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package btrplace.fromEntropy;
+
+import entropy.configuration.parser.PBConfiguration;
+import entropy.configuration.parser.PBVirtualMachine;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Unit tests for {@link ConfigurationIndex}.
+ *
+ * @author Fabien Hermenier
+ */
+public class ConfigurationIndexTest {
+
+    @Test
+    public void testQueries() throws IOException {
+        File cfg = new File("src/test/resources/r3-nr0-src.pbd");
+        File idx = File.createTempFile("r3", ConfigurationIndex.EXTENSION);
+        idx.deleteOnExit();
+        ConfigurationIndex.build(cfg, idx);
+
+        ConfigurationIndex index = new ConfigurationIndex(cfg, idx);
+        try {
+            //Compare with a full parse
+            PBConfiguration.Configuration c = PBConfiguration.Configuration.parseFrom(new FileInputStream(cfg));
+            PBConfiguration.Configuration.Hoster h = c.getOnlinesList().get(10);
+            String nodeName = h.getNode().getName();
+            Assert.assertEquals(index.getHoster(nodeName), h);
+            Assert.assertEquals(index.getNode(nodeName), h.getNode());
+
+            PBVirtualMachine.VirtualMachine vm = h.getHostedList().get(0).getVm();
+            Assert.assertEquals(index.getVM(vm.getName()), vm);
+            Assert.assertEquals(index.getHost(vm.getName()), nodeName);
+
+            PBVirtualMachine.VirtualMachine waiting = c.getWaitingsList().get(0);
+            Assert.assertEquals(index.getVM(waiting.getName()), waiting);
+            Assert.assertNull(index.getHost(waiting.getName()));
+
+            String offline = c.getOfflinesList().get(0).getName();
+            Assert.assertEquals(index.getNode(offline), c.getOfflinesList().get(0));
+            Assert.assertNull(index.getHoster(offline));
+
+            Assert.assertNull(index.getVM("foo"));
+            Assert.assertNull(index.getNode("foo"));
+        } finally {
+            index.close();
+        }
+    }
+
+    @Test(expectedExceptions = IOException.class)
+    public void testStaleIndex() throws IOException {
+        File idx = File.createTempFile("r3", ConfigurationIndex.EXTENSION);
+        idx.deleteOnExit();
+        ConfigurationIndex.build(new File("src/test/resources/r3-nr0-src.pbd"), idx);
+        new ConfigurationIndex(new File("src/test/resources/r3-nr0-dst.pbd"), idx);
+    }
+
+    @Test
+    public void testRebuildStaleIndex() throws IOException {
+        File cfg = File.createTempFile("r3", ".pbd");
+        cfg.deleteOnExit();
+        File idx = new File(cfg.getPath() + ConfigurationIndex.EXTENSION);
+        idx.deleteOnExit();
+        Files.copy(new File("src/test/resources/r3-nr0-src.pbd").toPath(), cfg.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        ConfigurationIndex.open(cfg, idx).close();
+        Assert.assertTrue(ConfigurationIndex.isUpToDate(cfg, idx));
+
+        //The configuration changes, the index is re-built
+        Files.copy(new File("src/test/resources/r3-nr0-dst.pbd").toPath(), cfg.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        Assert.assertTrue(cfg.setLastModified(cfg.lastModified() + 10000));
+        Assert.assertFalse(ConfigurationIndex.isUpToDate(cfg, idx));
+        PBConfiguration.Configuration c = PBConfiguration.Configuration.parseFrom(new FileInputStream(cfg));
+        ConfigurationIndex index = ConfigurationIndex.open(cfg, idx);
+        try {
+            for (PBConfiguration.Configuration.Hoster h : c.getOnlinesList()) {
+                Assert.assertEquals(index.getHoster(h.getNode().getName()), h);
+            }
+        } finally {
+            index.close();
+        }
+    }
+}
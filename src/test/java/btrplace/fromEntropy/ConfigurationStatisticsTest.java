@@ -0,0 +1,75 @@
+/*
+ * Copyright (c) 2012 University of Nice Sophia-Antipolis
+ *
+ * This file is part of btrplace.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package btrplace.fromEntropy;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.io.*;
+
+/**
+ * Unit tests for {@link ConfigurationStatistics}.
+ *
+ * @author Fabien Hermenier
+ */
+public class ConfigurationStatisticsTest {
+
+    @Test
+    public void testAnalyze() throws IOException {
+        StringWriter nodes = new StringWriter();
+        InputStream in = new BufferedInputStream(new FileInputStream("src/test/resources/r3-nr0-src.pbd"));
+        ConfigurationStatistics st;
+        try {
+            st = ConfigurationStatistics.analyze(in, nodes);
+        } finally {
+            in.close();
+        }
+        Assert.assertEquals(st.getNbOnlines(), 4750);
+        Assert.assertEquals(st.getNbOfflines(), 250);
+        Assert.assertEquals(st.getNbRunnings(), 14237);
+        Assert.assertEquals(st.getNbSleepings(), 0);
+        Assert.assertEquals(st.getNbWaitings(), 763);
+        Assert.assertEquals(st.getWaitingRatio(), 763 / 15000.0, 0.0001);
+        Assert.assertTrue(st.getMemoryUsage() <= st.getMemoryCapacity());
+
+        int nbVMs = 0;
+        for (int nb : st.getTemplates().values()) {
+            nbVMs += nb;
+        }
+        Assert.assertEquals(nbVMs, 15000);
+
+        //The header and one line per node
+        String[] lines = nodes.toString().split("\n");
+        Assert.assertEquals(lines.length, 5001);
+        Assert.assertEquals(lines[0].trim(), ConfigurationStatistics.NODES_HEADER);
+
+        StringWriter csv = new StringWriter();
+        st.writeCSV(csv);
+        Assert.assertTrue(csv.toString().contains("waitings,763"));
+        Assert.assertEquals(st.toJSON().get("onlines"), 4750);
+    }
+
+    @Test
+    public void testEscape() {
+        Assert.assertEquals(ConfigurationStatistics.escape("VM1"), "VM1");
+        Assert.assertEquals(ConfigurationStatistics.escape("a,b"), "\"a,b\"");
+        Assert.assertEquals(ConfigurationStatistics.escape("4\" disk"), "\"4\"\" disk\"");
+        Assert.assertEquals(ConfigurationStatistics.escape("a\nb"), "\"a\nb\"");
+    }
+}
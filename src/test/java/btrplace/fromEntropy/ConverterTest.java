@@ -1,8 +1,20 @@
 package btrplace.fromEntropy;
 
+import net.minidev.json.JSONObject;
+import org.testng.Assert;
 import org.testng.annotations.Test;
 
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 
 /**
  * Created by vkherbac on 10/09/14.
@@ -32,4 +44,80 @@ public class ConverterTest {
                 "-o", "src/test/resources/nr-r3-p5000-c33-0.gz"
         });
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testActiveSubset() throws IOException {
+
+        Converter.main(new String[]{
+                "--active",
+                "src/test/resources/r3-nr0-src.pbd",
+                "src/test/resources/r3-nr0-dst.pbd",
+                "src/test/resources/datacenter.btrp",
+                "src/test/resources/clients",
+                "-o", "src/test/resources/nr-r3-p5000-c33-0-active.json"
+        });
+    }
+
+    @Test
+    public void testStandardOutput() throws IOException {
+        PrintStream prev = System.out;
+        ByteArrayOutputStream bout = new ByteArrayOutputStream();
+        PrintStream out = new PrintStream(bout);
+        System.setOut(out);
+        try {
+            Converter.main(new String[]{
+                    "src/test/resources/r3-nr0-src.pbd",
+                    "src/test/resources/r3-nr0-dst.pbd",
+                    "src/test/resources/datacenter.btrp",
+                    "src/test/resources/clients",
+                    "-o", "-"
+            });
+            //The instance is written on the standard output of the call, which is restored
+            Assert.assertSame(System.out, out);
+            Assert.assertTrue(bout.toString().startsWith("{"));
+        } finally {
+            System.setOut(prev);
+        }
+    }
+
+    /**
+     * Each instance of a compressed archive is a finished gzip member, and
+     * a member left unfinished by an interrupted conversion is reported.
+     */
+    @Test
+    public void testAppendAfterUnclosedMember() throws IOException {
+        File archive = File.createTempFile("archive", ".json.gz");
+        Assert.assertTrue(archive.delete());
+        File cp = InstanceArchiveWriter.checkpointOf(archive);
+        archive.deleteOnExit();
+        cp.deleteOnExit();
+        String output = archive.getPath();
+        JSONObject o1 = new JSONObject();
+        o1.put("objective", "minMTTR");
+        JSONObject o2 = new JSONObject();
+        o2.put("objective", "minMTTR");
+        o2.put("timeout", 10);
+
+        JSONObject last = Converter.appendArchive(output, Converter.lastOf(output), o1);
+        Converter.appendArchive(output, last, o2);
+        InstanceArchiveReader in = new InstanceArchiveReader(new InputStreamReader(new GZIPInputStream(new FileInputStream(archive))));
+        Assert.assertEquals(in.nextJSON(), o1);
+        Assert.assertEquals(in.nextJSON(), o2);
+        Assert.assertNull(in.nextJSON());
+        in.close();
+
+        //A conversion killed while writing an instance: the member is flushed but not finished
+        Writer w = new OutputStreamWriter(new GZIPOutputStream(new FileOutputStream(archive, true), true));
+        w.write("{\"$set\":");
+        w.flush();
+        long length = archive.length();
+        try {
+            Converter.appendArchive(output, Converter.lastOf(output), o1);
+            Assert.fail("The unfinished member must be reported");
+        } catch (IOException ex) {
+            //Nothing is appended after the unfinished member
+            Assert.assertEquals(archive.length(), length);
+        }
+        w.close();
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright (c) 2012 University of Nice Sophia-Antipolis
+ *
+ * This file is part of btrplace.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package btrplace.fromEntropy;
+
+import btrplace.json.JSONConverterException;
+import btrplace.json.model.InstanceConverter;
+import btrplace.model.DefaultModel;
+import btrplace.model.Instance;
+import btrplace.model.Model;
+import btrplace.model.VM;
+import btrplace.model.constraint.MinMTTR;
+import btrplace.model.constraint.Preserve;
+import btrplace.model.constraint.SatConstraint;
+import net.minidev.json.JSONObject;
+import net.minidev.json.parser.JSONParser;
+import net.minidev.json.parser.ParseException;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Unit tests for {@link DemandTable}.
+ *
+ * @author Fabien Hermenier
+ */
+public class DemandTableTest {
+
+    @Test
+    public void testDemands() {
+        DemandTable t = new DemandTable();
+        Assert.assertEquals(t.getDemand(ConfigurationConverter.UCPU_USAGE, new VM(3)), ColumnarConfiguration.UNDEFINED);
+        t.setDemand(ConfigurationConverter.UCPU_USAGE, new VM(3), 20);
+        t.setDemand(ConfigurationConverter.MEMORY_USAGE, new VM(100), 1024);
+        t.setDemand(ConfigurationConverter.UCPU_USAGE, new VM(3), 30);
+        Assert.assertEquals(t.size(), 2);
+        Assert.assertEquals(t.getDemand(ConfigurationConverter.UCPU_USAGE, new VM(3)), 30);
+        Assert.assertEquals(t.getDemand(ConfigurationConverter.MEMORY_USAGE, new VM(3)), ColumnarConfiguration.UNDEFINED);
+
+        List<Preserve> l = t.expand();
+        Assert.assertEquals(l.size(), 2);
+        Assert.assertTrue(l.contains(new Preserve(new VM(3), ConfigurationConverter.UCPU_USAGE, 30)));
+        Assert.assertTrue(l.contains(new Preserve(new VM(100), ConfigurationConverter.MEMORY_USAGE, 1024)));
+    }
+
+    @Test
+    public void testJSON() throws ParseException {
+        DemandTable t = new DemandTable();
+        for (int id = 0; id < 50; id += 3) {
+            t.setDemand(ConfigurationConverter.MEMORY_USAGE, new VM(id), id * 10);
+        }
+        JSONObject o = (JSONObject) new JSONParser(JSONParser.MODE_RFC4627).parse(t.toJSON().toJSONString());
+        DemandTable t2 = DemandTable.fromJSON(o);
+        Assert.assertEquals(t2.size(), t.size());
+        Assert.assertEquals(t2.expand(), t.expand());
+    }
+
+    /**
+     * Compare the output size of the demands of 15000 VMs stated as a table or as Preserve constraints.
+     */
+    @Test
+    public void testOutputSize() throws JSONConverterException {
+        Model mo = new DefaultModel();
+        DemandTable t = new DemandTable();
+        for (int x = 0; x < 15000; x++) {
+            VM vm = mo.newVM();
+            mo.getMapping().addReadyVM(vm);
+            t.setDemand(ConfigurationConverter.UCPU_USAGE, vm, 50 + x % 7);
+            t.setDemand(ConfigurationConverter.MEMORY_USAGE, vm, 1024 + x % 5);
+        }
+        InstanceConverter conv = new InstanceConverter();
+        int preserves = conv.toJSON(new Instance(mo, new ArrayList<SatConstraint>(t.expand()), new MinMTTR())).toJSONString().length();
+        JSONObject o = conv.toJSON(new Instance(mo, new ArrayList<SatConstraint>(), new MinMTTR()));
+        o.put(DemandTable.JSON_KEY, t.toJSON());
+        int table = o.toJSONString().length();
+        Assert.assertTrue(table < preserves);
+    }
+
+    /**
+     * Compare the heap retained by the demands of 15000 VMs stated as a table or as Preserve constraints.
+     * A Preserve constraint retains at least its header, its fields and its VM: 40 bytes.
+     */
+    @Test
+    public void testFootprint() {
+        DemandTable t = new DemandTable();
+        for (int x = 0; x < 15000; x++) {
+            t.setDemand(ConfigurationConverter.UCPU_USAGE, new VM(x), 50 + x % 7);
+            t.setDemand(ConfigurationConverter.MEMORY_USAGE, new VM(x), 1024 + x % 5);
+        }
+        //2 arrays of 16384 integers
+        Assert.assertEquals(t.footprint(), 48 + 2 * 40 + 2 * (16 + 16384 * 4));
+        Assert.assertTrue(t.footprint() * 4 < t.size() * 40L);
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright (c) 2012 University of Nice Sophia-Antipolis
+ *
+ * This file is part of btrplace.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package btrplace.fromEntropy;
+
+import btrplace.btrpsl.Script;
+import btrplace.btrpsl.ScriptBuilder;
+import btrplace.btrpsl.ScriptBuilderException;
+import btrplace.btrpsl.includes.BasicIncludes;
+import btrplace.model.Model;
+import btrplace.model.Node;
+import btrplace.model.VM;
+import btrplace.model.constraint.Among;
+import btrplace.model.constraint.SatConstraint;
+import org.apache.commons.io.FileUtils;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * Unit tests for {@link ElementSetInterner}.
+ *
+ * @author Fabien Hermenier
+ */
+public class ElementSetInternerTest {
+
+    private static final String RES = "src/test/resources/";
+
+    @Test
+    public void testSharing() {
+        ElementSetInterner in = new ElementSetInterner();
+        Set<VM> s1 = in.vms(Arrays.asList(new VM(1), new VM(2)));
+        Set<VM> s2 = in.vms(new HashSet<VM>(Arrays.asList(new VM(2), new VM(1))));
+        Assert.assertSame(s2, s1);
+
+        Collection<Node> g = Arrays.asList(new Node(0), new Node(1));
+        Collection<Collection<Node>> groups = new ArrayList<Collection<Node>>();
+        groups.add(g);
+        Among a = new Among(s1, groups);
+        SatConstraint a1 = in.intern(a);
+        SatConstraint a2 = in.intern(new Among(new HashSet<VM>(s1), groups));
+        Assert.assertEquals(a1, a);
+        Assert.assertSame(((Among) a2).getGroupsOfNodes(), ((Among) a1).getGroupsOfNodes());
+        Assert.assertEquals(in.getNbSets(), 2);
+
+        //2 shared sets of 2 elements, 6 requested hash sets of 2 elements
+        Assert.assertEquals(in.getNbRequests(), 6);
+        Assert.assertEquals(in.footprint(), 2 * (24 + 24));
+        Assert.assertEquals(in.getRequestedFootprint(), 6 * (64 + 80 + 2 * 32));
+    }
+
+    private static List<SatConstraint> clients(Model mo) throws IOException, ScriptBuilderException {
+        ScriptBuilder b = new ScriptBuilder(mo);
+        Script dc = b.build(FileUtils.readFileToString(new File(RES + "datacenter.btrp")));
+        BasicIncludes bi = new BasicIncludes();
+        bi.add(dc);
+        b.setIncludes(bi);
+        List<SatConstraint> cstrs = new ArrayList<SatConstraint>();
+        File[] files = new File(RES + "clients").listFiles();
+        Arrays.sort(files);
+        for (File f : files) {
+            cstrs.addAll(b.build(FileUtils.readFileToString(f)).getConstraints());
+        }
+        return cstrs;
+    }
+
+    /**
+     * The equal sets of elements stated by the constraints of the 852 clients of r3 are shared.
+     */
+    @Test
+    public void testClients() throws IOException, ScriptBuilderException {
+        Model mo = new ConfigurationConverter(RES + "r3-nr0-src.pbd").getModel();
+        List<SatConstraint> cstrs = clients(mo);
+        List<SatConstraint> ref = new ArrayList<SatConstraint>(cstrs);
+        ElementSetInterner in = new ElementSetInterner();
+        in.intern(cstrs);
+        Assert.assertEquals(cstrs, ref);
+        Assert.assertTrue(in.getNbSets() < in.getNbRequests());
+
+        //One instance per distinct group of nodes
+        Map<Collection<Collection<Node>>, Collection<Collection<Node>>> groups = new HashMap<Collection<Collection<Node>>, Collection<Collection<Node>>>();
+        int nbAmongs = 0;
+        for (SatConstraint c : cstrs) {
+            if (c instanceof Among) {
+                nbAmongs++;
+                Collection<Collection<Node>> g = ((Among) c).getGroupsOfNodes();
+                Collection<Collection<Node>> prev = groups.put(g, g);
+                Assert.assertTrue(prev == null || prev == g);
+            }
+        }
+        Assert.assertTrue(groups.size() < nbAmongs);
+
+        //The leafs are stated by every among constraint, but stored once
+        Assert.assertTrue(in.footprint() * 4 < in.getRequestedFootprint(), in.footprint() + " * 4 >= " + in.getRequestedFootprint());
+    }
+}
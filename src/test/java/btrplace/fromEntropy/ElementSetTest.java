@@ -0,0 +1,69 @@
+/*
+ * Copyright (c) 2012 University of Nice Sophia-Antipolis
+ *
+ * This file is part of btrplace.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package btrplace.fromEntropy;
+
+import btrplace.model.Node;
+import btrplace.model.VM;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+
+/**
+ * Unit tests for {@link ElementSet}.
+ *
+ * @author Fabien Hermenier
+ */
+public class ElementSetTest {
+
+    @Test
+    public void testSetContract() {
+        Set<VM> ref = new HashSet<VM>(Arrays.asList(new VM(5), new VM(1), new VM(3)));
+        ElementSet<VM> s = ElementSet.ofVMs(Arrays.asList(new VM(5), new VM(1), new VM(3), new VM(1)));
+        Assert.assertEquals(s.size(), 3);
+        Assert.assertEquals(s.ids(), new int[]{1, 3, 5});
+        Assert.assertEquals(s, ref);
+        Assert.assertEquals(ref, s);
+        Assert.assertEquals(s.hashCode(), ref.hashCode());
+        Assert.assertTrue(s.contains(new VM(3)));
+        Assert.assertFalse(s.contains(new VM(2)));
+        Assert.assertFalse(s.contains(new Node(3)));
+
+        Iterator<VM> ite = s.iterator();
+        Assert.assertEquals(ite.next(), new VM(1));
+        Assert.assertEquals(ite.next(), new VM(3));
+        Assert.assertEquals(ite.next(), new VM(5));
+        Assert.assertFalse(ite.hasNext());
+    }
+
+    @Test
+    public void testKinds() {
+        ElementSet<VM> vms = ElementSet.ofVMs(Arrays.asList(new VM(1), new VM(2)));
+        ElementSet<Node> nodes = ElementSet.ofNodes(Arrays.asList(new Node(1), new Node(2)));
+        Assert.assertNotEquals(vms, nodes);
+        Assert.assertEquals(ElementSet.ofVMs(new HashSet<VM>()), ElementSet.ofNodes(new HashSet<Node>()));
+    }
+
+    @Test(expectedExceptions = UnsupportedOperationException.class)
+    public void testImmutable() {
+        ElementSet.ofVMs(Arrays.asList(new VM(1))).add(new VM(2));
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright (c) 2012 University of Nice Sophia-Antipolis
+ *
+ * This file is part of btrplace.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package btrplace.fromEntropy;
+
+import btrplace.json.JSONConverterException;
+import btrplace.json.model.InstanceConverter;
+import btrplace.model.Instance;
+import btrplace.model.constraint.SatConstraint;
+import net.minidev.json.JSONObject;
+import net.minidev.json.parser.JSONParser;
+import net.minidev.json.parser.ParseException;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.List;
+
+/**
+ * Unit tests for {@link IdRanges}.
+ *
+ * @author Fabien Hermenier
+ */
+public class IdRangesTest {
+
+    private static JSONObject parse(String s) throws ParseException {
+        return (JSONObject) new JSONParser(JSONParser.MODE_RFC4627).parse(s);
+    }
+
+    @Test
+    public void testCompress() throws ParseException {
+        JSONObject o = parse("{\"a\":[1,2,3,4,5,9],\"b\":[3,2,1,0],\"c\":[1,2],\"d\":[{\"e\":[10,11,12,13]}],"
+                + "\"f\":[1,3,5,7],\"g\":[\"x\",\"y\",\"z\",\"t\"]}");
+        JSONObject c = parse(IdRanges.compress(o).toJSONString());
+        Assert.assertEquals(c.get("a").toString(), "{\"$ranges\":[1,5,9,9]}");
+        Assert.assertEquals(c.get("b"), o.get("b"));
+        Assert.assertEquals(c.get("c"), o.get("c"));
+        Assert.assertEquals(((JSONObject) ((List<?>) c.get("d")).get(0)).get("e").toString(), "{\"$ranges\":[10,13]}");
+        //No gain
+        Assert.assertEquals(c.get("f"), o.get("f"));
+        Assert.assertEquals(c.get("g"), o.get("g"));
+
+        Assert.assertEquals(IdRanges.expand(c), o);
+        //The source is not modified
+        Assert.assertTrue(o.get("a") instanceof List);
+    }
+
+    /**
+     * Compare the size of the r3 instance with and without compression.
+     */
+    @Test
+    public void testInstance() throws IOException, JSONConverterException, ParseException {
+        ConfigurationConverter conv = new ConfigurationConverter("src/test/resources/r3-nr0-src.pbd");
+        Instance i = conv.getInstance();
+        i.getSatConstraints().addAll(conv.getNextStates("src/test/resources/r3-nr0-dst.pbd"));
+        InstanceConverter ic = new InstanceConverter();
+        String plain = ic.toJSON(i).toJSONString();
+        String compact = IdRanges.compress(ic.toJSON(i)).toJSONString();
+        Assert.assertTrue(compact.length() < plain.length());
+        Instance i2 = ic.fromJSON(IdRanges.expand(parse(compact)));
+        Assert.assertEquals(i2.getModel(), i.getModel());
+        Assert.assertEquals(new HashSet<SatConstraint>(i2.getSatConstraints()), new HashSet<SatConstraint>(i.getSatConstraints()));
+    }
+}
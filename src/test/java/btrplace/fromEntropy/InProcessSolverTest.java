@@ -0,0 +1,78 @@
+/*
+ * Copyright (c) 2012 University of Nice Sophia-Antipolis
+ *
+ * This file is part of btrplace.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package btrplace.fromEntropy;
+
+import btrplace.model.*;
+import btrplace.model.constraint.Fence;
+import btrplace.model.constraint.MinMTTR;
+import btrplace.model.constraint.SatConstraint;
+import btrplace.plan.ReconfigurationPlan;
+import btrplace.solver.SolverException;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Unit tests for {@link InProcessSolver}.
+ *
+ * @author Fabien Hermenier
+ */
+public class InProcessSolverTest {
+
+    /**
+     * 2 groups of 2 nodes. The VM of each group must leave its current host.
+     */
+    private static Instance makeInstance() {
+        Model mo = new DefaultModel();
+        Mapping map = mo.getMapping();
+        for (int i = 0; i < 4; i++) {
+            map.addOnlineNode(new Node(i));
+        }
+        map.addRunningVM(new VM(0), new Node(0));
+        map.addRunningVM(new VM(1), new Node(2));
+        List<SatConstraint> cstrs = new ArrayList<SatConstraint>();
+        cstrs.add(new Fence(new VM(0), Arrays.asList(new Node(1))));
+        cstrs.add(new Fence(new VM(1), Arrays.asList(new Node(3))));
+        return new Instance(mo, cstrs, new MinMTTR());
+    }
+
+    @Test
+    public void testSolve() throws SolverException {
+        InProcessSolver s = new InProcessSolver(10, 1);
+        ReconfigurationPlan plan = s.solve(makeInstance());
+        Assert.assertNotNull(plan);
+        Assert.assertEquals(plan.getSize(), 2);
+        Assert.assertEquals(s.getStatistics().size(), 1);
+    }
+
+    @Test
+    public void testConcurrentSolve() throws SolverException {
+        InProcessSolver s = new InProcessSolver(10, 2);
+        Instance i = makeInstance();
+        ReconfigurationPlan plan = s.solve(i);
+        //The plans of the 2 sub-instances are merged
+        Assert.assertNotNull(plan);
+        Assert.assertEquals(plan.getSize(), 2);
+        Assert.assertSame(plan.getOrigin(), i.getModel());
+        Assert.assertEquals(s.getStatistics().size(), 2);
+    }
+}
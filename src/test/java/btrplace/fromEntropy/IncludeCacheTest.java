@@ -0,0 +1,130 @@
+/*
+ * Copyright (c) 2012 University of Nice Sophia-Antipolis
+ *
+ * This file is part of btrplace.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package btrplace.fromEntropy;
+
+import btrplace.btrpsl.Script;
+import btrplace.btrpsl.ScriptBuilder;
+import btrplace.btrpsl.ScriptBuilderException;
+import btrplace.btrpsl.includes.BasicIncludes;
+import btrplace.model.Model;
+import org.apache.commons.io.FileUtils;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Unit tests for {@link IncludeCache}.
+ *
+ * @author Fabien Hermenier
+ */
+public class IncludeCacheTest {
+
+    private static final String SRC = "src/test/resources/r3-nr0-src.pbd";
+
+    private static String read(String path) throws IOException {
+        return FileUtils.readFileToString(new File(path));
+    }
+
+    @Test
+    public void testReuse() throws IOException, ScriptBuilderException {
+        String dc = read("src/test/resources/datacenter.btrp");
+        IncludeCache cache = new IncludeCache(2);
+
+        Model mo = new ConfigurationConverter(SRC).getModel();
+        Script s1 = cache.get(new ScriptBuilder(mo), mo, dc);
+
+        //Same nodes, another model
+        Model mo2 = new ConfigurationConverter(SRC).getModel();
+        Script s2 = cache.get(new ScriptBuilder(mo2), mo2, dc);
+        Assert.assertSame(s2, s1);
+        Assert.assertEquals(cache.getHits(), 1);
+        Assert.assertEquals(cache.getMisses(), 1);
+
+        //The compiled include works for the clients of the second model
+        ScriptBuilder b = new ScriptBuilder(mo2);
+        BasicIncludes bi = new BasicIncludes();
+        bi.add(s2);
+        b.setIncludes(bi);
+        Script c = b.build(read("src/test/resources/clients/c0.btrp"));
+        Assert.assertFalse(c.getConstraints().isEmpty());
+
+        //Other nodes
+        Model mo3 = new ConfigurationConverter("src/test/resources/configTest.pbd").getModel();
+        Assert.assertNotSame(cache.get(new ScriptBuilder(mo3), mo3, dc), s1);
+        Assert.assertEquals(cache.getMisses(), 2);
+    }
+
+    /**
+     * The datacenter include is compiled once for all the clients that share the nodes.
+     */
+    @Test
+    public void testSharedByClients() throws IOException, ScriptBuilderException {
+        String dc = read("src/test/resources/datacenter.btrp");
+        Model mo = new ConfigurationConverter(SRC).getModel();
+        IncludeCache cache = new IncludeCache(1);
+        Script first = cache.get(new ScriptBuilder(mo), mo, dc);
+        for (int i = 1; i < 200; i++) {
+            Assert.assertSame(cache.get(new ScriptBuilder(mo), mo, dc), first);
+        }
+        Assert.assertEquals(cache.getMisses(), 1);
+        Assert.assertEquals(cache.getHits(), 199);
+
+        //Another source for the same nodes
+        Assert.assertNotSame(cache.get(new ScriptBuilder(mo), mo, dc + "\n"), first);
+        Assert.assertEquals(cache.getMisses(), 2);
+    }
+
+    /**
+     * Compare the time and the memory spent to compile the datacenter include for
+     * every request with a shared compiled include, as the number of clients grows.
+     */
+    @Test
+    public void testBenchmark() throws IOException, ScriptBuilderException {
+        String dc = read("src/test/resources/datacenter.btrp");
+        Model mo = new ConfigurationConverter(SRC).getModel();
+        Runtime rt = Runtime.getRuntime();
+        long[] durations = new long[2];
+        long[] used = new long[2];
+        for (int nb : new int[]{10, 50, 200}) {
+            for (int shared = 0; shared < 2; shared++) {
+                IncludeCache cache = new IncludeCache(1);
+                Script[] includes = new Script[nb];
+                System.gc();
+                long mem = rt.totalMemory() - rt.freeMemory();
+                long st = System.nanoTime();
+                for (int i = 0; i < nb; i++) {
+                    ScriptBuilder b = new ScriptBuilder(mo);
+                    includes[i] = shared == 1 ? cache.get(b, mo, dc) : b.build(dc);
+                }
+                durations[shared] = (System.nanoTime() - st) / 1000000;
+                System.gc();
+                used[shared] = (rt.totalMemory() - rt.freeMemory() - mem) / 1024;
+                System.out.println(nb + " client(s), " + (shared == 1 ? "shared" : "rebuilt") + " include: "
+                        + durations[shared] + " ms, " + used[shared] + " KB retained");
+                //Keep the includes reachable until the memory is measured
+                Assert.assertEquals(includes[nb - 1] == includes[0], shared == 1);
+            }
+        }
+        //With 200 clients, the include is compiled once instead of 200 times
+        Assert.assertTrue(durations[1] < durations[0], durations[1] + " ms >= " + durations[0] + " ms");
+        Assert.assertTrue(used[1] < used[0], used[1] + " KB >= " + used[0] + " KB");
+    }
+}
@@ -0,0 +1,187 @@
+/*
+ * Copyright (c) 2012 University of Nice Sophia-Antipolis
+ *
+ * This file is part of btrplace.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package btrplace.fromEntropy;
+
+import net.minidev.json.JSONArray;
+import net.minidev.json.JSONObject;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.Collections;
+
+/**
+ * Unit tests for {@link InstanceArchiveWriter} and {@link InstanceArchiveReader}.
+ *
+ * @author Fabien Hermenier
+ */
+public class InstanceArchiveWriterTest {
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        JSONObject base = new JSONObject();
+        JSONArray vms = new JSONArray();
+        for (int i = 0; i < 10000; i++) {
+            vms.add(i);
+        }
+        base.put("vms", vms);
+        JSONObject attrs = new JSONObject();
+        attrs.put("a", 1);
+        attrs.put("b", "foo");
+        base.put("attributes", attrs);
+        base.put("objective", "minMTTR");
+
+        //10 VMs replaced, one attribute updated, one removed, one added
+        JSONObject next = new JSONObject();
+        JSONArray vms2 = new JSONArray();
+        vms2.addAll(vms);
+        for (int i = 0; i < 10; i++) {
+            vms2.remove(Integer.valueOf(i * 100));
+            vms2.add(20000 + i);
+        }
+        next.put("vms", vms2);
+        JSONObject attrs2 = new JSONObject();
+        attrs2.put("a", 2);
+        attrs2.put("c", true);
+        next.put("attributes", attrs2);
+        next.put("objective", "minMTTR");
+
+        StringWriter w = new StringWriter();
+        InstanceArchiveWriter out = new InstanceArchiveWriter(w);
+        out.add(base);
+        out.add(next);
+        out.add(next);
+        out.close();
+
+        String[] lines = w.toString().split("\n");
+        Assert.assertEquals(lines.length, 3);
+        Assert.assertTrue(lines[1].length() * 10 < lines[0].length(), lines[1]);
+        Assert.assertEquals(lines[2], "{}");
+
+        InstanceArchiveReader in = new InstanceArchiveReader(new StringReader(w.toString()));
+        Assert.assertEquals(in.nextJSON(), base);
+        JSONObject o = in.nextJSON();
+        Assert.assertEquals(o.get("attributes"), attrs2);
+        Assert.assertEquals(o.get("objective"), "minMTTR");
+        Assert.assertEquals(o.get("vms"), vms2);
+        Assert.assertEquals(in.nextJSON(), o);
+        Assert.assertNull(in.nextJSON());
+        in.close();
+    }
+
+    @Test
+    public void testReorder() throws IOException {
+        JSONObject base = new JSONObject();
+        JSONArray vms = new JSONArray();
+        for (int i = 0; i < 1000; i++) {
+            vms.add(i);
+        }
+        base.put("vms", vms);
+
+        //Only the order changes
+        JSONObject next = new JSONObject();
+        JSONArray vms2 = new JSONArray();
+        vms2.addAll(vms);
+        Collections.swap(vms2, 10, 500);
+        vms2.add(0, vms2.remove(999));
+        next.put("vms", vms2);
+
+        StringWriter w = new StringWriter();
+        InstanceArchiveWriter out = new InstanceArchiveWriter(w);
+        out.add(base);
+        out.add(next);
+        out.close();
+        String[] lines = w.toString().split("\n");
+        Assert.assertTrue(lines[1].length() * 10 < lines[0].length(), lines[1]);
+
+        InstanceArchiveReader in = new InstanceArchiveReader(new StringReader(w.toString()));
+        Assert.assertEquals(in.nextJSON(), base);
+        Assert.assertEquals(in.nextJSON().get("vms"), vms2);
+        in.close();
+    }
+
+    @Test
+    public void testParsedTypes() throws IOException {
+        //The previous instance as parsed back: longs, doubles and a compressed array
+        JSONObject prev = new JSONObject();
+        prev.put("a", 1L);
+        prev.put("b", 0.5d);
+        JSONObject ranges = new JSONObject();
+        JSONArray bounds = new JSONArray();
+        bounds.add(0L);
+        bounds.add(99L);
+        ranges.put(IdRanges.RANGES_KEY, bounds);
+        prev.put("vms", ranges);
+        JSONArray l = new JSONArray();
+        l.add(3L);
+        l.add(2L);
+        prev.put("l", l);
+
+        //The same instance, built in memory
+        JSONObject next = new JSONObject();
+        next.put("a", 1);
+        next.put("b", 0.5f);
+        JSONArray vms = new JSONArray();
+        for (int i = 0; i < 100; i++) {
+            vms.add(i);
+        }
+        next.put("vms", vms);
+        JSONArray l2 = new JSONArray();
+        l2.add(3);
+        l2.add(2);
+        next.put("l", l2);
+        next = IdRanges.compress(next);
+
+        Assert.assertTrue(JSONDelta.diff(prev, next).isEmpty());
+
+        StringWriter w = new StringWriter();
+        InstanceArchiveWriter out = new InstanceArchiveWriter(w, prev);
+        out.add(next);
+        out.close();
+        Assert.assertEquals(w.toString(), "{}\n");
+    }
+
+    @Test
+    public void testCheckpoint() throws IOException {
+        File archive = File.createTempFile("archive", ".json");
+        File cp = InstanceArchiveWriter.checkpointOf(archive);
+        archive.deleteOnExit();
+        cp.deleteOnExit();
+        JSONObject o = new JSONObject();
+        o.put("objective", "minMTTR");
+
+        InstanceArchiveWriter out = new InstanceArchiveWriter(new FileWriter(archive));
+        out.add(o);
+        out.close();
+        out.writeCheckpoint(archive);
+        Assert.assertEquals(InstanceArchiveWriter.readCheckpoint(archive), o);
+
+        //The archive is modified without updating the checkpoint
+        FileWriter w = new FileWriter(archive, true);
+        w.write("{}\n");
+        w.close();
+        Assert.assertNull(InstanceArchiveWriter.readCheckpoint(archive));
+        Assert.assertTrue(cp.delete());
+        Assert.assertNull(InstanceArchiveWriter.readCheckpoint(archive));
+    }
+}
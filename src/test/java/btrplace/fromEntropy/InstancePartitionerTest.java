@@ -0,0 +1,104 @@
+/*
+ * Copyright (c) 2012 University of Nice Sophia-Antipolis
+ *
+ * This file is part of btrplace.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package btrplace.fromEntropy;
+
+import btrplace.model.*;
+import btrplace.model.constraint.Fence;
+import btrplace.model.constraint.MinMTTR;
+import btrplace.model.constraint.SatConstraint;
+import btrplace.model.view.ShareableResource;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Unit tests for {@link InstancePartitioner}.
+ *
+ * @author Fabien Hermenier
+ */
+public class InstancePartitionerTest {
+
+    /**
+     * 2 groups of 2 nodes, each hosting a VM fenced to its group, plus a ready VM.
+     */
+    private static Model makeModel() {
+        Model mo = new DefaultModel();
+        Mapping map = mo.getMapping();
+        ShareableResource rc = new ShareableResource(ConfigurationConverter.MEMORY_USAGE);
+        mo.attach(rc);
+        for (int i = 0; i < 4; i++) {
+            Node n = new Node(i);
+            map.addOnlineNode(n);
+            rc.setCapacity(n, 10);
+        }
+        map.addRunningVM(new VM(0), new Node(0));
+        map.addRunningVM(new VM(1), new Node(2));
+        map.addReadyVM(new VM(2));
+        rc.setConsumption(new VM(0), 3);
+        rc.setConsumption(new VM(1), 4);
+        mo.getAttributes().put(new VM(1), "foo", 5);
+        return mo;
+    }
+
+    @Test
+    public void testSplit() {
+        Model mo = makeModel();
+        List<SatConstraint> cstrs = new ArrayList<SatConstraint>();
+        cstrs.add(new Fence(new VM(0), Arrays.asList(new Node(0), new Node(1))));
+        cstrs.add(new Fence(new VM(1), Arrays.asList(new Node(2), new Node(3))));
+        List<Instance> parts = new InstancePartitioner().split(new Instance(mo, cstrs, new MinMTTR()));
+        Assert.assertEquals(parts.size(), 2);
+
+        Model first = parts.get(0).getModel();
+        Assert.assertEquals(first.getMapping().getAllNodes().size(), 2);
+        Assert.assertTrue(first.getMapping().getRunningVMs().contains(new VM(0)));
+        //The ready VM joined the first sub-instance
+        Assert.assertTrue(first.getMapping().getReadyVMs().contains(new VM(2)));
+        Assert.assertEquals(parts.get(0).getSatConstraints(), Collections.singletonList(cstrs.get(0)));
+
+        Model second = parts.get(1).getModel();
+        ShareableResource rc = (ShareableResource) second.getView(ShareableResource.VIEW_ID_BASE + ConfigurationConverter.MEMORY_USAGE);
+        Assert.assertEquals(rc.getConsumption(new VM(1)), 4);
+        Assert.assertEquals(rc.getCapacity(new Node(3)), 10);
+        Assert.assertFalse(rc.getDefinedVMs().contains(new VM(0)));
+        Assert.assertEquals(second.getAttributes().getInteger(new VM(1), "foo").intValue(), 5);
+        Assert.assertEquals(parts.get(1).getSatConstraints(), Collections.singletonList(cstrs.get(1)));
+    }
+
+    @Test
+    public void testNoSplit() {
+        Model mo = makeModel();
+        //VM 1 may go anywhere, so every node is involved
+        List<SatConstraint> cstrs = new ArrayList<SatConstraint>();
+        cstrs.add(new Fence(new VM(0), Arrays.asList(new Node(0), new Node(1))));
+        List<Instance> parts = new InstancePartitioner().split(new Instance(mo, cstrs, new MinMTTR()));
+        Assert.assertEquals(parts.size(), 1);
+        Assert.assertEquals(parts.get(0).getModel().getMapping().getAllVMs().size(), 3);
+    }
+
+    @Test
+    public void testPartName() {
+        Assert.assertEquals(Converter.partName("out.json.gz", 3), "out-3.json.gz");
+        Assert.assertEquals(Converter.partName("a.b/out", 0), "a.b/out-0");
+    }
+}
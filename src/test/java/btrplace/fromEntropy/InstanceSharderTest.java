@@ -0,0 +1,156 @@
+/*
+ * Copyright (c) 2012 University of Nice Sophia-Antipolis
+ *
+ * This file is part of btrplace.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package btrplace.fromEntropy;
+
+import btrplace.btrpsl.Script;
+import btrplace.btrpsl.ScriptBuilder;
+import btrplace.btrpsl.ScriptBuilderException;
+import btrplace.btrpsl.includes.BasicIncludes;
+import btrplace.json.JSONConverterException;
+import btrplace.model.DefaultModel;
+import btrplace.model.Instance;
+import btrplace.model.Model;
+import btrplace.model.Node;
+import btrplace.model.VM;
+import btrplace.model.constraint.MinMTTR;
+import btrplace.model.constraint.Online;
+import btrplace.model.constraint.Running;
+import btrplace.model.constraint.SatConstraint;
+import btrplace.model.view.NamingService;
+import net.minidev.json.JSONObject;
+import net.minidev.json.parser.JSONParser;
+import net.minidev.json.parser.ParseException;
+import org.apache.commons.io.FileUtils;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.*;
+
+/**
+ * Unit tests for {@link InstanceSharder}.
+ *
+ * @author Fabien Hermenier
+ */
+public class InstanceSharderTest {
+
+    private static final String RES = "src/test/resources/";
+
+    private static Instance instance() throws IOException, ScriptBuilderException {
+        ConfigurationConverter conv = new ConfigurationConverter(RES + "r3-nr0-src.pbd");
+        Instance i = conv.getInstance();
+        for (Node n : i.getModel().getMapping().getOnlineNodes()) {
+            i.getSatConstraints().add(new Online(n));
+        }
+        ScriptBuilder b = new ScriptBuilder(i.getModel());
+        Script dc = b.build(FileUtils.readFileToString(new File(RES + "datacenter.btrp")));
+        BasicIncludes bi = new BasicIncludes();
+        bi.add(dc);
+        b.setIncludes(bi);
+        for (String n : new String[]{"c0", "c1", "c2"}) {
+            i.getSatConstraints().addAll(b.build(FileUtils.readFileToString(new File(RES + "clients/" + n + ".btrp"))).getConstraints());
+        }
+        return i;
+    }
+
+    @Test
+    public void testSplit() throws IOException, ScriptBuilderException {
+        Instance i = instance();
+        List<SatConstraint> shared = new ArrayList<SatConstraint>();
+        SortedMap<String, List<SatConstraint>> shards = new InstanceSharder(false).split(i, shared);
+        Assert.assertEquals(shards.keySet(), new HashSet<String>(Arrays.asList("clients.c0", "clients.c1", "clients.c2")));
+        Assert.assertEquals(shared.size(), i.getModel().getMapping().getOnlineNodes().size());
+        int nb = shared.size();
+        for (List<SatConstraint> l : shards.values()) {
+            nb += l.size();
+        }
+        Assert.assertEquals(nb, i.getSatConstraints().size());
+    }
+
+    @Test
+    public void testWrite() throws IOException, ScriptBuilderException, JSONConverterException, ParseException {
+        Instance i = instance();
+        File dir = Files.createTempDirectory("shards").toFile();
+        try {
+            JSONObject model = new JSONObject();
+            model.put("model", "stub");
+            new InstanceSharder(false).write(i, model, dir);
+            FileReader in = new FileReader(new File(dir, InstanceSharder.MANIFEST));
+            JSONObject manifest;
+            try {
+                manifest = (JSONObject) new JSONParser(JSONParser.MODE_RFC4627).parse(in);
+            } finally {
+                in.close();
+            }
+            Assert.assertEquals(manifest.get("model"), "model.json");
+            Assert.assertEquals(manifest.get(InstanceSharder.SHARED), "shared.json");
+            Assert.assertTrue(new File(dir, "shared.json").isFile());
+            Map<?, ?> files = (Map<?, ?>) manifest.get(ParallelInstanceConverter.CONSTRAINTS_KEY);
+            Assert.assertEquals(files.size(), 3);
+            for (Object f : files.values()) {
+                Assert.assertTrue(new File(dir, f.toString()).isFile(), f.toString());
+            }
+            Assert.assertEquals(files.get("clients.c0"), "clients/clients.c0.json");
+        } finally {
+            FileUtils.deleteDirectory(dir);
+        }
+    }
+
+    /**
+     * A client namespace named like a fixed file does not replace it.
+     */
+    @Test
+    public void testReservedNamespace() throws IOException, JSONConverterException {
+        Model mo = new DefaultModel();
+        NamingService<VM> ns = NamingService.newVMNS();
+        mo.attach(ns);
+        List<SatConstraint> cstrs = new ArrayList<SatConstraint>();
+        for (String n : new String[]{"shared", "model", "manifest"}) {
+            VM v = mo.newVM();
+            mo.getMapping().addReadyVM(v);
+            ns.register(v, n + ".VM1");
+            cstrs.add(new Running(v));
+        }
+        Node n = mo.newNode();
+        mo.getMapping().addOnlineNode(n);
+        cstrs.add(new Online(n));
+        Instance i = new Instance(mo, cstrs, new MinMTTR());
+
+        List<SatConstraint> shared = new ArrayList<SatConstraint>();
+        SortedMap<String, List<SatConstraint>> shards = new InstanceSharder(false).split(i, shared);
+        Assert.assertEquals(shards.keySet(), new HashSet<String>(Arrays.asList("shared", "model", "manifest")));
+        Assert.assertEquals(shared, Collections.singletonList(new Online(n)));
+
+        File dir = Files.createTempDirectory("shards").toFile();
+        try {
+            JSONObject model = new JSONObject();
+            model.put("model", "stub");
+            JSONObject manifest = new InstanceSharder(false).write(i, model, dir);
+            Assert.assertEquals(((Map<?, ?>) manifest.get(ParallelInstanceConverter.CONSTRAINTS_KEY)).size(), 3);
+            Assert.assertEquals(manifest.get("sharedSize"), 1);
+            Assert.assertTrue(new File(dir, "clients/shared.json").isFile());
+            Assert.assertTrue(new File(dir, "clients/manifest.json").isFile());
+            Assert.assertTrue(FileUtils.readFileToString(new File(dir, "model.json")).contains("stub"));
+        } finally {
+            FileUtils.deleteDirectory(dir);
+        }
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright (c) 2012 University of Nice Sophia-Antipolis
+ *
+ * This file is part of btrplace.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package btrplace.fromEntropy;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * Unit tests for {@link NameTable}.
+ *
+ * @author Fabien Hermenier
+ */
+public class NameTableTest {
+
+    @Test
+    public void testAddAndResolve() {
+        NameTable t = new NameTable(2);
+        String[] names = {"VM1", "VM2", "N56", "c40m200", "VM007", "foo", "", "VM0", "N1234567890", "VM10"};
+        for (int i = 0; i < names.length; i++) {
+            Assert.assertEquals(t.add(names[i]), i);
+        }
+        //Already registered
+        Assert.assertEquals(t.add("VM2"), 1);
+        Assert.assertEquals(t.size(), names.length);
+        for (int i = 0; i < names.length; i++) {
+            Assert.assertEquals(t.indexOf(names[i]), i);
+            Assert.assertEquals(t.name(i), names[i]);
+        }
+        Assert.assertEquals(t.indexOf("VM7"), -1);
+        Assert.assertEquals(t.indexOf("VM3"), -1);
+        Assert.assertEquals(t.indexOf("bar"), -1);
+    }
+
+    @Test
+    public void testGrowth() {
+        NameTable t = new NameTable(0);
+        for (int i = 0; i < 10000; i++) {
+            Assert.assertEquals(t.add("VM" + i), i);
+        }
+        for (int i = 0; i < 10000; i++) {
+            Assert.assertEquals(t.indexOf("VM" + i), i);
+        }
+    }
+
+    /**
+     * A million VM names must be stored in less bytes than
+     * the same names as strings.
+     */
+    @Test
+    public void testFootprint() {
+        int nb = 1000000;
+        NameTable t = new NameTable(nb);
+        long strings = 0;
+        for (int i = 0; i < nb; i++) {
+            String name = "VM" + i;
+            t.add(name);
+            strings += NameTable.footprint(name);
+        }
+        Assert.assertEquals(t.size(), nb);
+        Assert.assertTrue(t.footprint() * 2 < strings, t.footprint() + " >= " + strings + " / 2");
+    }
+}
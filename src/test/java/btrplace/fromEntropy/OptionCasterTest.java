@@ -0,0 +1,64 @@
+/*
+ * Copyright (c) 2012 University of Nice Sophia-Antipolis
+ *
+ * This file is part of btrplace.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package btrplace.fromEntropy;
+
+import btrplace.model.Attributes;
+import btrplace.model.DefaultAttributes;
+import btrplace.model.VM;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * Unit tests for {@link OptionCaster}.
+ *
+ * @author Fabien Hermenier
+ */
+public class OptionCasterTest {
+
+    @Test
+    public void testSameAsCastAndPut() {
+        String[] values = {"true", "FALSE", "12", "-7", "+3", "2147483648", "1.5", "1e3", "7",
+                " 12", "foo", "t", "NaN", "Infinity", "", "10", "bar", "false", "3.0", "0"};
+        OptionCaster caster = new OptionCaster();
+        Attributes expected = new DefaultAttributes();
+        Attributes attrs = new DefaultAttributes();
+        //Every key starts with a different value type, then gets all the values
+        for (int k = 0; k < values.length; k++) {
+            String key = "k" + k;
+            for (int i = 0; i < values.length; i++) {
+                VM vm = new VM(i);
+                String v = values[(k + i) % values.length];
+                expected.castAndPut(vm, key, v);
+                caster.put(attrs, vm, key, v);
+                Assert.assertEquals(attrs.get(vm, key), expected.get(vm, key), "Value '" + v + "' for " + key);
+            }
+        }
+    }
+
+    @Test
+    public void testCast() {
+        OptionCaster caster = new OptionCaster();
+        Attributes expected = new DefaultAttributes();
+        VM vm = new VM(3);
+        for (String v : new String[]{"4", "true", "1.5", "foo", "5"}) {
+            expected.castAndPut(vm, "boot", v);
+            Assert.assertEquals(caster.cast("boot", v), expected.get(vm, "boot"), v);
+        }
+    }
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright (c) 2012 University of Nice Sophia-Antipolis
+ *
+ * This file is part of btrplace.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package btrplace.fromEntropy;
+
+import btrplace.json.JSONConverterException;
+import btrplace.json.model.InstanceConverter;
+import btrplace.model.Instance;
+import btrplace.model.Node;
+import btrplace.model.constraint.Offline;
+import btrplace.model.constraint.Online;
+import net.minidev.json.JSONObject;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+
+/**
+ * Unit tests for {@link ParallelInstanceConverter}.
+ *
+ * @author Fabien Hermenier
+ */
+public class ParallelInstanceConverterTest {
+
+    private static Instance instance() throws IOException {
+        ConfigurationConverter conv = new ConfigurationConverter("src/test/resources/r3-nr0-src.pbd");
+        Instance i = conv.getInstance();
+        i.getSatConstraints().addAll(conv.getNextStates("src/test/resources/r3-nr0-dst.pbd"));
+        for (Node n : i.getModel().getMapping().getOnlineNodes()) {
+            i.getSatConstraints().add(new Online(n));
+        }
+        for (Node n : i.getModel().getMapping().getOfflineNodes()) {
+            i.getSatConstraints().add(new Offline(n));
+        }
+        return i;
+    }
+
+    @Test
+    public void testSameOutput() throws IOException, JSONConverterException {
+        Instance i = instance();
+        Assert.assertTrue(i.getSatConstraints().size() > 2 * ParallelInstanceConverter.CHUNK_SIZE);
+
+        JSONObject ref = new InstanceConverter().toJSON(i);
+        String refStr = ref.toJSONString();
+
+        ParallelInstanceConverter pc = new ParallelInstanceConverter();
+        JSONObject o = pc.toJSON(i);
+        StringBuilder b = new StringBuilder();
+        pc.write(o, b);
+
+        Assert.assertEquals(o, ref);
+        Assert.assertEquals(b.toString(), refStr);
+    }
+}
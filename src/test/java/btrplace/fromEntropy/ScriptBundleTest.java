@@ -0,0 +1,121 @@
+/*
+ * Copyright (c) 2012 University of Nice Sophia-Antipolis
+ *
+ * This file is part of btrplace.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package btrplace.fromEntropy;
+
+import org.apache.commons.io.FileUtils;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Unit tests for {@link ScriptBundle}.
+ *
+ * @author Fabien Hermenier
+ */
+public class ScriptBundleTest {
+
+    private static final String CLIENTS = "src/test/resources/clients";
+
+    @Test
+    public void testTar() throws IOException {
+        File f = new File("src/test/resources/clients-bundle.tar.gz");
+        Assert.assertTrue(ScriptBundle.isBundle(f));
+        Map<String, String> scripts = ScriptBundle.read(f);
+        Assert.assertEquals(scripts.size(), 3);
+        for (String n : new String[]{"c0.btrp", "c1.btrp", "c2.btrp"}) {
+            Assert.assertEquals(scripts.get(n), FileUtils.readFileToString(new File(CLIENTS, n)));
+        }
+    }
+
+    @Test
+    public void testZip() throws IOException {
+        File f = File.createTempFile("clients", ".zip");
+        f.deleteOnExit();
+        File[] files = new File(CLIENTS).listFiles();
+        ZipOutputStream out = new ZipOutputStream(new FileOutputStream(f));
+        try {
+            out.putNextEntry(new ZipEntry("clients/"));
+            for (File s : files) {
+                out.putNextEntry(new ZipEntry("clients/" + s.getName()));
+                out.write(FileUtils.readFileToByteArray(s));
+            }
+        } finally {
+            out.close();
+        }
+        Map<String, String> scripts = ScriptBundle.read(f);
+        Assert.assertEquals(scripts.size(), files.length);
+        for (File s : files) {
+            Assert.assertEquals(scripts.get("clients/" + s.getName()), FileUtils.readFileToString(s));
+        }
+    }
+
+    /**
+     * Make a tar entry.
+     *
+     * @param magic the magic and the version of the header
+     */
+    private static void entry(ByteArrayOutputStream out, String name, String content, String magic) throws IOException {
+        byte[] header = new byte[512];
+        byte[] b = content.getBytes(StandardCharsets.UTF_8);
+        System.arraycopy(name.getBytes(StandardCharsets.US_ASCII), 0, header, 0, name.length());
+        String size = String.format("%011o", b.length);
+        System.arraycopy(size.getBytes(StandardCharsets.US_ASCII), 0, header, 124, size.length());
+        header[156] = '0';
+        System.arraycopy(magic.getBytes(StandardCharsets.US_ASCII), 0, header, 257, magic.length());
+        //The GNU format stores the access time where the ustar prefix stands
+        header[345] = '1';
+        out.write(header);
+        out.write(b);
+        out.write(new byte[(512 - b.length % 512) % 512]);
+    }
+
+    @Test
+    public void testGnuTar() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        entry(out, "c0.btrp", "foo", "ustar  ");
+        entry(out, "__MACOSX/._c0.btrp", "bar", "ustar  ");
+        entry(out, "clients/._c1.btrp", "bar", "ustar  ");
+        out.write(new byte[1024]);
+        Map<String, String> scripts = ScriptBundle.readTar(new ByteArrayInputStream(out.toByteArray()));
+        Assert.assertEquals(scripts.size(), 1);
+        Assert.assertEquals(scripts.get("c0.btrp"), "foo");
+    }
+
+    @Test(expectedExceptions = IOException.class)
+    public void testNotUstar() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        entry(out, "c0.btrp", "foo", "");
+        ScriptBundle.readTar(new ByteArrayInputStream(out.toByteArray()));
+    }
+
+    @Test
+    public void testNotABundle() {
+        Assert.assertFalse(ScriptBundle.isBundle(new File(CLIENTS)));
+        Assert.assertFalse(ScriptBundle.isBundle(new File("src/test/resources/datacenter.btrp")));
+    }
+}
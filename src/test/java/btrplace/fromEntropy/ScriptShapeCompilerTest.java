@@ -0,0 +1,150 @@
+/*
+ * Copyright (c) 2012 University of Nice Sophia-Antipolis
+ *
+ * This file is part of btrplace.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package btrplace.fromEntropy;
+
+import btrplace.btrpsl.Script;
+import btrplace.btrpsl.ScriptBuilder;
+import btrplace.btrpsl.ScriptBuilderException;
+import btrplace.btrpsl.includes.BasicIncludes;
+import btrplace.model.Model;
+import btrplace.model.VM;
+import btrplace.model.constraint.SatConstraint;
+import org.apache.commons.io.FileUtils;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+
+/**
+ * Unit tests for {@link ScriptShapeCompiler}.
+ *
+ * @author Fabien Hermenier
+ */
+public class ScriptShapeCompilerTest {
+
+    private static final String SRC = "src/test/resources/r3-nr0-src.pbd";
+
+    private static String read(String path) throws IOException {
+        return FileUtils.readFileToString(new File(path));
+    }
+
+    private static ScriptBuilder builder(Model mo) throws IOException, ScriptBuilderException {
+        ScriptBuilder b = new ScriptBuilder(mo);
+        Script dc = b.build(read("src/test/resources/datacenter.btrp"));
+        BasicIncludes bi = new BasicIncludes();
+        bi.add(dc);
+        b.setIncludes(bi);
+        return b;
+    }
+
+    /**
+     * The instantiated scripts must state the constraints and the attributes
+     * of the scripts built by the script builder.
+     */
+    @Test
+    public void testSameAsBuilder() throws IOException, ScriptBuilderException {
+        Model ref = new ConfigurationConverter(SRC).getModel();
+        Model mo = new ConfigurationConverter(SRC).getModel();
+        ScriptBuilder b = builder(ref);
+        ScriptShapeCompiler c = new ScriptShapeCompiler(builder(mo), mo);
+
+        File[] files = new File("src/test/resources/clients").listFiles();
+        Arrays.sort(files);
+        for (File f : files) {
+            String src = read(f.getPath());
+            Assert.assertEquals(new HashSet<SatConstraint>(c.compile(src)),
+                    new HashSet<SatConstraint>(b.build(src).getConstraints()), f.getName());
+        }
+        Assert.assertEquals(c.getNbBuilt() + c.getNbInstantiated(), files.length);
+        Assert.assertTrue(c.getNbInstantiated() > files.length - 10);
+
+        for (VM v : ref.getMapping().getAllVMs()) {
+            for (String k : ref.getAttributes().getKeys(v)) {
+                Assert.assertEquals(mo.getAttributes().get(v, k), ref.getAttributes().get(v, k), v + " " + k);
+            }
+        }
+    }
+
+    @Test
+    public void testUnsupportedStatement() throws IOException, ScriptBuilderException {
+        Model mo = new ConfigurationConverter(SRC).getModel();
+        ScriptShapeCompiler c = new ScriptShapeCompiler(builder(mo), mo);
+        String src = read("src/test/resources/clients/c0.btrp");
+        //An unknown statement is left to the script builder
+        String other = src.replace("export $me to *;", "lonely($T1);\nexport $me to *;");
+        Assert.assertNull(ScriptShapeCompiler.parse(other));
+        c.compile(src);
+        c.compile(src);
+        c.compile(other);
+        Assert.assertEquals(c.getNbBuilt(), 2);
+        Assert.assertEquals(c.getNbInstantiated(), 1);
+    }
+
+    /**
+     * A script can import the namespace of an instantiated script.
+     */
+    @Test
+    public void testImportInstantiated() throws IOException, ScriptBuilderException {
+        Model mo = new ConfigurationConverter(SRC).getModel();
+        ScriptShapeCompiler c = new ScriptShapeCompiler(builder(mo), mo);
+        c.compile(read("src/test/resources/clients/c0.btrp"));
+        c.compile(read("src/test/resources/clients/c1.btrp"));
+        Assert.assertEquals(c.getNbInstantiated(), 1);
+
+        Collection<SatConstraint> cstrs = c.compile("namespace clients.other;\nimport clients.c1;\nspread($clients.c1);");
+        Assert.assertEquals(cstrs.size(), 1);
+        Assert.assertEquals(cstrs.iterator().next().getInvolvedVMs().size(), 16);
+    }
+
+    /**
+     * A variable that refers to undeclared VMs is left to the script builder.
+     */
+    @Test
+    public void testUnknownVMs() throws IOException, ScriptBuilderException {
+        Model ref = new ConfigurationConverter(SRC).getModel();
+        Model mo = new ConfigurationConverter(SRC).getModel();
+        ScriptShapeCompiler c = new ScriptShapeCompiler(builder(mo), mo);
+        c.compile(read("src/test/resources/clients/c0.btrp"));
+        String src = read("src/test/resources/clients/c1.btrp").replace("$T1 = VM[1..10];", "$T1 = VM[1..20];");
+
+        Collection<SatConstraint> expected;
+        try {
+            expected = builder(ref).build(src).getConstraints();
+        } catch (ScriptBuilderException ex) {
+            expected = null;
+        }
+        Collection<SatConstraint> cstrs;
+        try {
+            cstrs = c.compile(src);
+        } catch (ScriptBuilderException ex) {
+            cstrs = null;
+        }
+        Assert.assertEquals(c.getNbInstantiated(), 0);
+        Assert.assertEquals(c.getNbBuilt(), 2);
+        if (expected == null) {
+            Assert.assertNull(cstrs);
+        } else {
+            Assert.assertEquals(new HashSet<SatConstraint>(cstrs), new HashSet<SatConstraint>(expected));
+        }
+    }
+}
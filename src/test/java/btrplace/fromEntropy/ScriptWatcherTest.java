@@ -0,0 +1,98 @@
+/*
+ * Copyright (c) 2012 University of Nice Sophia-Antipolis
+ *
+ * This file is part of btrplace.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package btrplace.fromEntropy;
+
+import btrplace.model.Model;
+import org.apache.commons.io.FileUtils;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Unit tests for {@link ScriptWatcher}.
+ *
+ * @author Fabien Hermenier
+ */
+public class ScriptWatcherTest {
+
+    private static final String RES = "src/test/resources/";
+
+    @Test
+    public void testIncrementalCompilation() throws IOException, InterruptedException {
+        File dir = Files.createTempDirectory("clients").toFile();
+        File dc = new File(dir.getParentFile(), dir.getName() + "-datacenter.btrp");
+        try {
+            FileUtils.copyFile(new File(RES + "datacenter.btrp"), dc);
+            for (String n : new String[]{"c0.btrp", "c1.btrp"}) {
+                FileUtils.copyFile(new File(RES + "clients/" + n), new File(dir, n));
+            }
+            Model mo = new ConfigurationConverter(RES + "r3-nr0-src.pbd").getModel();
+            ScriptWatcher w = new ScriptWatcher(mo, dc, dir);
+            try {
+                int nb = w.getConstraints().size();
+                Assert.assertTrue(nb > 0);
+                Assert.assertTrue(w.poll(100, TimeUnit.MILLISECONDS).isEmpty());
+
+                //A new script
+                FileUtils.copyFile(new File(RES + "clients/c2.btrp"), new File(dir, "c2.btrp"));
+                Assert.assertEquals(poll(w), new HashSet<String>(Arrays.asList("c2.btrp")));
+                Assert.assertTrue(w.getConstraints().size() > nb);
+
+                //A removed script
+                Assert.assertTrue(new File(dir, "c2.btrp").delete());
+                Assert.assertEquals(poll(w), new HashSet<String>(Arrays.asList("c2.btrp")));
+                Assert.assertEquals(w.getConstraints().size(), nb);
+
+                //A broken script no longer states constraints
+                FileUtils.writeStringToFile(new File(dir, "c0.btrp"), "namespace clients.c0;\nspread(;");
+                Assert.assertEquals(poll(w), new HashSet<String>(Arrays.asList("c0.btrp")));
+                Assert.assertTrue(w.getConstraints().size() < nb);
+
+                //The datacenter script changes every client script
+                FileUtils.copyFile(new File(RES + "datacenter.btrp"), dc);
+                Assert.assertEquals(poll(w), new HashSet<String>(Arrays.asList("c0.btrp", "c1.btrp")));
+            } finally {
+                w.close();
+            }
+        } finally {
+            FileUtils.deleteDirectory(dir);
+            dc.delete();
+        }
+    }
+
+    /**
+     * Wait for the modifications to be reported.
+     */
+    private static Set<String> poll(ScriptWatcher w) throws IOException, InterruptedException {
+        Set<String> changed = new HashSet<String>();
+        for (int x = 0; x < 20 && changed.isEmpty(); x++) {
+            changed.addAll(w.poll(500, TimeUnit.MILLISECONDS));
+        }
+        //Collect the late events of the same modification
+        changed.addAll(w.poll(200, TimeUnit.MILLISECONDS));
+        return changed;
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright (c) 2012 University of Nice Sophia-Antipolis
+ *
+ * This file is part of btrplace.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package btrplace.fromEntropy;
+
+import btrplace.model.Model;
+import btrplace.model.Node;
+import btrplace.model.VM;
+import btrplace.model.view.ShareableResource;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+/**
+ * Unit tests for {@link SnapshotCache}.
+ *
+ * @author Fabien Hermenier
+ */
+public class SnapshotCacheTest {
+
+    private static final String SRC = "src/test/resources/configTest.pbd";
+
+    private static File makeDir() throws IOException {
+        File dir = File.createTempFile("snapshots", "");
+        Assert.assertTrue(dir.delete());
+        dir.deleteOnExit();
+        return dir;
+    }
+
+    private static void check(ConfigurationConverter expected, ConfigurationConverter conv) {
+        Model mo = conv.getModel();
+        Model ref = expected.getModel();
+        Assert.assertEquals(mo.getMapping(), ref.getMapping());
+        Assert.assertEquals(conv.getConstraint(), expected.getConstraint());
+        for (VM v : ref.getMapping().getAllVMs()) {
+            Assert.assertEquals(conv.getRegistryVMs().resolve(v), expected.getRegistryVMs().resolve(v));
+            for (String k : ref.getAttributes().getKeys(v)) {
+                Assert.assertEquals(mo.getAttributes().get(v, k), ref.getAttributes().get(v, k));
+            }
+        }
+        for (Node n : ref.getMapping().getAllNodes()) {
+            Assert.assertEquals(conv.getRegistryNodes().resolve(n), expected.getRegistryNodes().resolve(n));
+            for (String k : ref.getAttributes().getKeys(n)) {
+                Assert.assertEquals(mo.getAttributes().get(n, k), ref.getAttributes().get(n, k));
+            }
+        }
+        for (String rc : new String[]{ConfigurationConverter.MEMORY_USAGE, ConfigurationConverter.UCPU_USAGE}) {
+            ShareableResource r1 = (ShareableResource) mo.getView(ShareableResource.VIEW_ID_BASE + rc);
+            ShareableResource r2 = (ShareableResource) ref.getView(ShareableResource.VIEW_ID_BASE + rc);
+            for (VM v : ref.getMapping().getAllVMs()) {
+                Assert.assertEquals(r1.getConsumption(v), r2.getConsumption(v));
+            }
+            for (Node n : ref.getMapping().getAllNodes()) {
+                Assert.assertEquals(r1.getCapacity(n), r2.getCapacity(n));
+            }
+        }
+    }
+
+    @Test
+    public void testSaveAndLoad() throws IOException {
+        File dir = makeDir();
+        SnapshotCache cache = new SnapshotCache(dir);
+        ConfigurationConverter ref = new ConfigurationConverter(SRC);
+
+        //First conversion, the snapshot is saved
+        check(ref, new ConfigurationConverter(SRC, null, ColumnStore.HEAP, cache));
+        Assert.assertTrue(new File(dir, cache.key(SRC) + ".snapshot").isFile());
+
+        //Second conversion, the snapshot is loaded
+        check(ref, new ConfigurationConverter(SRC, null, ColumnStore.HEAP, cache));
+    }
+
+    @Test
+    public void testCorruptedSnapshot() throws IOException {
+        File dir = makeDir();
+        SnapshotCache cache = new SnapshotCache(dir);
+        ConfigurationConverter ref = new ConfigurationConverter(SRC);
+        new ConfigurationConverter(SRC, null, ColumnStore.HEAP, cache);
+
+        File f = new File(dir, cache.key(SRC) + ".snapshot");
+        Assert.assertTrue(f.isFile());
+        RandomAccessFile raf = new RandomAccessFile(f, "rw");
+        try {
+            raf.seek(raf.length() / 2);
+            int b = raf.read();
+            raf.seek(raf.length() / 2);
+            raf.write(b ^ 0xff);
+        } finally {
+            raf.close();
+        }
+        //The snapshot is discarded, then the configuration is converted again
+        check(ref, new ConfigurationConverter(SRC, null, ColumnStore.HEAP, cache));
+        Assert.assertTrue(f.isFile());
+    }
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright (c) 2012 University of Nice Sophia-Antipolis
+ *
+ * This file is part of btrplace.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package btrplace.fromEntropy;
+
+import btrplace.model.constraint.Online;
+import btrplace.model.constraint.Offline;
+import btrplace.model.constraint.Ready;
+import btrplace.model.constraint.SatConstraint;
+import entropy.configuration.parser.PBConfiguration;
+import entropy.configuration.parser.PBVirtualMachine;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Unit tests for {@link SnapshotStream}.
+ *
+ * @author Fabien Hermenier
+ */
+public class SnapshotStreamTest {
+
+    private static PBConfiguration.Configuration read(String path) throws IOException {
+        InputStream in = new FileInputStream(path);
+        try {
+            return PBConfiguration.Configuration.parseFrom(in);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Count the VM state changes.
+     */
+    private static int nbVMChanges(List<SatConstraint> cstrs) {
+        int nb = 0;
+        for (SatConstraint c : cstrs) {
+            if (!(c instanceof Online) && !(c instanceof Offline)) {
+                nb += c.getInvolvedVMs().size();
+            }
+        }
+        return nb;
+    }
+
+    @Test
+    public void testStream() throws IOException {
+        String src = "src/test/resources/r3-nr0-src.pbd";
+        String dst = "src/test/resources/r3-nr0-dst.pbd";
+
+        //src -> dst -> src
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        read(src).writeDelimitedTo(bos);
+        read(dst).writeDelimitedTo(bos);
+        read(src).writeDelimitedTo(bos);
+
+        List<SatConstraint> expected = new ArrayList<SatConstraint>(new ConfigurationConverter(src).getNextStates(dst));
+
+        SnapshotStream s = new SnapshotStream(new ByteArrayInputStream(bos.toByteArray()));
+        Assert.assertTrue(s.next());
+        Assert.assertEquals(s.getIndex(), 0);
+        Assert.assertTrue(s.getStateChanges().isEmpty());
+
+        Assert.assertTrue(s.next());
+        Assert.assertEquals(s.getIndex(), 1);
+        Assert.assertEquals(nbVMChanges(s.getStateChanges()), nbVMChanges(expected));
+        Assert.assertEquals(nbVMChanges(s.getStateChanges()), 763);
+        Assert.assertEquals(s.toJSON().get("snapshot"), 1);
+
+        //Back to the initial state, except for the VMs that were not in dst
+        Assert.assertTrue(s.next());
+        Assert.assertFalse(s.getStateChanges().isEmpty());
+
+        Assert.assertFalse(s.next());
+        s.close();
+    }
+
+    /**
+     * A waiting VM that appears in the second snapshot is reported as ready.
+     */
+    @Test
+    public void testArrival() throws IOException {
+        PBConfiguration.Configuration src = read("src/test/resources/r3-nr0-src.pbd");
+        List<PBVirtualMachine.VirtualMachine> waitings = src.getWaitingsList();
+        PBConfiguration.Configuration before = src.toBuilder().clearWaitings()
+                .addAllWaitings(waitings.subList(1, waitings.size())).build();
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        before.writeDelimitedTo(bos);
+        src.writeDelimitedTo(bos);
+
+        SnapshotStream s = new SnapshotStream(new ByteArrayInputStream(bos.toByteArray()));
+        try {
+            Assert.assertTrue(s.next());
+            Assert.assertTrue(s.next());
+            List<SatConstraint> changes = s.getStateChanges();
+            Assert.assertEquals(changes.size(), 1);
+            Assert.assertTrue(changes.get(0) instanceof Ready);
+            Assert.assertEquals(s.getName(changes.get(0).getInvolvedVMs().iterator().next()), waitings.get(0).getName());
+            Assert.assertEquals(s.toJSON().get("ready"), Arrays.asList(waitings.get(0).getName()));
+        } finally {
+            s.close();
+        }
+    }
+
+    /**
+     * The snapshots stored in a mapped file re-use the storage
+     * of the previous ones and give the same changes.
+     */
+    @Test
+    public void testMappedStore() throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        for (int x = 0; x < 4; x++) {
+            read(x % 2 == 0 ? "src/test/resources/r3-nr0-src.pbd" : "src/test/resources/r3-nr0-dst.pbd").writeDelimitedTo(bos);
+        }
+        SnapshotStream heap = new SnapshotStream(new ByteArrayInputStream(bos.toByteArray()));
+        ColumnStore store = ColumnStore.mapped(null);
+        SnapshotStream mapped = new SnapshotStream(new ByteArrayInputStream(bos.toByteArray()), store);
+        try {
+            while (heap.next()) {
+                Assert.assertTrue(mapped.next());
+                Assert.assertEquals(mapped.getStateChanges().size(), heap.getStateChanges().size());
+                Assert.assertEquals(nbVMChanges(mapped.getStateChanges()), nbVMChanges(heap.getStateChanges()));
+            }
+            Assert.assertFalse(mapped.next());
+        } finally {
+            heap.close();
+            mapped.close();
+            store.close();
+        }
+    }
+}